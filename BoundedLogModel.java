@@ -0,0 +1,142 @@
+import java.io.Serial;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import javax.swing.AbstractListModel;
+import javax.swing.Timer;
+
+/**
+ * 有界的日志列表模型：最多保留固定行数，超出时丢弃最旧的行，内存占用不随运行时间增长。
+ * 任意线程都可以追加，追加的行先暂存，每个刷新周期最多在 Swing 线程中批量应用一次，
+ * 大量消息涌入时不会为每行提交一个界面任务。配合 {@link javax.swing.JList} 使用时只绘制可见的行
+ */
+final class BoundedLogModel extends AbstractListModel<String> {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    /** 默认刷新周期，毫秒（约每秒 60 帧） */
+    static final int DEFAULT_REFRESH_MILLIS = 16;
+
+    private final String[] rows; // 环形缓冲区，只在 Swing 线程中访问
+    private int head;            // 最旧一行的位置
+    private int size;
+
+    private final ArrayDeque<String> pending = new ArrayDeque<>(); // 等待应用的行，受自身锁保护
+    private final Timer refreshTimer;
+    private boolean refreshScheduled; // 受 pending 锁保护
+    private long dropped;             // 未显示就被挤掉的行数，受 pending 锁保护
+    private Runnable afterRefresh;
+
+    /**
+     * @param capacity      最多保留的行数
+     * @param refreshMillis 刷新周期，毫秒
+     */
+    BoundedLogModel(int capacity, int refreshMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("保留行数非法：" + capacity);
+        }
+        this.rows = new String[capacity];
+        this.refreshTimer = new Timer(refreshMillis, e -> refresh());
+        this.refreshTimer.setRepeats(false);
+    }
+
+    /**
+     * 设置每次批量应用新行之后执行的操作，如滚动到末尾
+     * @param afterRefresh 在 Swing 线程中执行的操作
+     */
+    void setAfterRefresh(Runnable afterRefresh) {
+        this.afterRefresh = afterRefresh;
+    }
+
+    /**
+     * 追加一条消息，多行内容按行拆分。可在任意线程调用
+     * @param message 消息内容
+     */
+    void append(String message) {
+        synchronized (this.pending) {
+            for (String line : message.split("\n", -1)) {
+                this.pending.addLast(line);
+            }
+            // 待应用的行超过容量时，多出的部分反正会被挤掉，直接丢弃
+            while (this.pending.size() > this.rows.length) {
+                this.pending.pollFirst();
+                this.dropped++;
+            }
+            if (this.refreshScheduled) {
+                return;
+            }
+            this.refreshScheduled = true;
+        }
+        this.refreshTimer.restart();
+    }
+
+    /**
+     * 清空所有行。须在 Swing 线程中调用
+     */
+    void clear() {
+        synchronized (this.pending) {
+            this.pending.clear();
+        }
+        int oldSize = this.size;
+        Arrays.fill(this.rows, null);
+        this.head = 0;
+        this.size = 0;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    /**
+     * @return 因刷新不及时或超出保留行数而未显示就被丢弃的行数
+     */
+    long getDropped() {
+        synchronized (this.pending) {
+            return this.dropped;
+        }
+    }
+
+    /**
+     * 在 Swing 线程中把暂存的行一次性写入环形缓冲区，并合并通知列表。
+     * 由刷新定时器调用，基准测试也直接调用
+     */
+    void refresh() {
+        String[] batch;
+        synchronized (this.pending) {
+            batch = this.pending.toArray(new String[0]);
+            this.pending.clear();
+            this.refreshScheduled = false;
+        }
+        if (batch.length == 0) {
+            return;
+        }
+
+        int capacity = this.rows.length;
+        int evicted = Math.max(0, this.size + batch.length - capacity);
+        for (String line : batch) {
+            this.rows[(this.head + this.size) % capacity] = line;
+            if (this.size < capacity) {
+                this.size++;
+            } else {
+                this.head = (this.head + 1) % capacity;
+            }
+        }
+
+        // 先通知移除被挤掉的旧行，再通知新增的行（暂存的行数不超过容量）
+        if (evicted > 0) {
+            fireIntervalRemoved(this, 0, evicted - 1);
+        }
+        fireIntervalAdded(this, this.size - batch.length, this.size - 1);
+
+        if (this.afterRefresh != null) {
+            this.afterRefresh.run();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return this.rows[(this.head + index) % this.rows.length];
+    }
+}
@@ -0,0 +1,150 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+
+/**
+ * 广播消息的编码器：每条广播按文本、二进制帧和 DEFLATE 压缩帧各编码一次，
+ * 同一编码的客户端共享同一字节数组。
+ * <p>
+ * 每个房间一个编码器，房间内协商了压缩的连接共用一条压缩流（每条消息以 SYNC_FLUSH 结束），压缩只做一次。
+ * 新连接加入或某连接丢帧后，下一条消息前重置压缩器并带上重置标志，
+ * 客户端收到重置帧时重置解压器，从这一帧开始即可解压；在此之前该连接收到未压缩的二进制帧。
+ * 由广播线程串行调用，连接换房间也与广播串行
+ */
+final class BroadcastEncoder {
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final AtomicBoolean resetRequested = new AtomicBoolean(true);
+    private byte[] deflateBuffer = new byte[4096];
+    private int seq;
+    private final Stats stats;
+
+    // 当前广播的各种编码
+    private byte[] textFrame;
+    private byte[] binaryFrame;
+    private byte[] deflatedFrame;
+    private boolean reset; // 当前压缩帧之前是否重置了压缩流
+
+    /**
+     * @param stats 压缩统计，可由多个编码器共用
+     */
+    BroadcastEncoder(Stats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * 编码一条广播消息，之后用 {@link #frameFor(ChatConnection)} 取各连接要发送的字节帧
+     * @param message 带时间前缀的消息
+     * @param deflate 是否有协商了压缩的连接，没有时跳过压缩
+     */
+    void encode(String message, boolean deflate) {
+        this.seq++;
+        this.textFrame = ChatProtocol.encodeText(message);
+        this.binaryFrame = ChatProtocol.encodeFrame(ChatProtocol.TYPE_CHAT, this.seq, message);
+        if (!deflate) {
+            // 没有压缩连接时不维护压缩流，下一个压缩连接从重置帧开始
+            this.deflatedFrame = null;
+            this.resetRequested.set(true);
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.reset = this.resetRequested.getAndSet(false);
+        if (this.reset) {
+            this.deflater.reset();
+        }
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        this.deflater.setInput(payload);
+        int length = 0;
+        while (true) {
+            length += this.deflater.deflate(this.deflateBuffer, length, this.deflateBuffer.length - length, Deflater.SYNC_FLUSH);
+            if (length < this.deflateBuffer.length) {
+                break;
+            }
+            this.deflateBuffer = Arrays.copyOf(this.deflateBuffer, this.deflateBuffer.length * 2);
+        }
+        byte type = (byte) (ChatProtocol.TYPE_CHAT | ChatProtocol.FLAG_DEFLATE | (this.reset ? ChatProtocol.FLAG_RESET : 0));
+        this.deflatedFrame = ChatProtocol.encodeFrame(type, this.seq, this.deflateBuffer, length);
+
+        this.stats.deflateNanos += System.nanoTime() - start;
+        this.stats.deflatedMessages++;
+        this.stats.rawBytes += this.binaryFrame.length;
+        this.stats.deflatedBytes += this.deflatedFrame.length;
+    }
+
+    /**
+     * @param client 接收广播的连接
+     * @return 按该连接的协议和压缩流状态选出的字节帧
+     */
+    byte[] frameFor(ChatConnection client) {
+        if (client.getProtocolVersion() == ChatProtocol.TEXT_VERSION) {
+            return this.textFrame;
+        }
+        Stream stream = client.getDeflateStream();
+        if (stream == null || this.deflatedFrame == null) {
+            return this.binaryFrame;
+        }
+        if (this.reset) {
+            stream.synced = true;
+        }
+        return stream.synced ? this.deflatedFrame : this.binaryFrame;
+    }
+
+    /**
+     * 请求在下一条消息前重置压缩流，供新加入或丢帧的连接重新同步
+     */
+    void requestReset() {
+        this.resetRequested.set(true);
+    }
+
+    /**
+     * 压缩统计，各房间的编码器共用，由广播线程串行更新
+     */
+    static final class Stats {
+        private long deflatedMessages;
+        private long rawBytes;
+        private long deflatedBytes;
+        private long deflateNanos;
+
+        /**
+         * @return 压缩统计摘要
+         */
+        String summary() {
+            if (this.deflatedMessages == 0) {
+                return "未压缩广播";
+            }
+            return String.format("压缩广播 %d 条，原始帧 %d 字节，压缩后 %d 字节（%.1f%%），平均每条压缩 %.1f us",
+                    this.deflatedMessages, this.rawBytes, this.deflatedBytes,
+                    this.deflatedBytes * 100.0 / this.rawBytes, this.deflateNanos / 1000.0 / this.deflatedMessages);
+        }
+    }
+
+    /**
+     * 单个连接在所在房间的共享压缩流中的同步状态
+     */
+    static final class Stream {
+        private volatile boolean synced; // 已收到重置帧，可以接收压缩帧
+        private volatile BroadcastEncoder encoder; // 所在房间的编码器，尚未进入房间时为 null
+
+        /**
+         * 连接进入了另一个房间：改发未压缩帧，直到新房间压缩流的下一个重置帧
+         * @param encoder 新房间的编码器
+         */
+        void moveTo(BroadcastEncoder encoder) {
+            this.synced = false;
+            this.encoder = encoder;
+            encoder.requestReset();
+        }
+
+        /**
+         * 该连接丢失了压缩帧（如待发送队列溢出）：改发未压缩帧，直到下一个重置帧
+         */
+        void desync() {
+            this.synced = false;
+            BroadcastEncoder current = this.encoder;
+            if (current != null) {
+                current.requestReset();
+            }
+        }
+    }
+}
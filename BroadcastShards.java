@@ -0,0 +1,144 @@
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 广播扇出的分片工作线程。每个房间的成员按连接分到固定的 N 个分片，一条广播只编码一次，
+ * 由调用线程处理分片 0，其余 N-1 个分片各由一个工作线程并行放入本分片成员的待发送队列。
+ * <p>
+ * 调用线程等所有分片都完成后才返回，广播之间仍按调用顺序串行，每个连接收到的消息顺序与单线程扇出相同，
+ * 换房间和压缩流的切换也仍与整次广播串行。房间成员较少时唤醒工作线程的开销大于并行的收益，
+ * 由调用线程独自完成。由广播线程在广播锁内调用
+ */
+final class BroadcastShards {
+    /** 房间成员少于该数时不并行扇出 */
+    static final int PARALLEL_MIN_MEMBERS = 256;
+
+    private final int count;
+    private final Worker[] workers; // 分片 1..N-1 的工作线程
+    private final AtomicInteger pending = new AtomicInteger(); // 本次广播尚未完成的工作线程数
+    private volatile Thread caller; // 等待本次广播完成的调用线程
+    private volatile RuntimeException failure; // 工作线程扇出时抛出的异常，由调用线程重新抛出
+    private volatile boolean running = true;
+
+    /**
+     * @param count   分片数，为 1 时不创建工作线程
+     * @param factory 工作线程的线程工厂
+     */
+    BroadcastShards(int count, ThreadFactory factory) {
+        this.count = count;
+        this.workers = new Worker[count - 1];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Worker(i + 1);
+            this.workers[i].thread = factory.newThread(this.workers[i]);
+            this.workers[i].thread.setDaemon(true);
+            this.workers[i].thread.start();
+        }
+    }
+
+    /**
+     * @return 分片数
+     */
+    int count() {
+        return this.count;
+    }
+
+    /**
+     * @param client 连接
+     * @param count  分片数
+     * @return 连接所属的分片，同一连接始终属于同一分片
+     */
+    static int shardOf(ChatConnection client, int count) {
+        return count == 1 ? 0 : Math.floorMod(System.identityHashCode(client), count);
+    }
+
+    /**
+     * 把房间编码器刚编码的广播发给房间的所有成员，返回时已全部入队
+     * @param room 目标房间，其编码器已编码了本条广播
+     */
+    void fanOut(ChatRoom room) {
+        if (this.workers.length == 0 || !this.running || room.size() < PARALLEL_MIN_MEMBERS) {
+            for (int shard = 0; shard < this.count; shard++) {
+                deliver(room, shard);
+            }
+            return;
+        }
+        this.caller = Thread.currentThread();
+        this.pending.set(this.workers.length);
+        for (Worker worker : this.workers) {
+            worker.submit(room);
+        }
+        RuntimeException error;
+        try {
+            deliver(room, 0);
+        } finally {
+            // 分片 0 抛出异常时也要等工作线程完成，否则下一次广播会与它们同时使用编码器和等待计数
+            while (this.pending.get() > 0) {
+                LockSupport.park(this);
+            }
+            error = this.failure;
+            this.failure = null;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 停止工作线程，之后的广播由调用线程独自完成。须与 {@link #fanOut(ChatRoom)} 串行调用
+     */
+    void stop() {
+        this.running = false;
+        for (Worker worker : this.workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    /**
+     * 把编码好的帧放入一个分片中各成员的待发送队列
+     */
+    private static void deliver(ChatRoom room, int shard) {
+        BroadcastEncoder encoder = room.encoder();
+        for (ChatConnection client : room.members(shard)) {
+            client.sendFrame(encoder.frameFor(client));
+        }
+    }
+
+    /**
+     * 一个分片的工作线程：等待调用线程交来的房间，扇出后通知调用线程
+     */
+    private final class Worker implements Runnable {
+        private final int shard;
+        private volatile ChatRoom job;
+        private Thread thread;
+
+        Worker(int shard) {
+            this.shard = shard;
+        }
+
+        void submit(ChatRoom room) {
+            this.job = room;
+            LockSupport.unpark(this.thread);
+        }
+
+        public void run() {
+            while (BroadcastShards.this.running) {
+                ChatRoom room = this.job;
+                if (room == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                this.job = null;
+                try {
+                    deliver(room, this.shard);
+                } catch (RuntimeException e) {
+                    BroadcastShards.this.failure = e;
+                } finally {
+                    if (BroadcastShards.this.pending.decrementAndGet() == 0) {
+                        LockSupport.unpark(BroadcastShards.this.caller);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,9 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
@@ -13,6 +17,8 @@ public class ChatClient extends JFrame {
      */
     @Serial
     private static final long serialVersionUID = 1L;
+    /** 聊天区域默认保留的最大行数 */
+    private static final int DEFAULT_HISTORY_LINES = 5000;
     // UI 组件
     private CardLayout cardLayout;
     private JPanel mainPanel;
@@ -20,7 +26,8 @@ public class ChatClient extends JFrame {
     private JTextField nicknameField;
     private JTextField ipField;
     private JTextField portField;
-    private JTextArea chatArea;
+    private BoundedLogModel chatHistory; // 有界的聊天记录，按刷新周期批量更新
+    private JList<String> chatList;
     private JTextArea inputField;
     private JButton sendButton;
     private JButton enterButton;
@@ -28,15 +35,36 @@ public class ChatClient extends JFrame {
 
     // 网络相关
     private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private InputStream input;                 // 登录应答之后按协议读取
+    private CoalescingOutputStream output;
+    private BufferedReader reader;             // 文本协议
+    private PrintWriter writer;                // 文本协议
+    private int protocolVersion;               // 登录时与服务器协商的协议版本
+    private int sendSeq;                       // 二进制协议下本客户端发出的帧序号
+    private boolean deflate;                   // 服务器是否同意压缩广播
     private MessageListener listenerThread;
     private volatile boolean connected = false; // 连接状态
+    private final long flushWindowMicros; // 合并写出的等待窗口（微秒），0 表示每条消息立即发送
+    private final boolean offerDeflate;    // 登录时是否请求压缩
+    private final int historyLines;        // 聊天区域保留的最大行数
 
     /**
-     * 构造方法：初始化界面和事件监听
+     * 构造方法：初始化界面和事件监听，每条消息立即发送
      */
     public ChatClient() {
+        this(0, true, DEFAULT_HISTORY_LINES);
+    }
+
+    /**
+     * 构造方法：初始化界面和事件监听
+     * @param flushWindowMicros 合并写出的等待窗口（微秒），窗口内发送的消息合并写出
+     * @param offerDeflate      登录时是否请求服务器压缩广播
+     * @param historyLines      聊天区域保留的最大行数
+     */
+    public ChatClient(long flushWindowMicros, boolean offerDeflate, int historyLines) {
+        this.flushWindowMicros = flushWindowMicros;
+        this.offerDeflate = offerDeflate;
+        this.historyLines = historyLines;
         initUI();
         initListeners();
         setVisible(true);
@@ -62,9 +90,12 @@ public class ChatClient extends JFrame {
         chatPanel.add(topPanel, BorderLayout.NORTH);
 
         // 中间文本区
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        JScrollPane chatScroll = new JScrollPane(chatArea);
+        // 有界的聊天记录列表：固定行高，只绘制可见的行，追加开销与已有记录的多少无关
+        chatHistory = new BoundedLogModel(historyLines, BoundedLogModel.DEFAULT_REFRESH_MILLIS);
+        chatList = new JList<>(chatHistory);
+        chatList.setPrototypeCellValue("【00:00:00】托尔芬：" + "聊".repeat(40));
+        chatHistory.setAfterRefresh(() -> chatList.ensureIndexIsVisible(chatHistory.getSize() - 1));
+        JScrollPane chatScroll = new JScrollPane(chatList);
         chatPanel.add(chatScroll, BorderLayout.CENTER);
 
         // 下方输入区
@@ -154,6 +185,7 @@ public class ChatClient extends JFrame {
 
         // 保留对messageArea的引用，以便发送消息时获取内容
         this.inputField = messageArea; // 注意：这里需要将inputField改为JTextArea类型
+        this.inputField.setToolTipText("/w 昵称 内容：私聊；/join 房间名：进入房间；/leave：回到大厅；/rooms：房间列表");
 
         return inputPanel;
     }
@@ -212,13 +244,24 @@ public class ChatClient extends JFrame {
         }
         try {
             socket = new Socket(ip, port);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
-            // 发送昵称给服务器
-            writer.println(name);
-            // 读取服务器响应
-            String response = reader.readLine();
-            if ("OK".equals(response)) {
+            input = new BufferedInputStream(socket.getInputStream());
+            output = new CoalescingOutputStream(socket.getOutputStream(), flushWindowMicros, 8192);
+            // 发送昵称给服务器，并表明支持二进制帧协议（及压缩）
+            String offer = ChatProtocol.BINARY_VERSION + (offerDeflate ? "," + ChatProtocol.DEFLATE : "");
+            output.write(ChatProtocol.encodeLine(name + ChatProtocol.VERSION_SEPARATOR + offer));
+            output.flushNow();
+            // 读取服务器响应：老服务器只回复 OK，仍使用文本协议
+            String response = readResponse();
+            String binaryReply = ChatProtocol.okReply(ChatProtocol.BINARY_VERSION, false);
+            String deflateReply = ChatProtocol.okReply(ChatProtocol.BINARY_VERSION, true);
+            if (ChatProtocol.OK.equals(response) || binaryReply.equals(response) || deflateReply.equals(response)) {
+                protocolVersion = ChatProtocol.OK.equals(response) ? ChatProtocol.TEXT_VERSION : ChatProtocol.BINARY_VERSION;
+                deflate = deflateReply.equals(response);
+                if (protocolVersion == ChatProtocol.TEXT_VERSION) {
+                    reader = new BufferedReader(new InputStreamReader(input));
+                    writer = new PrintWriter(output, true);
+                }
+                sendSeq = 0;
                 connected = true;
                 enterButton.setEnabled(false);
                 exitButton.setEnabled(true);
@@ -236,6 +279,23 @@ public class ChatClient extends JFrame {
         }
     }
 
+    /**
+     * 逐字节读取登录应答行，不多读，之后的数据留给对应协议的读取方式
+     * @return 应答行，连接关闭时返回null
+     * @throws IOException 读取失败
+     */
+    private String readResponse() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            line.write(b);
+        }
+        return line.toString(ChatProtocol.CHARSET.name()).trim();
+    }
+
     /**
      * 发送聊天消息到服务器
      */
@@ -246,7 +306,17 @@ public class ChatClient extends JFrame {
         }
         String msg = inputField.getText().trim();
         if (!msg.isEmpty()) {
-            writer.println(msg);
+            if (protocolVersion == ChatProtocol.TEXT_VERSION) {
+                writer.println(msg);
+            } else {
+                // 多行内容作为一帧发送
+                try {
+                    output.write(ChatProtocol.encodeFrame(ChatProtocol.TYPE_CHAT, ++sendSeq, msg));
+                    output.flush();
+                } catch (IOException ex) {
+                    System.err.println("发送消息时发生 IO 异常: " + ex.getMessage());
+                }
+            }
             inputField.setText(""); // 清空输入区域
             inputField.requestFocusInWindow(); // 自动聚焦到输入框
         }
@@ -262,6 +332,7 @@ public class ChatClient extends JFrame {
                 if (socket != null) socket.close();
                 if (reader != null) reader.close();
                 if (writer != null) writer.close();
+                if (output != null) output.close();
             } catch (IOException e) {
                 System.err.println("断开连接时发生 IO 异常: " + e.getMessage());
             } finally {
@@ -271,7 +342,7 @@ public class ChatClient extends JFrame {
                 sendButton.setEnabled(false);
                 // 清空聊天区并返回初始界面
                 SwingUtilities.invokeLater(() -> {
-                    chatArea.setText("");
+                    chatHistory.clear();
                     cardLayout.show(mainPanel, "CHAT");
                 });
             }
@@ -285,10 +356,13 @@ public class ChatClient extends JFrame {
         @Override
         public void run() {
             try {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String message = line;
-                    SwingUtilities.invokeLater(() -> chatArea.append(message + "\n"));
+                if (protocolVersion == ChatProtocol.TEXT_VERSION) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        chatHistory.append(line);
+                    }
+                } else {
+                    readFrames();
                 }
             } catch (IOException e) {
                 // 连接异常
@@ -302,7 +376,7 @@ public class ChatClient extends JFrame {
                         sendButton.setEnabled(false);
                         JOptionPane.showMessageDialog(ChatClient.this, "与服务器断开连接！", "提示", JOptionPane.INFORMATION_MESSAGE);
                         // 清空聊天区并返回登录界面
-                        chatArea.setText("");
+                        chatHistory.clear();
                         cardLayout.show(mainPanel, "CHAT");
                     });
                 }
@@ -313,12 +387,104 @@ public class ChatClient extends JFrame {
                 }
             }
         }
+
+        /**
+         * 二进制帧协议：按长度前缀整块读取每一帧，聊天消息和通知都显示在聊天区域。
+         * 压缩帧属于服务器的共享压缩流，从带重置标志的帧开始解压
+         */
+        private void readFrames() throws IOException {
+            DataInputStream in = new DataInputStream(input);
+            Inflater inflater = deflate ? new Inflater(true) : null;
+            boolean synced = false; // 是否已收到重置帧
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < ChatProtocol.FRAME_HEADER_BYTES || length > ChatProtocol.MAX_FRAME_BYTES) {
+                    throw new IOException("帧长度非法：" + length);
+                }
+                byte type = in.readByte();
+                in.readInt(); // 序号
+                byte[] payload = new byte[length - ChatProtocol.FRAME_HEADER_BYTES];
+                in.readFully(payload);
+                int payloadLength = payload.length;
+                if ((type & ChatProtocol.FLAG_DEFLATE) != 0) {
+                    if (inflater == null) {
+                        continue;
+                    }
+                    if ((type & ChatProtocol.FLAG_RESET) != 0) {
+                        inflater.reset();
+                        synced = true;
+                    }
+                    if (!synced) {
+                        continue;
+                    }
+                    try {
+                        payload = inflate(inflater, payload);
+                        payloadLength = payload.length;
+                    } catch (DataFormatException e) {
+                        // 压缩流损坏，丢弃直到下一个重置帧
+                        synced = false;
+                        continue;
+                    }
+                }
+                type &= ChatProtocol.TYPE_MASK;
+                if (type == ChatProtocol.TYPE_CHAT || type == ChatProtocol.TYPE_NOTICE) {
+                    String message = new String(payload, 0, payloadLength, StandardCharsets.UTF_8);
+                    chatHistory.append(message);
+                }
+            }
+        }
+
+        /**
+         * 解压一段以 SYNC_FLUSH 结束的压缩数据
+         */
+        private byte[] inflate(Inflater inflater, byte[] compressed) throws DataFormatException {
+            inflater.setInput(compressed);
+            byte[] result = new byte[Math.max(256, compressed.length * 4)];
+            int length = 0;
+            while (true) {
+                if (length == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                int n = inflater.inflate(result, length, result.length - length);
+                length += n;
+                if (n == 0) {
+                    if (inflater.needsInput()) {
+                        return Arrays.copyOf(result, length);
+                    }
+                    throw new DataFormatException("压缩流不完整");
+                }
+            }
+        }
     }
 
     /**
      * 主函数：启动客户端GUI
+     * @param args 可选 --flush-window=微秒，设置合并写出的等待窗口；--deflate=false，不请求压缩；
+     *             --history=行数，聊天区域保留的最大行数
      */
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(ChatClient::new);
+        long flushWindowMicros = 0;
+        boolean offerDeflate = true;
+        int historyLines = DEFAULT_HISTORY_LINES;
+        for (String arg : args) {
+            if (arg.startsWith("--flush-window=")) {
+                flushWindowMicros = Long.parseLong(arg.substring("--flush-window=".length()));
+            } else if (arg.startsWith("--deflate=")) {
+                offerDeflate = Boolean.parseBoolean(arg.substring("--deflate=".length()));
+            } else if (arg.startsWith("--history=")) {
+                historyLines = Integer.parseInt(arg.substring("--history=".length()));
+            } else {
+                System.err.println("无法识别的参数：" + arg);
+            }
+        }
+        long window = flushWindowMicros;
+        boolean deflate = offerDeflate;
+        int history = historyLines;
+        SwingUtilities.invokeLater(() -> new ChatClient(window, deflate, history));
     }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+/**
+ * 服务器端的单个聊客连接，经典模式与 NIO 模式各有一种实现
+ */
+interface ChatConnection {
+    /**
+     * @return 聊客昵称
+     */
+    String getUserName();
+
+    /**
+     * @return 登录时协商的协议版本，{@link ChatProtocol#TEXT_VERSION} 表示按行分隔的文本协议
+     */
+    int getProtocolVersion();
+
+    /**
+     * @return 该连接在共享压缩流中的状态，未协商压缩时为 null
+     */
+    BroadcastEncoder.Stream getDeflateStream();
+
+    /**
+     * 按该连接的协议向其发送一条只给它的通知
+     * @param message 消息内容
+     */
+    default void sendMessage(String message) {
+        sendFrame(ChatProtocol.encode(getProtocolVersion(), ChatProtocol.TYPE_NOTICE, message));
+    }
+
+    /**
+     * 向该连接发送已编码好的字节帧。广播时所有连接共享同一数组，实现不得修改其内容
+     * @param frame 由 {@link ChatProtocol} 按该连接的协议版本编码的字节
+     */
+    void sendFrame(byte[] frame);
+
+    /**
+     * 关闭连接
+     */
+    void closeConnection();
+
+    /**
+     * 不再接收新消息，把已入队的消息发送完后关闭连接
+     */
+    void closeAfterFlush();
+
+    /**
+     * @return 待发送队列中积压的消息数
+     */
+    int getQueueDepth();
+
+    /**
+     * @return 聊客所在的房间，尚未登记或已离开时为 null
+     */
+    ChatRoom getRoom();
+
+    /**
+     * 由 {@link RoomRegistry} 在聊客换房间时调用
+     * @param room 聊客所在的房间
+     */
+    void setRoom(ChatRoom room);
+}
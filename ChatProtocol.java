@@ -0,0 +1,223 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 聊天协议常量：登录握手应答、管理员昵称及文本编码。
+ * <p>
+ * 登录时客户端发送一行昵称；支持二进制帧的客户端在昵称后附加 {@code '\0'} 和所支持的版本号，
+ * 服务器选定版本后应答 {@code "OK 版本号"}，此后双方改用二进制帧。未附加版本的老客户端
+ * 收到 {@code "OK"}，继续使用按行分隔的文本协议。客户端还可在版本号后附加 {@code ",deflate"}，
+ * 服务器同意时应答 {@code "OK 版本号 deflate"}，此后广播可能以压缩帧发送（见 {@link BroadcastEncoder}）。
+ * 二进制帧格式（大端序）：
+ * <pre>
+ * int  长度   类型、序号与内容的总字节数
+ * byte 类型   {@link #TYPE_CHAT} 或 {@link #TYPE_NOTICE}，可带 {@link #FLAG_DEFLATE}、{@link #FLAG_RESET} 标志
+ * int  序号   服务器发出的聊天帧为聊天室的消息序号，其余由发送方自行递增或为 0
+ * byte[] 内容 UTF-8 编码的文本，可以包含换行
+ * </pre>
+ * 登录后聊客位于大厅，聊天消息只发给同一房间的聊客。以 {@code /} 开头的聊天消息是命令：
+ * {@code /join 房间名} 进入（或创建）房间，{@code /leave} 回到大厅，{@code /rooms} 列出房间，
+ * {@code /w 昵称 内容} 私聊，服务器以通知应答；私聊以通知发给对方，并以通知向发送方确认送达
+ */
+final class ChatProtocol {
+    /** 昵称校验通过的应答 */
+    static final String OK = "OK";
+    /** 昵称非法或已被占用的应答 */
+    static final String INVALID = "INVALID";
+    /** 保留给服务器管理员的昵称 */
+    static final String ADMIN_NAME = "管理员";
+    /** 与 InputStreamReader/PrintWriter 默认行为一致的字符集 */
+    static final Charset CHARSET = Charset.defaultCharset();
+
+    /** 文本协议的版本号，即未协商二进制帧 */
+    static final int TEXT_VERSION = 0;
+    /** 服务器支持的最高二进制帧版本 */
+    static final int BINARY_VERSION = 1;
+    /** 登录行中昵称与版本号之间的分隔符 */
+    static final char VERSION_SEPARATOR = '\0';
+    /** 登录行中版本号部分的最大字节数 */
+    static final int MAX_OFFER_BYTES = 16;
+
+    /** 长度字段之后的帧头长度：类型 + 序号 */
+    static final int FRAME_HEADER_BYTES = 5;
+    /** 帧的最大长度（不含长度字段），超出则断开连接 */
+    static final int MAX_FRAME_BYTES = 64 * 1024;
+    /** 聊天消息：客户端发出的发言，或服务器广播的带时间前缀的消息 */
+    static final byte TYPE_CHAT = 1;
+    /** 服务器只发给单个聊客的通知，如被踢出 */
+    static final byte TYPE_NOTICE = 2;
+    /** 类型标志：内容为共享压缩流中的一段（raw DEFLATE，以 SYNC_FLUSH 结束） */
+    static final byte FLAG_DEFLATE = 0x40;
+    /** 类型标志：压缩流在本帧之前已重置，解压器需先重置 */
+    static final byte FLAG_RESET = 0x20;
+    /** 去掉标志位后的帧类型 */
+    static final byte TYPE_MASK = 0x1F;
+    /** 登录行中表示支持压缩的选项 */
+    static final String DEFLATE = "deflate";
+    /** 聊天消息中的命令前缀 */
+    static final String COMMAND_PREFIX = "/";
+    /** 命令：进入房间 */
+    static final String CMD_JOIN = "/join";
+    /** 命令：回到大厅 */
+    static final String CMD_LEAVE = "/leave";
+    /** 命令：列出房间及人数 */
+    static final String CMD_ROOMS = "/rooms";
+    /** 命令：私聊 */
+    static final String CMD_WHISPER = "/w";
+
+    private ChatProtocol() {
+    }
+
+    /**
+     * 将一行消息编码为带换行符的字节帧。返回的数组会被多个连接共享，调用方不得修改
+     * @param message 消息内容
+     * @return 编码后的字节
+     */
+    static byte[] encodeLine(String message) {
+        return (message + "\n").getBytes(CHARSET);
+    }
+
+    /**
+     * 将多行消息按行编码为文本协议的字节帧，续行也带上首行的发言人前缀（如时间和昵称），
+     * 文本客户端看到的效果与逐行发送相同
+     * @param message 消息内容，可以包含换行
+     * @return 编码后的字节
+     */
+    static byte[] encodeText(String message) {
+        int newline = message.indexOf('\n');
+        if (newline < 0) {
+            return encodeLine(message);
+        }
+        int colon = message.indexOf('：');
+        String header = colon >= 0 && colon < newline ? message.substring(0, colon + 1) : "";
+        StringBuilder text = new StringBuilder(message.length() + 64);
+        String[] lines = message.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                text.append(header);
+            }
+            text.append(lines[i]).append('\n');
+        }
+        return text.toString().getBytes(CHARSET);
+    }
+
+    /**
+     * 编码一个二进制帧。返回的数组会被多个连接共享，调用方不得修改
+     * @param type    帧类型
+     * @param seq     序号
+     * @param message 消息内容
+     * @return 编码后的字节
+     */
+    static byte[] encodeFrame(byte type, int seq, String message) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        return encodeFrame(type, seq, payload, payload.length);
+    }
+
+    /**
+     * 编码一个二进制帧
+     * @param type    帧类型及标志
+     * @param seq     序号
+     * @param payload 内容
+     * @param length  内容的字节数
+     * @return 编码后的字节
+     */
+    static byte[] encodeFrame(byte type, int seq, byte[] payload, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + FRAME_HEADER_BYTES + length);
+        frame.putInt(FRAME_HEADER_BYTES + length).put(type).putInt(seq).put(payload, 0, length);
+        return frame.array();
+    }
+
+    /**
+     * @param frame 已编码的字节帧
+     * @return 是否为压缩流中的帧（长度字段与数组长度吻合的二进制帧，且带压缩标志）
+     */
+    static boolean isDeflated(byte[] frame) {
+        return frame.length >= Integer.BYTES + FRAME_HEADER_BYTES
+                && ByteBuffer.wrap(frame).getInt() == frame.length - Integer.BYTES
+                && (frame[Integer.BYTES] & FLAG_DEFLATE) != 0;
+    }
+
+    /**
+     * 按协商的版本编码发给单个连接的消息
+     * @param version 连接的协议版本
+     * @param type    二进制帧的类型
+     * @param message 消息内容
+     * @return 编码后的字节
+     */
+    static byte[] encode(int version, byte type, String message) {
+        return version == TEXT_VERSION ? encodeText(message) : encodeFrame(type, 0, message);
+    }
+
+    /**
+     * 从登录行中取出昵称部分
+     * @param login 客户端发送的登录行
+     * @return 昵称
+     */
+    static String loginName(String login) {
+        int separator = login.indexOf(VERSION_SEPARATOR);
+        return separator < 0 ? login : login.substring(0, separator);
+    }
+
+    /**
+     * 根据登录行中客户端提供的版本号选定协议版本
+     * @param login 客户端发送的登录行
+     * @return 双方都支持的最高版本，未提供或无共同版本时为文本协议
+     */
+    static int negotiate(String login) {
+        int separator = login.indexOf(VERSION_SEPARATOR);
+        int chosen = TEXT_VERSION;
+        if (separator < 0) {
+            return chosen;
+        }
+        for (String offer : login.substring(separator + 1).split(",")) {
+            try {
+                int version = Integer.parseInt(offer.trim());
+                if (version <= BINARY_VERSION && version > chosen) {
+                    chosen = version;
+                }
+            } catch (NumberFormatException e) {
+                // 忽略无法识别的版本号
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * @param login 客户端发送的登录行
+     * @return 客户端是否支持压缩
+     */
+    static boolean offersDeflate(String login) {
+        int separator = login.indexOf(VERSION_SEPARATOR);
+        if (separator < 0) {
+            return false;
+        }
+        for (String offer : login.substring(separator + 1).split(",")) {
+            if (offer.trim().equals(DEFLATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param version 选定的协议版本
+     * @param deflate 是否启用压缩
+     * @return 登录成功的应答行
+     */
+    static String okReply(int version, boolean deflate) {
+        if (version == TEXT_VERSION) {
+            return OK;
+        }
+        return OK + " " + version + (deflate ? " " + DEFLATE : "");
+    }
+
+    /**
+     * 校验昵称是否合法（非空且不是管理员昵称）
+     * @param name 客户端发送的昵称
+     * @return 昵称是否合法
+     */
+    static boolean isValidName(String name) {
+        return name != null && !name.trim().isEmpty() && !name.equals(ADMIN_NAME);
+    }
+}
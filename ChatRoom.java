@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个聊天房间：自己的成员集合和广播编码器，房间内的消息只投递给本房间的成员，
+ * 扇出开销与房间人数成正比而与全服在线人数无关。成员按 {@link BroadcastShards} 的分片分组保存，
+ * 各分片可由不同的线程并行扇出。成员变动由 {@link RoomRegistry} 负责
+ */
+final class ChatRoom {
+    private final String name;
+    private final boolean lobby;
+    private final List<Set<ChatConnection>> shards; // 按分片分组的成员
+    private final AtomicInteger deflateMembers = new AtomicInteger(); // 协商了压缩的成员数
+    private final BroadcastEncoder encoder; // 房间内压缩连接共享一条压缩流
+
+    /**
+     * @param name  房间名
+     * @param lobby 是否为大厅（聊客登录后所在的房间，不会被移除）
+     * @param stats  压缩统计，各房间共用
+     * @param shards 扇出的分片数
+     */
+    ChatRoom(String name, boolean lobby, BroadcastEncoder.Stats stats, int shards) {
+        this.name = name;
+        this.lobby = lobby;
+        this.encoder = new BroadcastEncoder(stats);
+        this.shards = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            this.shards.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    boolean isLobby() {
+        return this.lobby;
+    }
+
+    /**
+     * @return 当前成员数
+     */
+    int size() {
+        int size = 0;
+        for (Set<ChatConnection> shard : this.shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @param shard 分片号
+     * @return 该分片成员的弱一致性视图，广播时不加锁遍历
+     */
+    Set<ChatConnection> members(int shard) {
+        return this.shards.get(shard);
+    }
+
+    /**
+     * @return 是否有协商了压缩的成员，没有时广播跳过压缩
+     */
+    boolean hasDeflateMembers() {
+        return this.deflateMembers.get() > 0;
+    }
+
+    BroadcastEncoder encoder() {
+        return this.encoder;
+    }
+
+    void add(ChatConnection client) {
+        if (shardOf(client).add(client) && client.getDeflateStream() != null) {
+            this.deflateMembers.incrementAndGet();
+        }
+    }
+
+    void remove(ChatConnection client) {
+        if (shardOf(client).remove(client) && client.getDeflateStream() != null) {
+            this.deflateMembers.decrementAndGet();
+        }
+    }
+
+    private Set<ChatConnection> shardOf(ChatConnection client) {
+        return this.shards.get(BroadcastShards.shardOf(client, this.shards.size()));
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
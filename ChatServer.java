@@ -1,18 +1,21 @@
 import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
+import java.awt.GraphicsEnvironment;
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Iterator;
-import java.util.Vector;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import javax.swing.*;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 
+/**
+ * 服务器管理窗口：附加在 {@link ChatServerCore} 上的可选管理界面，
+ * 负责启停服务、显示聊天内容、管理聊客列表和发送管理员消息
+ */
 public class ChatServer extends JFrame {
 
     /**
@@ -21,38 +24,46 @@ public class ChatServer extends JFrame {
     @Serial
     private static final long serialVersionUID = 1L;
     // UI组件
-    private JTextArea textArea;
+    private BoundedLogModel logModel; // 聊天内容和日志，只保留最近的若干行
+    private JList<String> logList;
     private DefaultListModel<String> userListModel;
     private JList<String> userList;
     private JButton kickButton;
+    private JButton kickRoomButton;
+    private DefaultListModel<String> roomListModel; // 房间及人数，随定时器刷新
     private JButton startButton;
     private JButton stopButton;
     private JTextField portField;
+    private JComboBox<ServerMode> modeBox;
+    private JComboBox<OverflowPolicy> policyBox;
+    private JComboBox<QueueFullPolicy> messageQueuePolicyBox; // 待广播消息队列已满时的策略，启动时生效
+    private JTextField queueCapacityField;
+    private JSpinner rateMessagesSpinner; // 每个聊客每秒的消息数上限，运行中修改立即生效
+    private JSpinner rateBytesSpinner;
+    private JSpinner floodKickSpinner;
+    private Timer userListRefreshTimer; // 定时刷新用户列表中的积压数和运行指标
+    private MetricsPanel metricsPanel;
     private JTextArea adminInputField;
     private JButton adminSendButton;
 
-    // 网络组件
-    private ServerSocket serverSocket;
-    private Vector<ClientHandler> clients;
-    private ConcurrentLinkedQueue<String> messageQueue; // 消息队列
+    // 服务器核心
+    private final ServerConfig config; // 启动参数，界面上的设置在启动时覆盖到其中
+    private ChatServerCore core; // 运行中的服务器核心，未启动时为null
 
-    // 线程组件
-    private AcceptThread acceptThread;
-    private PatrolThread patrolThread;
-
-    // 状态标志
-    private volatile boolean isRunning;
-
-    public ChatServer() {
+    /**
+     * @param config 初始配置，用于填充界面上的端口、模式等设置
+     */
+    public ChatServer(ServerConfig config) {
+        this.config = config;
         this.setTitle("全民聊天室服务器端");
-        this.setSize(600, 600);
+        this.setSize(800, 600);
         this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         this.setLayout(new BorderLayout());
 
         // 初始化UI组件
         initTopPanel();         // 顶部面板（端口设置和按钮）
         initCenterPanel();      // 中央聊天区域
-        initRightPanel();       // 右侧用户列表
+        initRightPanel();       // 右侧用户列表、房间列表及运行指标
         initAdminInputPanel();  // 管理员输入面板
 
         // 初始化其他组件
@@ -68,35 +79,71 @@ public class ChatServer extends JFrame {
     }
 
     /**
-     * 初始化顶部面板（端口设置和按钮）
+     * 初始化顶部面板（端口设置和按钮，以及发言限速设置）
      */
     private void initTopPanel() {
         JPanel topPanel = new JPanel();
         topPanel.add(new JLabel("端口:"));
-        this.portField = new JTextField("12345", 10);
+        this.portField = new JTextField(String.valueOf(this.config.getPort()), 10);
         topPanel.add(this.portField);
 
+        topPanel.add(new JLabel("模式:"));
+        this.modeBox = new JComboBox<>(ServerMode.values());
+        this.modeBox.setSelectedItem(this.config.getMode());
+        topPanel.add(this.modeBox);
+
+        topPanel.add(new JLabel("队列上限:"));
+        this.queueCapacityField = new JTextField(String.valueOf(this.config.getOutboundCapacity()), 5);
+        topPanel.add(this.queueCapacityField);
+        this.policyBox = new JComboBox<>(OverflowPolicy.values());
+        this.policyBox.setSelectedItem(this.config.getOverflowPolicy());
+        topPanel.add(this.policyBox);
+
         this.startButton = new JButton("启动服务");
         this.stopButton = new JButton("关停服务");
         this.stopButton.setEnabled(false);
 
         topPanel.add(this.startButton);
         topPanel.add(this.stopButton);
-        this.add(topPanel, BorderLayout.NORTH);
+
+        // 发言限速，0 表示不限；运行中修改时各连接在下一条消息时按新值计算
+        JPanel ratePanel = new JPanel();
+        ratePanel.add(new JLabel("限速 消息/秒:"));
+        this.rateMessagesSpinner = new JSpinner(new SpinnerNumberModel(this.config.getRateMessages(), 0, 100000, 1));
+        ratePanel.add(this.rateMessagesSpinner);
+        ratePanel.add(new JLabel("字节/秒:"));
+        this.rateBytesSpinner = new JSpinner(new SpinnerNumberModel(this.config.getRateBytes(), 0, Integer.MAX_VALUE, 1024));
+        ratePanel.add(this.rateBytesSpinner);
+        ratePanel.add(new JLabel("连续超限踢出次数:"));
+        this.floodKickSpinner = new JSpinner(new SpinnerNumberModel(this.config.getFloodKick(), 0, 100000, 1));
+        ratePanel.add(this.floodKickSpinner);
+        ratePanel.add(new JLabel("广播队列满时:"));
+        this.messageQueuePolicyBox = new JComboBox<>(QueueFullPolicy.values());
+        this.messageQueuePolicyBox.setSelectedItem(this.config.getMessageQueuePolicy());
+        ratePanel.add(this.messageQueuePolicyBox);
+
+        JPanel northPanel = new JPanel(new GridLayout(2, 1));
+        northPanel.add(topPanel);
+        northPanel.add(ratePanel);
+        this.add(northPanel, BorderLayout.NORTH);
     }
 
     /**
-     * 初始化中央聊天区域
+     * 初始化中央聊天区域：有界的日志列表，固定行高，只绘制可见的行
      */
     private void initCenterPanel() {
-        this.textArea = new JTextArea();
-        this.textArea.setEditable(false);
-        JScrollPane scrollPane = new JScrollPane(this.textArea);
+        this.logModel = new BoundedLogModel(this.config.getLogScrollback(), BoundedLogModel.DEFAULT_REFRESH_MILLIS);
+        this.logList = new JList<>(this.logModel);
+        // 用样例行确定行高和列宽，避免每次更新都测量所有行
+        this.logList.setPrototypeCellValue("【00:00:00】管理员：" + "聊".repeat(60));
+        // 每次批量更新后滚动到最新一行
+        this.logModel.setAfterRefresh(() -> this.logList.ensureIndexIsVisible(this.logModel.getSize() - 1));
+        JScrollPane scrollPane = new JScrollPane(this.logList);
         this.add(scrollPane, BorderLayout.CENTER);
     }
 
     /**
-     * 初始化右侧用户列表面板
+     * 初始化右侧用户列表面板：下方为房间列表，运行指标面板位于其旁边
      */
     private void initRightPanel() {
         JPanel rightPanel = new JPanel();
@@ -107,15 +154,58 @@ public class ChatServer extends JFrame {
         // 初始化时添加"暂无聊客"提示
         this.userListModel.addElement("暂无聊客");
         this.userList = new JList<>(this.userListModel);
+        // 在昵称后显示该聊客所在的房间（大厅不显示）和待发送队列的积压数，其他集群节点上的聊客显示节点名
+        this.userList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                ChatServerCore running = ChatServer.this.core;
+                ChatConnection client = running == null ? null : running.findClient(String.valueOf(value));
+                if (client != null) {
+                    ChatRoom room = client.getRoom();
+                    String where = room == null || room.isLobby() ? "" : "〔" + room.getName() + "〕";
+                    setText(value + where + "（积压 " + client.getQueueDepth() + "）");
+                } else if (running != null && running.cluster() != null) {
+                    // 其他集群节点上的聊客标出所在的节点
+                    String node = running.cluster().nodeOf(String.valueOf(value));
+                    if (node != null) {
+                        setText(value + "@" + node);
+                    }
+                }
+                return this;
+            }
+        });
+        this.metricsPanel = new MetricsPanel();
+        this.roomListModel = new DefaultListModel<>();
+        this.userListRefreshTimer = new Timer(1000, e -> {
+            this.userList.repaint();
+            ChatServerCore running = this.core;
+            this.metricsPanel.refresh(running == null ? null : running.metrics());
+            refreshRooms(running);
+        });
 
-        JScrollPane userScroll = new JScrollPane(this.userList);
-        rightPanel.add(userScroll, BorderLayout.CENTER);
+        JPanel roomPanel = new JPanel(new BorderLayout());
+        roomPanel.add(new JLabel("房间列表："), BorderLayout.NORTH);
+        roomPanel.add(new JScrollPane(new JList<>(this.roomListModel)), BorderLayout.CENTER);
+        JPanel listPanel = new JPanel(new GridLayout(2, 1));
+        listPanel.add(new JScrollPane(this.userList));
+        listPanel.add(roomPanel);
+        rightPanel.add(listPanel, BorderLayout.CENTER);
 
         this.kickButton = new JButton("踢出一名聊客");
         this.kickButton.setEnabled(false); // 初始状态设为不可用
-        rightPanel.add(this.kickButton, BorderLayout.SOUTH);
-
-        this.add(rightPanel, BorderLayout.EAST);
+        this.kickRoomButton = new JButton("移出所在房间");
+        this.kickRoomButton.setEnabled(false);
+        JPanel kickPanel = new JPanel(new GridLayout(2, 1));
+        kickPanel.add(this.kickButton);
+        kickPanel.add(this.kickRoomButton);
+        rightPanel.add(kickPanel, BorderLayout.SOUTH);
+
+        JPanel eastPanel = new JPanel(new BorderLayout());
+        eastPanel.add(rightPanel, BorderLayout.CENTER);
+        eastPanel.add(this.metricsPanel, BorderLayout.EAST);
+        this.add(eastPanel, BorderLayout.EAST);
     }
 
     /**
@@ -146,8 +236,6 @@ public class ChatServer extends JFrame {
      * 初始化其他组件
      */
     private void initComponents() {
-        this.clients = new Vector<>();
-        this.messageQueue = new ConcurrentLinkedQueue<>();
         this.adminSendButton.setEnabled(false);
     }
 
@@ -161,6 +249,11 @@ public class ChatServer extends JFrame {
         // 停止按钮监听器
         this.stopButton.addActionListener(e -> stopServer());
 
+        // 限速设置监听器：同时记入配置，下次启动沿用
+        this.rateMessagesSpinner.addChangeListener(e -> applyRateLimits());
+        this.rateBytesSpinner.addChangeListener(e -> applyRateLimits());
+        this.floodKickSpinner.addChangeListener(e -> applyRateLimits());
+
         // 踢出按钮监听器
         this.kickButton.addActionListener(e -> {
             String selectedUser = userList.getSelectedValue();
@@ -173,6 +266,20 @@ public class ChatServer extends JFrame {
             kickUser(selectedUser);
         });
 
+        // 移出房间按钮监听器：把选中的聊客从其所在的房间移回大厅
+        this.kickRoomButton.addActionListener(e -> {
+            String selectedUser = userList.getSelectedValue();
+            ChatServerCore running = this.core;
+            ChatConnection client = running == null ? null : running.findClient(selectedUser);
+            ChatRoom room = client == null ? null : client.getRoom();
+            if (room == null || room.isLobby()) {
+                JOptionPane.showMessageDialog(ChatServer.this,
+                        "未选择聊客，或该聊客在" + RoomRegistry.LOBBY + "中", "提示", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            running.kickUser(selectedUser, room.getName());
+        });
+
         // 管理员发送按钮监听器
         adminSendButton.addActionListener(e -> sendAdminMessage());
     }
@@ -236,17 +343,13 @@ public class ChatServer extends JFrame {
      */
 
     private void sendAdminMessage() {
-        if (!isRunning) return;
+        ChatServerCore running = this.core;
+        if (running == null || !running.isRunning()) return;
         String message = adminInputField.getText().trim();
         if (!message.isEmpty()) {
-            // 按行拆分输入内容
-            String[] lines = message.split("\n");
-
-            // 为每行创建独立的消息
-            for (String line : lines) {
-                if (!line.trim().isEmpty()) {  // 忽略空行
-                    broadcast("管理员：" + line);
-                }
+            if (!running.sendAdminMessage(message)) {
+                JOptionPane.showMessageDialog(this, "服务器繁忙，消息未发送！", "错误", JOptionPane.ERROR_MESSAGE);
+                return;
             }
 
             adminInputField.setText("");
@@ -254,453 +357,195 @@ public class ChatServer extends JFrame {
         }
     }
 
+    /**
+     * 把界面上的限速设置写入配置，服务器运行中时立即生效
+     */
+    private void applyRateLimits() {
+        int messages = (Integer) this.rateMessagesSpinner.getValue();
+        int bytes = (Integer) this.rateBytesSpinner.getValue();
+        int kickAfter = (Integer) this.floodKickSpinner.getValue();
+        this.config.setRateMessages(messages);
+        this.config.setRateBytes(bytes);
+        this.config.setFloodKick(kickAfter);
+        ChatServerCore running = this.core;
+        if (running != null && running.isRunning()) {
+            RateLimiter.Limits limits = running.rateLimits();
+            limits.setMessagesPerSecond(messages);
+            limits.setBytesPerSecond(bytes);
+            limits.setKickAfter(kickAfter);
+        }
+    }
+
     /**
      * 启动聊天服务器
      */
     private void startServer() {
-        int port;
         try {
             // 解析端口号
-            port = Integer.parseInt(this.portField.getText().trim());
-        } catch (NumberFormatException e) {
+            this.config.setPort(Integer.parseInt(this.portField.getText().trim()));
+        } catch (IllegalArgumentException e) {
             JOptionPane.showMessageDialog(this, "端口号非法！", "错误", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
         try {
-            // 创建服务器套接字
-            this.serverSocket = new ServerSocket(port);
+            // 解析待发送队列容量
+            this.config.setOutboundCapacity(Integer.parseInt(this.queueCapacityField.getText().trim()));
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "队列上限非法！", "错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        this.config.setOverflowPolicy((OverflowPolicy) this.policyBox.getSelectedItem());
+        this.config.setMessageQueuePolicy((QueueFullPolicy) this.messageQueuePolicyBox.getSelectedItem());
+        this.config.setMode((ServerMode) this.modeBox.getSelectedItem());
+
+        ChatServerCore newCore = new ChatServerCore(this.config);
+        newCore.setListener(new AdminViewListener());
+        try {
+            newCore.start();
+        } catch (IllegalStateException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+            return;
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "无法在端口 " + port + " 启动服务器！", "错误", JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(this, "无法在端口 " + this.config.getPort() + " 启动服务器！", "错误", JOptionPane.ERROR_MESSAGE);
             return;
         }
+        this.core = newCore;
 
         // 调整按钮状态
-        this.isRunning = true;
         this.startButton.setEnabled(false);
         this.portField.setEditable(false);
+        this.modeBox.setEnabled(false);
+        this.queueCapacityField.setEditable(false);
+        this.policyBox.setEnabled(false);
+        this.messageQueuePolicyBox.setEnabled(false);
         this.stopButton.setEnabled(true);
         this.adminSendButton.setEnabled(true);
-
-        // 启动接受客户端连接线程
-        this.acceptThread = new AcceptThread();
-        this.acceptThread.start();
-
-        // 启动巡逻线程
-        this.patrolThread = new PatrolThread();
-        this.patrolThread.start();
-
-        // 更新用户列表
-        SwingUtilities.invokeLater(() -> {
-            this.userListModel.clear();
-            this.userListModel.addElement("暂无聊客");
-        });
-
-        // 输出启动信息
-        System.out.println("服务器启动，端口：" + port);
+        this.userListRefreshTimer.start();
     }
 
     /**
      * 停止聊天服务器
      */
     private void stopServer() {
-        // 广播服务器关闭消息
-        String shutdownMsg = "管理员：【服务器关闭，大家都散了吧。】";
-        this.broadcast(shutdownMsg);
-
-        // 设置服务器状态为停止
-        this.isRunning = false;
-
-        try {
-            // 关闭服务器套接字
-            if (this.serverSocket != null) {
-                this.serverSocket.close();
-            }
-        } catch (IOException e) {
-            // 忽略关闭异常
-        }
-
-        // 关闭所有客户端连接
-        synchronized(this.clients) {
-            for(ClientHandler client : this.clients) {
-                client.closeConnection();
-            }
-            // 清空客户端列表
-            this.clients.clear();
+        if (this.core != null) {
+            this.core.stop();
+            this.core = null;
         }
+        this.userListRefreshTimer.stop();
+        this.metricsPanel.refresh(null);
+        this.roomListModel.clear();
 
         // 清空用户列表
         this.userListModel.clear();
-        System.out.println("服务器已停止");
+        this.userListModel.addElement("暂无聊客");
 
         // 调整按钮状态
         this.startButton.setEnabled(true);
         this.portField.setEditable(true);
+        this.modeBox.setEnabled(true);
+        this.queueCapacityField.setEditable(true);
+        this.policyBox.setEnabled(true);
+        this.messageQueuePolicyBox.setEnabled(true);
         this.stopButton.setEnabled(false);
         this.kickButton.setEnabled(false);
+        this.kickRoomButton.setEnabled(false);
         this.adminSendButton.setEnabled(false);
     }
 
     /**
-     * 踢出指定用户
-     * @param username 要踢出的用户名
+     * 按房间名顺序刷新房间列表及各房间人数，大厅在最前
+     * @param running 运行中的服务器核心，未启动时为 null
      */
-    private void kickUser(String username) {
-        ClientHandler target = null;
-
-        // 在客户端列表中查找目标用户
-        synchronized(this.clients) {
-            for(ClientHandler client : this.clients) {
-                if (client.getUserName().equals(username)) {
-                    target = client;
-                    break;
-                }
-            }
-        }
-
-        if (target != null) {
-            // 广播踢出消息
-            String msg =  username + "：【因违规被踢出群聊室】";
-            this.broadcast(msg);
-
-            // 向被踢用户发送通知
-            target.sendMessage("管理员: 你已被踢出群聊，下次注意！！！");
-
-            // 关闭连接并移除用户
-            target.closeConnection();
-            this.removeClient(target);
-
-            // 记录日志
-            System.out.println("踢出用户：" + username);
+    private void refreshRooms(ChatServerCore running) {
+        this.roomListModel.clear();
+        if (running == null) {
+            return;
         }
-    }
-
-    /**
-     * 从服务器中移除客户端
-     * @param client 要移除的客户端处理器
-     */
-    private void removeClient(ClientHandler client) {
-        // 从客户端列表中移除
-        synchronized(this.clients) {
-            this.clients.remove(client);
+        List<ChatRoom> rooms = new ArrayList<>(running.rooms().rooms());
+        rooms.sort(Comparator.comparing((ChatRoom room) -> !room.isLobby()).thenComparing(ChatRoom::getName));
+        for (ChatRoom room : rooms) {
+            this.roomListModel.addElement(room.getName() + "（" + room.size() + " 人）");
         }
-
-        // 更新用户列表UI
-        SwingUtilities.invokeLater(() -> {
-            this.userListModel.removeElement(client.getUserName());
-            // 检查在线用户列表是否为空，为空则显示提示信息
-            if (this.userListModel.isEmpty()) {
-                this.userListModel.addElement("暂无聊客");
-                // 禁用踢出按钮
-                kickButton.setEnabled(false);
-            }
-        });
     }
 
     /**
-     * 广播消息给所有客户端
-     * @param message 要广播的消息内容
+     * 踢出指定用户
+     * @param username 要踢出的用户名
      */
-    private void broadcast(String message) {
-        // 添加时间前缀
-        LocalTime now = LocalTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss");
-        String timePrefix = "【" + now.format(formatter) + "】";
-        String formattedMessage = timePrefix + message;
-
-        // 记录广播消息
-        System.out.println("Broadcast: " + formattedMessage);
-
-        // 在聊天区域显示消息
-        SwingUtilities.invokeLater(() -> this.textArea.append(formattedMessage + "\n"));
-
-        // 向所有客户端发送消息
-        synchronized(this.clients) {
-            for(ClientHandler client : this.clients) {
-                client.sendMessage(formattedMessage);
-            }
+    private void kickUser(String username) {
+        if (this.core != null) {
+            this.core.kickUser(username);
         }
     }
 
     /**
-     * 添加日志消息
-     * @param message 要添加的日志消息
-     */
-    private void appendLog(String message) {
-        // 在聊天区域显示日志
-        SwingUtilities.invokeLater(() -> this.textArea.append(message + "\n"));
-        // 在控制台输出日志
-        System.out.println(message);
-    }
-
-    /**
-     * 主程序入口
-     * @param args 命令行参数
+     * 主程序入口：带 --headless 参数或运行环境没有显示器时无界面启动，否则打开管理窗口
+     * @param args 命令行参数，见 {@link ServerConfig}
      */
     public static void main(String[] args) {
-        // 在Swing事件调度线程中创建服务器窗口
-        SwingUtilities.invokeLater(() -> new ChatServer());
-    }
-
-    /**
-     * 接受客户端连接线程类
-     */
-    class AcceptThread extends Thread {
-        /**
-         * 构造函数，初始化用户列表
-         */
-        AcceptThread() {
-            // 如果有"暂无聊客"提示，移除它
-            if (ChatServer.this.userListModel.size() == 1 &&
-                    ChatServer.this.userListModel.getElementAt(0).equals("暂无聊客")) {
-                ChatServer.this.userListModel.removeElementAt(0);
-            }
-        }
-
-        /**
-         * 线程主方法，接受客户端连接
-         */
-        public void run() {
-            while(true) {
-                if (ChatServer.this.isRunning) {
-                    try {
-                        // 接受客户端连接
-                        Socket socket = ChatServer.this.serverSocket.accept();
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                        PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-
-                        // 读取客户端发送的用户名
-                        String name = reader.readLine();
-                        boolean nameExists = false;
-
-                        // 检查用户名是否已存在
-                        synchronized(ChatServer.this.clients) {
-                            for(ClientHandler client : ChatServer.this.clients) {
-                                if (client.getUserName().equals(name)) {
-                                    nameExists = true;
-                                    break;
-                                }
-                            }
-                        }
-
-                        // 验证用户名有效性
-                        if (name != null && !name.trim().equals("") && !name.equals("管理员") && !nameExists) {
-                            // 用户名有效，发送确认消息
-                            writer.println("OK");
-
-                            // 创建客户端处理器
-                            ClientHandler clientHandler = ChatServer.this.new ClientHandler(socket, name);
-
-                            // 添加到客户端列表
-                            synchronized(ChatServer.this.clients) {
-                                ChatServer.this.clients.add(clientHandler);
-                            }
-
-                            // 更新用户列表UI
-                            SwingUtilities.invokeLater(() -> {
-                                // 有用户加入时，若列表只有提示信息则先移除
-                                if (ChatServer.this.userListModel.size() == 1 &&
-                                        ChatServer.this.userListModel.getElementAt(0).equals("暂无聊客")) {
-                                    ChatServer.this.userListModel.removeElementAt(0);
-                                }
-                                // 启用踢出按钮
-                                kickButton.setEnabled(true);
-                                // 添加新用户
-                                ChatServer.this.userListModel.addElement(name);
-                            });
-
-                            // 启动客户端线程
-                            clientHandler.start();
-
-                            // 记录连接信息
-                            System.out.println("用户 " + name + " 已连接");
-
-                            // 添加用户进入消息到队列
-                            ChatServer.this.messageQueue.offer(name + "：【进入了聊天室】");
-                            continue;
-                        }
-
-                        // 用户名无效，发送拒绝消息并关闭连接
-                        writer.println("INVALID");
-                        socket.close();
-                        continue;
-                    } catch (IOException e) {
-                        if (ChatServer.this.isRunning) {
-                            // 记录连接错误
-                            ChatServer.this.appendLog("接收连接时发生错误: " + e.getMessage());
-                        }
-                    }
-                }
-                // 服务器已停止，退出线程
-                System.out.println("接受线程正常退出");
-                return;
-            }
-        }
-    }
-    /**
-     * 巡逻线程类，负责处理消息队列和检查客户端状态
-     */
-    class PatrolThread extends Thread {
-        PatrolThread() {
-            // 巡逻线程构造函数，负责监控客户端连接和消息队列
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("配置错误：" + e.getMessage());
+            System.exit(1);
+            return;
         }
 
-        public void run() {
-            while (true) {
-                if (ChatServer.this.isRunning) {
-                    // 处理消息队列中的所有待广播消息
-                    while (!ChatServer.this.messageQueue.isEmpty()) {
-                        String msg = ChatServer.this.messageQueue.poll();
-                        if (msg != null) {
-                            try {
-                                // 安全广播消息
-                                ChatServer.this.broadcast(msg);
-                            } catch (Exception e) {
-                                // 记录广播失败信息
-                                System.out.println("广播消息[" + msg + "]时出错: " + e.getMessage());
-                            }
-                        }
-                    }
-
-                    // 检查所有客户端连接状态
-                    synchronized (ChatServer.this.clients) {
-                        Iterator<ClientHandler> iter = ChatServer.this.clients.iterator();
-
-                        while (iter.hasNext()) {
-                            ClientHandler client = iter.next();
-                            try {
-                                // 检查客户端线程是否存活
-                                if (!client.isAlive()) {
-                                    String name = client.getUserName();
-                                    iter.remove(); // 从客户端列表移除
-
-                                    // 在Swing线程中安全更新UI
-                                    SwingUtilities.invokeLater(() -> {
-                                        try {
-                                            ChatServer.this.userListModel.removeElement(name);
-                                            // 如果用户列表为空，显示提示信息
-                                            if (ChatServer.this.userListModel.isEmpty()) {
-                                                ChatServer.this.userListModel.addElement("暂无聊客");
-                                                // 禁用踢出按钮
-                                                kickButton.setEnabled(false);
-                                            }
-                                        } catch (Exception e) {
-                                            // 处理UI更新异常
-                                            System.out.println("更新用户列表(" + name + ")时出错: " + e.getMessage());
-                                        }
-                                    });
-
-                                    // 广播用户离开消息
-                                    String leaveMsg = name + "：【离开了聊天室】";
-                                    try {
-                                        ChatServer.this.broadcast(leaveMsg);
-                                    } catch (Exception e) {
-                                        // 处理广播异常
-                                        System.out.println("广播离开消息(" + leaveMsg + ")时出错: " + e.getMessage());
-                                    }
-
-                                    // 在终端记录用户断开
-                                    System.out.println("用户 " + name + " 已断开连接");
-                                }
-                            } catch (Exception e) {
-                                // 处理客户端状态检查异常
-                                System.out.println("检查客户端[" + client.getUserName() + "]状态时出错: " + e.getMessage());
-                            }
-                        }
-                    }
-
-                    try {
-                        // 短暂休眠，减少CPU占用
-                        Thread.sleep(100L);
-                    } catch (InterruptedException e) {
-                        // 处理线程中断
-                        System.out.println("巡逻线程被意外中断: " + e.getMessage());
-                        Thread.currentThread().interrupt(); // 恢复中断状态
-                        break; // 退出循环
-                    }
-                } else {
-                    // 服务器已停止运行，退出线程
-                    System.out.println("巡逻线程正常退出");
-                    return;
-                }
-            }
+        if (config.isHeadless() || GraphicsEnvironment.isHeadless()) {
+            ChatServerCore.runHeadless(config);
+            return;
         }
+        // 在Swing事件调度线程中创建服务器窗口
+        SwingUtilities.invokeLater(() -> new ChatServer(config));
     }
 
     /**
-     * 客户端处理器类，负责处理单个客户端连接
+     * 把服务器核心的事件转到Swing线程，更新聊天区域和用户列表。
+     * 聊天区域由 {@link BoundedLogModel} 合并更新，不为每条消息单独提交界面任务
      */
-    class ClientHandler extends Thread {
-        private Socket socket;
-        private String userName;
-        private BufferedReader reader;
-        private PrintWriter writer;
-        private volatile boolean connected;
-
-        public ClientHandler(Socket socket, String name) {
-            this.socket = socket;
-            this.userName = name;
-            this.connected = true;
-
-            try {
-                // 初始化输入输出流
-                this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                this.writer = new PrintWriter(socket.getOutputStream(), true);
-            } catch (IOException e) {
-                // 初始化连接时出错
-                System.out.println("初始化用户 " + name + " 的连接时出错: " + e.getMessage());
-            }
+    private class AdminViewListener implements ServerListener {
+        @Override
+        public void onBroadcast(String formattedMessage) {
+            // 在聊天区域显示消息（按刷新周期批量更新界面）
+            ChatServer.this.logModel.append(formattedMessage);
         }
 
-        public String getUserName() {
-            return this.userName;
+        @Override
+        public void onLog(String message) {
+            // 在聊天区域显示日志
+            ChatServer.this.logModel.append(message);
         }
 
-        public void sendMessage(String message) {
-            if (this.connected) {
-                this.writer.println(message);
-            }
-        }
-
-        public void closeConnection() {
-            this.connected = false;
-            try {
-                // 确保socket未被关闭
-                if (!this.socket.isClosed()) {
-                    this.socket.close();
+        @Override
+        public void onUserJoined(String name) {
+            SwingUtilities.invokeLater(() -> {
+                // 有用户加入时，若列表只有提示信息则先移除
+                if (ChatServer.this.userListModel.size() == 1 &&
+                        ChatServer.this.userListModel.getElementAt(0).equals("暂无聊客")) {
+                    ChatServer.this.userListModel.removeElementAt(0);
                 }
-            } catch (IOException e) {
-                // 关闭连接时出错
-                System.out.println("关闭用户 " + this.userName + " 的连接时出错: " + e.getMessage());
-            }
+                // 启用踢出按钮
+                kickButton.setEnabled(true);
+                kickRoomButton.setEnabled(true);
+                // 添加新用户
+                ChatServer.this.userListModel.addElement(name);
+            });
         }
 
-        public void run() {
-            try {
-                String line;
-                try {
-                    // 持续读取客户端消息
-                    while(this.connected && (line = this.reader.readLine()) != null) {
-                        String message = this.userName + "：" + line;
-                        ChatServer.this.messageQueue.offer(message);
-                    }
-                } catch (IOException e) {
-                    // 读取消息时发生异常（通常是客户端异常断开）
-                    System.out.println("用户 " + this.userName + " 读取消息时异常断开: " + e.getMessage());
+        @Override
+        public void onUserLeft(String name) {
+            SwingUtilities.invokeLater(() -> {
+                ChatServer.this.userListModel.removeElement(name);
+                // 检查在线用户列表是否为空，为空则显示提示信息
+                if (ChatServer.this.userListModel.isEmpty()) {
+                    ChatServer.this.userListModel.addElement("暂无聊客");
+                    // 禁用踢出按钮
+                    kickButton.setEnabled(false);
+                    kickRoomButton.setEnabled(false);
                 }
-            } finally {
-                // 确保连接被关闭
-                this.connected = false;
-                try {
-                    // 再次尝试关闭socket（双重保障）
-                    if (!this.socket.isClosed()) {
-                        this.socket.close();
-                    }
-                } catch (IOException e) {
-                    // 最终关闭连接时出错
-                    System.out.println("最终关闭用户 " + this.userName + " 的连接时出错: " + e.getMessage());
-                }
-            }
+            });
         }
     }
-}
\ No newline at end of file
+}
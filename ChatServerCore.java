@@ -0,0 +1,1359 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.JMException;
+
+/**
+ * 聊天服务器的网络核心，不依赖任何界面：负责接受连接、登记聊客、广播消息和踢人。
+ * 可由 {@link #main(String[])} 无界面启动，也可由 {@link ChatServer} 管理窗口驱动，
+ * 界面通过 {@link ServerListener} 观察服务器事件
+ */
+public class ChatServerCore {
+    /**
+     * 经典模式下写线程的关闭标记：取到该帧时发送结束，关闭连接
+     */
+    private static final byte[] CLOSE_FRAME = new byte[0];
+
+    private final ServerConfig config;
+    private volatile ServerListener listener = new ServerListener() {
+    };
+
+    // 网络组件
+    private ServerSocket serverSocket;
+    private final ClientRegistry clients = new ClientRegistry(); // 以昵称为键的客户端注册表，广播时无锁遍历
+    // 广播锁：广播与换房间、补发历史串行，保证压缩流的切换不夹在一次广播中间。
+    // 用显式锁而不是对象监视器，虚拟线程模式下等锁和扇出等待分片时不会占住载体线程
+    private final ReentrantLock broadcastLock = new ReentrantLock();
+    private NioServer nioServer; // NIO模式下的连接引擎
+    private MessageRing messageQueue; // 有界的待广播消息队列，槽位预先分配，分发线程阻塞等待；每次启动按配置重建
+    private HandshakeGate handshakeGate; // 登录握手的并发上限与统计
+    private RoomRegistry rooms; // 房间及其成员，每个房间的广播按协议编码一次，压缩连接共享一条压缩流
+    private BroadcastEncoder.Stats encoderStats; // 各房间共用的压缩统计
+    private BroadcastShards shards; // 大房间的扇出分片并行执行
+    private MessageJournal journal; // 广播过的消息写入磁盘，供新加入的聊客补发；未启用时为 null
+    private ServerLog log; // 异步日志，每次启动按配置重建
+    private ServerMetrics metrics; // 运行指标，每次启动重建
+    private RateLimiter.Limits rateLimits; // 各连接共用的发言限速，可由管理窗口在运行时调整
+    private ClusterNode cluster; // 组成集群时与其他节点互相转发消息、同步昵称目录；未配置时为 null
+
+    // 线程组件
+    private Thread acceptThread;
+    private Thread dispatchThread;
+    private ThreadFactory threadFactory; // 按模式创建平台线程或虚拟线程
+
+    // 状态标志
+    private volatile boolean isRunning;
+    private volatile CountDownLatch stopLatch = new CountDownLatch(0); // 每次启动重置，停止时释放
+
+    /**
+     * @param config 服务器配置，启动后不再读取其变化
+     */
+    public ChatServerCore(ServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * 设置事件监听器
+     * @param listener 监听器
+     */
+    void setListener(ServerListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return 服务器是否正在运行
+     */
+    boolean isRunning() {
+        return this.isRunning;
+    }
+
+    /**
+     * 启动聊天服务器，返回时已开始接受连接
+     * @throws IOException           端口绑定失败
+     * @throws IllegalStateException 当前JDK不支持所选的虚拟线程模式
+     */
+    void start() throws IOException {
+        ServerMode mode = this.config.getMode();
+        if (mode == ServerMode.VIRTUAL && !ServerThreads.isVirtualSupported()) {
+            throw new IllegalStateException("当前JDK不支持虚拟线程，需要Java 21及以上！");
+        }
+        this.threadFactory = ServerThreads.factory(mode, "chat-");
+        this.log = ServerLog.fromConfig(this.config);
+        this.log.start();
+
+        int port = this.config.getPort();
+        this.messageQueue = new MessageRing(this.config.getMessageQueueCapacity(), this.config.getMessageQueuePolicy());
+        this.handshakeGate = new HandshakeGate(this.config.getMaxHandshakes());
+        this.rateLimits = new RateLimiter.Limits(this.config.getRateMessages(), this.config.getRateBytes(),
+                this.config.getFloodKick());
+        this.encoderStats = new BroadcastEncoder.Stats();
+        this.shards = new BroadcastShards(this.config.getFanoutShards(), ServerThreads.factory(ServerMode.CLASSIC, "fanout-"));
+        this.rooms = new RoomRegistry(this.encoderStats, this.shards.count());
+        this.cluster = this.config.getClusterPort() > 0 ? new ClusterNode(this, this.config) : null;
+        this.metrics = new ServerMetrics(this.clients, this.rooms, this.messageQueue, this.handshakeGate, this.cluster);
+        try {
+            this.journal = openJournal();
+            if (this.cluster != null) {
+                this.cluster.start();
+            }
+            if (mode == ServerMode.NIO) {
+                // 创建NIO连接引擎
+                this.nioServer = new NioServer(this, port, this.config.getNioLoops());
+                this.nioServer.start();
+            } else {
+                // 创建服务器套接字
+                this.serverSocket = new ServerSocket(port);
+            }
+        } catch (IOException e) {
+            if (this.journal != null) {
+                this.journal.close();
+            }
+            if (this.cluster != null) {
+                this.cluster.stop();
+            }
+            this.shards.stop();
+            this.log.stop();
+            throw e;
+        }
+
+        if (this.config.isJmx()) {
+            try {
+                this.metrics.register(port);
+            } catch (JMException e) {
+                this.log.warn("jmx_error", null, "运行指标注册到 JMX 失败：" + e.getMessage());
+            }
+        }
+
+        this.isRunning = true;
+        this.stopLatch = new CountDownLatch(1);
+        if (mode != ServerMode.NIO) {
+            // 启动接受客户端连接线程
+            this.acceptThread = this.threadFactory.newThread(new AcceptThread());
+            this.acceptThread.start();
+        }
+
+        // 启动消息分发线程
+        this.dispatchThread = this.threadFactory.newThread(new DispatchThread());
+        this.dispatchThread.start();
+        this.listener.onStarted();
+
+        // 输出启动信息及自JVM启动到开始接受连接的耗时
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        this.log.info("start", null, "服务器启动，端口：" + port + "，" + mode + "，距进程启动 " + uptime + " ms");
+    }
+
+    /**
+     * 停止聊天服务器
+     */
+    void stop() {
+        if (!this.isRunning) {
+            return;
+        }
+        // 广播服务器关闭消息
+        String shutdownMsg = "管理员：【服务器关闭，大家都散了吧。】";
+        this.broadcast(shutdownMsg);
+
+        // 设置服务器状态为停止
+        this.isRunning = false;
+        // 等待空位的读取线程不再等待
+        this.messageQueue.close();
+        if (this.dispatchThread != null) {
+            // 唤醒阻塞在队列上的分发线程
+            this.dispatchThread.interrupt();
+            this.dispatchThread = null;
+        }
+
+        // 先清空客户端列表，关闭连接时不再触发离开广播
+        List<ChatConnection> remaining = new ArrayList<>(this.clients.connections());
+        this.clients.clear();
+        // 关闭所有客户端连接（先发完关闭消息）
+        for(ChatConnection client : remaining) {
+            client.closeAfterFlush();
+        }
+
+        try {
+            // 关闭服务器套接字
+            if (this.serverSocket != null) {
+                this.serverSocket.close();
+                this.serverSocket = null;
+            }
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+        if (this.nioServer != null) {
+            this.nioServer.stop();
+            this.nioServer = null;
+        }
+        // 断开集群链路，其他节点随即移除本节点的聊客
+        if (this.cluster != null) {
+            this.cluster.stop();
+        }
+
+        // 停止扇出工作线程，与仍在进行的广播串行
+        this.broadcastLock.lock();
+        try {
+            this.shards.stop();
+        } finally {
+            this.broadcastLock.unlock();
+        }
+
+        // 写完剩余的消息日志（包括上面的关闭消息）
+        if (this.journal != null) {
+            this.journal.close();
+        }
+
+        this.log.info("stop", null, "服务器已停止，" + this.handshakeGate.summary() + "；" + this.encoderStats.summary()
+                + "；日志丢弃 " + this.log.getDropped() + " 条");
+        this.metrics.unregister();
+        this.log.stop();
+        this.stopLatch.countDown();
+        this.listener.onStopped();
+    }
+
+    /**
+     * 阻塞直到服务器停止
+     * @throws InterruptedException 等待时被中断
+     */
+    void awaitStop() throws InterruptedException {
+        this.stopLatch.await();
+    }
+
+    /**
+     * 发送管理员消息，多行内容作为一条消息广播：二进制帧客户端收到完整的多行消息，
+     * 文本客户端按行收到，每行都带管理员前缀
+     * @param message 管理员输入的内容
+     * @return false 表示待广播队列已满，消息未发出
+     */
+    boolean sendAdminMessage(String message) {
+        if (!this.isRunning) return true;
+        // 去掉空行
+        StringBuilder text = new StringBuilder();
+        for (String line : message.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                text.append(text.length() == 0 ? "" : "\n").append(line);
+            }
+        }
+        return text.length() == 0 || enqueueNotice(null, "管理员：" + text);
+    }
+
+    /**
+     * 踢出指定用户
+     * @param username 要踢出的用户名
+     */
+    void kickUser(String username) {
+        kickUser(username, null);
+    }
+
+    /**
+     * 把指定用户踢出某个房间或整个聊天室
+     * @param username 要踢出的用户名
+     * @param roomName 房间名：为 null 时踢出聊天室并断开连接；否则用户在该房间时把其移回大厅
+     * @return 是否踢出；用户不存在、不在该房间或该房间为大厅时返回 false
+     */
+    boolean kickUser(String username, String roomName) {
+        // 在客户端列表中查找目标用户，不在本节点时转给其所在的集群节点
+        ChatConnection target = findClient(username);
+        if (target == null) {
+            return this.cluster != null && this.cluster.kick(username, roomName);
+        }
+
+        if (roomName != null) {
+            ChatRoom from;
+            this.broadcastLock.lock();
+            try {
+                from = target.getRoom();
+                if (from == null || from.isLobby() || !from.getName().equals(roomName)
+                        || this.rooms.move(target, RoomRegistry.LOBBY) == null) {
+                    return false;
+                }
+            } finally {
+                this.broadcastLock.unlock();
+            }
+            enqueueNotice(from, username + "：【被移出了房间】");
+            target.sendMessage("管理员: 你已被移出房间 " + roomName + "，回到" + RoomRegistry.LOBBY);
+            this.log.info("kick_room", username, "把用户 " + username + " 移出房间 " + roomName);
+            return true;
+        }
+
+        // 向所有房间广播踢出消息
+        String msg =  username + "：【因违规被踢出群聊室】";
+        enqueueNotice(null, msg);
+
+        // 向被踢用户发送通知
+        target.sendMessage("管理员: 你已被踢出群聊，下次注意！！！");
+
+        // 发完通知后关闭连接并移除用户
+        target.closeAfterFlush();
+        this.removeClient(target);
+
+        // 记录日志
+        this.log.info("kick", username, "踢出用户：" + username);
+        return true;
+    }
+
+    /**
+     * @return 本次启动的登录握手统计
+     */
+    HandshakeGate handshakeGate() {
+        return this.handshakeGate;
+    }
+
+    /**
+     * @return 本次启动的运行指标
+     */
+    ServerMetrics metrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @return 本次启动的发言限速，修改后各连接在下一条消息时生效
+     */
+    RateLimiter.Limits rateLimits() {
+        return this.rateLimits;
+    }
+
+    /**
+     * @return 按当前限速为一个连接创建的令牌桶
+     */
+    RateLimiter newRateLimiter() {
+        return new RateLimiter(this.rateLimits);
+    }
+
+    /**
+     * 按连接的令牌桶记入一条聊客消息，由读取线程或事件循环在处理完该消息后调用。
+     * 连续超限达到上限的连接按刷屏经 {@link #kickUser(String)} 踢出
+     * @param client  发送的聊客
+     * @param limiter 该连接的令牌桶
+     * @param bytes   消息的字节数
+     * @return 须暂停读取该连接的纳秒数，0 表示未超限，-1 表示已因刷屏被踢出
+     */
+    long throttle(ChatConnection client, RateLimiter limiter, int bytes) {
+        long pause = limiter.acquire(bytes);
+        if (pause == 0) {
+            return 0;
+        }
+        this.metrics.onThrottled();
+        if (!limiter.isFlooding()) {
+            return pause;
+        }
+        String name = client.getUserName();
+        this.metrics.onFloodKick();
+        this.log.warn("flood_kick", name, "用户 " + name + " 持续超出发言限速，自动踢出");
+        kickUser(name);
+        return -1;
+    }
+
+    /**
+     * @return 本次启动的集群节点，未组成集群时为 null
+     */
+    ClusterNode cluster() {
+        return this.cluster;
+    }
+
+    /**
+     * @return 服务器配置
+     */
+    ServerConfig config() {
+        return this.config;
+    }
+
+    /**
+     * 在客户端注册表中查找指定昵称的连接
+     * @param username 昵称
+     * @return 对应的连接，不存在时返回null
+     */
+    ChatConnection findClient(String username) {
+        return this.clients.get(username);
+    }
+
+    /**
+     * 从服务器中移除客户端
+     * @param client 要移除的客户端处理器
+     */
+    private void removeClient(ChatConnection client) {
+        // 从客户端列表中移除，并通知监听器更新用户列表
+        if (this.clients.remove(client)) {
+            onRemoved(client);
+        }
+    }
+
+    /**
+     * 按配置打开消息日志目录
+     * @return 消息日志；未配置目录时为 null
+     * @throws IOException 目录或分段文件无法打开
+     */
+    private MessageJournal openJournal() throws IOException {
+        String dir = this.config.getJournalDir();
+        if (dir.isEmpty()) {
+            return null;
+        }
+        MessageJournal journal = new MessageJournal(Paths.get(dir), this.config.getJournalSegmentSize(),
+                this.config.getJournalSegments(), this.config.getJournalSync(),
+                this.config.getJournalSyncIntervalMillis(), this.log);
+        journal.open();
+        return journal;
+    }
+
+    /**
+     * 连接已从注册表移除：离开所在的房间并通知监听器
+     * @return 连接原来所在的房间，不在任何房间时返回 null
+     */
+    private ChatRoom onRemoved(ChatConnection client) {
+        ChatRoom room = this.rooms.leave(client);
+        if (this.cluster != null) {
+            this.cluster.onLocalLeave(client.getUserName());
+        }
+        this.metrics.onLeave();
+        this.listener.onUserLeft(client.getUserName());
+        return room;
+    }
+
+    /**
+     * 广播消息给所有房间的所有客户端
+     * @param message 要广播的消息内容
+     */
+    void broadcast(String message) {
+        broadcast(null, message);
+    }
+
+    /**
+     * 广播消息给一个房间的成员。分发线程与停止服务器时都会调用（基准测试也直接调用），
+     * 与换房间串行执行，以保证各连接收到的压缩流顺序一致
+     * @param room    目标房间，为 null 时发给所有房间
+     * @param message 要广播的消息内容
+     */
+    void broadcast(ChatRoom room, String message) {
+        this.broadcastLock.lock();
+        try {
+            broadcastLocked(room, message);
+        } finally {
+            this.broadcastLock.unlock();
+        }
+    }
+
+    /**
+     * 在持有广播锁时广播一条消息
+     */
+    private void broadcastLocked(ChatRoom room, String message) {
+        // 添加时间前缀
+        String formattedMessage = timePrefix() + message;
+
+        // 通知监听器（如管理界面的聊天区域），大厅以外的房间标出房间名
+        boolean lobby = room == null || room.isLobby();
+        this.listener.onBroadcast(lobby ? formattedMessage : "〔" + room.getName() + "〕" + formattedMessage);
+
+        // 大厅和全体消息交给消息日志的写线程，不等待磁盘；聊客加入时补发的是大厅的历史
+        if (this.journal != null && lobby) {
+            this.journal.append(formattedMessage);
+        }
+
+        // 只向目标房间的成员发送（弱一致性遍历，不加锁，不阻塞加入和离开）
+        long start = System.nanoTime();
+        if (room != null) {
+            fanOut(room, formattedMessage);
+        } else {
+            for (ChatRoom each : this.rooms.rooms()) {
+                fanOut(each, formattedMessage);
+            }
+        }
+
+        // 记录广播消息及分发耗时（只入队，不等待输出）
+        long elapsed = System.nanoTime() - start;
+        this.metrics.onBroadcast(elapsed);
+        this.log.log(ServerLog.Level.INFO, "broadcast", null, elapsed, formattedMessage);
+    }
+
+    /**
+     * @return 消息的时间前缀，如【12:00:00】
+     */
+    private static String timePrefix() {
+        LocalTime now = LocalTime.now();
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss");
+        return "【" + now.format(formatter) + "】";
+    }
+
+    /**
+     * 向房间的成员发送一条消息：每种编码只做一次，同编码的客户端共享同一只读字节帧，
+     * 大房间由各分片并行放入待发送队列，全部入队后返回
+     */
+    private void fanOut(ChatRoom room, String formattedMessage) {
+        room.encoder().encode(formattedMessage, room.hasDeflateMembers());
+        this.shards.fanOut(room);
+    }
+
+    /**
+     * 添加警告日志，同时显示在管理界面
+     * @param event   事件名
+     * @param user    相关的用户，没有时为 null
+     * @param message 要添加的日志消息
+     */
+    void appendLog(String event, String user, String message) {
+        // 通知监听器显示日志
+        this.listener.onLog(message);
+        this.log.warn(event, user, message);
+    }
+
+    /**
+     * @return 本次启动的日志
+     */
+    ServerLog log() {
+        return this.log;
+    }
+
+    /**
+     * 登记新的聊客连接：昵称合法且未被占用时，先加入客户端列表并发送OK应答，再补发大厅最近的历史消息、进入大厅，
+     * 然后通知监听器并排队发送进入消息
+     * @param client 已读取昵称的客户端连接
+     * @return 昵称是否被接受
+     */
+    boolean registerClient(ChatConnection client) {
+        String name = client.getUserName();
+        if (!ChatProtocol.isValidName(name) || name.length() > this.config.getMaxNameLength()) {
+            this.handshakeGate.onInvalid();
+            return false;
+        }
+
+        // 组成集群时先在全集群的昵称目录中占用
+        if (this.cluster != null && !this.cluster.reserve(name)) {
+            this.handshakeGate.onInvalid();
+            return false;
+        }
+
+        // 原子地占用昵称，OK应答在连接进入大厅（对广播可见）前入队，保证先于任何广播到达客户端
+        String reply = ChatProtocol.okReply(client.getProtocolVersion(), client.getDeflateStream() != null);
+        if (!this.clients.claim(client, () -> client.sendFrame(ChatProtocol.encodeLine(reply)))) {
+            if (this.cluster != null) {
+                this.cluster.release(name);
+            }
+            this.handshakeGate.onInvalid();
+            return false;
+        }
+        this.metrics.onJoin();
+        enterLobby(client);
+
+        // 进入大厅前已断开或被踢出：移除时它还不在房间中，这里退出大厅，不再通知和广播
+        if (this.clients.get(name) != client) {
+            this.rooms.leave(client);
+            return true;
+        }
+
+        // 登记期间其他节点已用节点名更小的一方接受了同一昵称（当时本地连接尚未登记，无从断开）：
+        // 在通知其他节点和广播进入消息之前断开；此后到达的冲突由集群节点在收到登录通知时处理
+        if (this.cluster != null) {
+            if (!this.cluster.owns(name)) {
+                disconnectConflicting(client, false);
+                return true;
+            }
+            this.cluster.onLocalJoin(name);
+        }
+
+        // 通知监听器更新用户列表
+        this.listener.onUserJoined(name);
+
+        // 记录连接信息
+        this.log.info("join", name, "用户 " + name + " 已连接");
+
+        // 添加用户进入消息到队列
+        enqueueNotice(this.rooms.lobby(), name + "：【进入了聊天室】");
+        return true;
+    }
+
+    /**
+     * 补发大厅最近的历史消息后让连接进入大厅。历史按消息日志的序号（水位）补发：
+     * 先在任何锁之外补发到当前水位为止的最近若干条，并追补补发期间新增的消息，
+     * 再在广播锁内补发最后一段新增的消息并进入大厅。广播锁内追加到日志的消息都已扇出，
+     * 进入大厅后的广播不在其中，新聊客既不漏收也不重复收到
+     * @param client 已占用昵称的连接
+     */
+    private void enterLobby(ChatConnection client) {
+        int replay = this.config.getJournalReplay();
+        if (this.journal == null || replay <= 0) {
+            this.rooms.join(client, RoomRegistry.LOBBY);
+            return;
+        }
+        // 最近的记录通常仍在页缓存中，按位置读取不等待磁盘
+        long watermark = this.journal.sequence();
+        replayHistory(client, this.journal.recent(replay, watermark));
+        long latest;
+        while ((latest = this.journal.sequence()) != watermark) {
+            replayHistory(client, this.journal.recent(gap(watermark, latest), latest));
+            watermark = latest;
+        }
+        this.broadcastLock.lock();
+        try {
+            // 通常没有新增，最多是等锁期间分发线程广播的几条
+            latest = this.journal.sequence();
+            if (latest != watermark) {
+                replayHistory(client, this.journal.recent(gap(watermark, latest), latest));
+            }
+            this.rooms.join(client, RoomRegistry.LOBBY);
+        } finally {
+            this.broadcastLock.unlock();
+        }
+    }
+
+    /**
+     * @return 两个水位之间的消息数
+     */
+    private static int gap(long from, long to) {
+        return (int) Math.min(to - from, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 按连接的协议向其发送历史消息
+     * @param client   新加入的连接
+     * @param messages 由旧到新的消息
+     */
+    private void replayHistory(ChatConnection client, List<String> messages) {
+        for (String message : messages) {
+            client.sendFrame(client.getProtocolVersion() == ChatProtocol.TEXT_VERSION
+                    ? ChatProtocol.encodeText(message)
+                    : ChatProtocol.encodeFrame(ChatProtocol.TYPE_CHAT, 0, message));
+        }
+    }
+
+    /**
+     * 连接断开事件：连接终止时由其读取线程或事件循环直接调用，
+     * 从注册表移除并通知监听器、广播离开消息。可重复调用，只有第一次生效，
+     * 已被踢出或服务器停止时清空的连接不会再次广播
+     * @param client 已断开的连接
+     */
+    void onDisconnect(ChatConnection client) {
+        if (!this.clients.remove(client)) {
+            return;
+        }
+        String name = client.getUserName();
+
+        // 离开所在的房间，通知监听器更新用户列表
+        ChatRoom room = onRemoved(client);
+
+        // 向其所在的房间广播用户离开消息（经消息队列，与其他消息保持先后顺序）
+        if (room != null) {
+            enqueueNotice(room, name + "：【离开了聊天室】");
+        }
+
+        // 在终端记录用户断开
+        this.log.info("leave", name, "用户 " + name + " 已断开连接");
+    }
+
+    /**
+     * 为协商了压缩的连接创建压缩流状态，其待发送队列丢弃压缩帧时该连接退出压缩流直到下次重置
+     * @param login    客户端发送的登录行
+     * @param version  协商的协议版本
+     * @param outbound 该连接的待发送队列
+     * @return 压缩流状态；服务器未启用压缩或客户端不支持时为 null
+     */
+    BroadcastEncoder.Stream newDeflateStream(String login, int version, OutboundQueue outbound) {
+        if (!this.config.isDeflate() || version == ChatProtocol.TEXT_VERSION || !ChatProtocol.offersDeflate(login)) {
+            return null;
+        }
+        BroadcastEncoder.Stream stream = new BroadcastEncoder.Stream();
+        outbound.setOnStreamBreak(stream::desync);
+        return stream;
+    }
+
+    /**
+     * 按当前配置创建一个连接的待发送队列
+     * @return 新的待发送队列
+     */
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(this.config.getOutboundCapacity(), this.config.getOverflowPolicy());
+    }
+
+    /**
+     * 将一条发给所有房间的消息放入待广播队列
+     * @param message 消息内容
+     * @return false 表示队列已满，消息按策略被丢弃或拒绝
+     */
+    boolean enqueueMessage(String message) {
+        return enqueueMessage(null, message);
+    }
+
+    /**
+     * 将一条消息放入待广播队列，队列已满时按 {@link QueueFullPolicy} 等待或放弃
+     * @param room    目标房间，为 null 时发给所有房间
+     * @param message 消息内容
+     * @return false 表示队列已满，消息按策略被丢弃或拒绝
+     */
+    boolean enqueueMessage(ChatRoom room, String message) {
+        return this.messageQueue.offer(room, message, false);
+    }
+
+    /**
+     * 将一条服务器通知（进出、踢出、管理员消息）放入待广播队列，队列已满时不论策略都不等待。
+     * 通知可能由扇出中的分片线程（断开慢速聊客）、事件循环或管理界面发出，这些线程都不能等待分发线程
+     * @param room    目标房间，为 null 时发给所有房间
+     * @param message 通知内容
+     * @return false 表示队列已满，通知被丢弃
+     */
+    private boolean enqueueNotice(ChatRoom room, String message) {
+        return this.messageQueue.offerNotice(room, message);
+    }
+
+    /**
+     * 其他集群节点转发来的消息：目标房间在本节点存在时放入待广播队列，广播后不再转发
+     * @param roomName 房间名，为空串时发给所有房间
+     * @param message  消息内容
+     */
+    void onClusterPost(String roomName, String message) {
+        ChatRoom room = roomName.isEmpty() ? null : this.rooms.get(roomName);
+        if (roomName.isEmpty() || room != null) {
+            this.messageQueue.offer(room, message, true);
+        }
+    }
+
+    /**
+     * 其他集群节点的聊客进入聊天室，通知监听器更新用户列表
+     * @param name 昵称
+     */
+    void onClusterUserJoined(String name) {
+        this.listener.onUserJoined(name);
+    }
+
+    /**
+     * 其他集群节点的聊客离开，或与其所在节点的链路断开
+     * @param name 昵称
+     */
+    void onClusterUserLeft(String name) {
+        this.listener.onUserLeft(name);
+    }
+
+    /**
+     * 本节点的聊客与其他节点同时登录的聊客重名且落败：通知后断开本地连接，不广播离开消息。
+     * 胜出一方的进入由集群节点随后通过 {@link #onClusterUserJoined} 通知，这里只通知本地聊客离开
+     * @param name 昵称
+     */
+    void onNameConflict(String name) {
+        ChatConnection target = findClient(name);
+        if (target != null) {
+            disconnectConflicting(target, true);
+        }
+    }
+
+    /**
+     * 断开重名落败的本地连接
+     * @param target    本地连接
+     * @param announced 是否已通知过监听器该聊客进入；未通知过的只移出登记表和大厅，
+     *                  以免监听器把胜出一方当作离开
+     */
+    private void disconnectConflicting(ChatConnection target, boolean announced) {
+        String name = target.getUserName();
+        target.sendMessage("管理员: 昵称 " + name + " 已在集群的其他节点登录，连接已断开");
+        target.closeAfterFlush();
+        if (announced) {
+            this.removeClient(target);
+        } else if (this.clients.remove(target)) {
+            this.rooms.leave(target);
+            this.metrics.onLeave();
+        }
+        this.log.warn("name_conflict", name, "昵称 " + name + " 与其他集群节点冲突，已断开本地连接");
+    }
+
+    /**
+     * 其他集群节点转来的私聊：投递给本地的接收方，把送达确认或未送达通知发回发送方所在的节点
+     * @param node     发送方所在的节点名
+     * @param fromName 发送方昵称
+     * @param toName   接收方昵称
+     * @param text     内容
+     */
+    void onClusterDirect(String node, String fromName, String toName, String text) {
+        ChatConnection to = this.clients.get(toName);
+        this.cluster.tell(node, fromName, to == null
+                ? "管理员: 用户 " + toName + " 不在线，私聊未送达"
+                : deliverDirect(fromName, to, text));
+    }
+
+    /**
+     * 处理聊客发来的一行聊天内容：命令由服务器直接应答，其余发到聊客所在的房间
+     * @param client 发送的聊客
+     * @param text   聊天内容
+     */
+    void onClientMessage(ChatConnection client, String text) {
+        if (text.startsWith(ChatProtocol.COMMAND_PREFIX)) {
+            onCommand(client, text);
+            return;
+        }
+        ChatRoom room = client.getRoom();
+        if (room != null && !enqueueMessage(room, client.getUserName() + "：" + text)) {
+            onMessageDropped(client);
+        }
+    }
+
+    /**
+     * 事件循环收到的聊天内容（不含命令）：放入待广播队列，不论策略都不等待，以免一个房间的拥塞卡住整个事件循环
+     * @param client 发送的聊客
+     * @param text   聊天内容
+     * @return false 表示按 block 策略队列已满，消息既未放入也未丢弃，调用方应暂停读取该连接并稍后重试
+     */
+    boolean offerClientMessage(ChatConnection client, String text) {
+        ChatRoom room = client.getRoom();
+        if (room == null || this.messageQueue.tryOffer(room, client.getUserName() + "：" + text)) {
+            return true;
+        }
+        if (this.messageQueue.policy() == QueueFullPolicy.BLOCK) {
+            return false;
+        }
+        onMessageDropped(client);
+        return true;
+    }
+
+    /**
+     * 聊客的消息因队列已满被放弃：按 reject 策略通知发送者
+     */
+    private void onMessageDropped(ChatConnection client) {
+        if (this.messageQueue.policy() == QueueFullPolicy.REJECT) {
+            client.sendMessage("管理员: 服务器繁忙，消息未发送");
+        }
+    }
+
+    /**
+     * 执行聊客的房间命令，结果以通知发回该聊客
+     */
+    private void onCommand(ChatConnection client, String text) {
+        String[] parts = text.trim().split("\\s+", 2);
+        String argument = parts.length > 1 ? parts[1].trim() : "";
+        switch (parts[0]) {
+            case ChatProtocol.CMD_JOIN:
+                if (!ChatProtocol.isValidName(argument) || argument.length() > this.config.getMaxNameLength()) {
+                    client.sendMessage("管理员: 房间名非法：" + argument);
+                } else {
+                    joinRoom(client, argument);
+                }
+                break;
+            case ChatProtocol.CMD_LEAVE:
+                joinRoom(client, RoomRegistry.LOBBY);
+                break;
+            case ChatProtocol.CMD_WHISPER:
+                sendDirect(client, argument);
+                break;
+            case ChatProtocol.CMD_ROOMS:
+                StringBuilder list = new StringBuilder("管理员: 房间列表：");
+                for (ChatRoom room : this.rooms.rooms()) {
+                    list.append(' ').append(room.getName()).append('（').append(room.size()).append(" 人）");
+                }
+                client.sendMessage(list.toString());
+                break;
+            default:
+                client.sendMessage("管理员: 未知命令 " + parts[0] + "，可用命令：" + ChatProtocol.CMD_JOIN + " 房间名、"
+                        + ChatProtocol.CMD_LEAVE + "、" + ChatProtocol.CMD_ROOMS + "、" + ChatProtocol.CMD_WHISPER + " 昵称 内容");
+        }
+    }
+
+    /**
+     * 私聊：按昵称在注册表中直接找到对方的连接，由发送方的读取线程（NIO 模式下为工作线程）把消息放入对方的待发送队列，
+     * 不经过消息队列和广播锁，开销与在线人数无关。入队后向发送方回复送达确认
+     * @param from     发送方
+     * @param argument 命令参数：对方昵称和内容
+     */
+    private void sendDirect(ChatConnection from, String argument) {
+        String[] parts = argument.split("\\s+", 2);
+        if (parts.length < 2 || parts[1].trim().isEmpty()) {
+            from.sendMessage("管理员: 用法：" + ChatProtocol.CMD_WHISPER + " 昵称 内容");
+            return;
+        }
+        String name = parts[0];
+        String text = parts[1].trim();
+        ChatConnection to = this.clients.get(name);
+        if (to == null && this.cluster != null && this.cluster.direct(from.getUserName(), name, text)) {
+            return; // 对方在其他集群节点上，送达确认由该节点发回
+        }
+        if (to == null || to == from) {
+            from.sendMessage("管理员: " + (to == null ? "用户 " + name + " 不在线" : "不能私聊自己") + "，私聊未送达");
+            return;
+        }
+        from.sendMessage(deliverDirect(from.getUserName(), to, text));
+    }
+
+    /**
+     * 把私聊放入接收方的待发送队列
+     * @return 给发送方的送达确认
+     */
+    private String deliverDirect(String fromName, ChatConnection to, String text) {
+        String time = timePrefix();
+        to.sendMessage(time + fromName + " 悄悄对你说：" + text);
+        this.metrics.onDirect();
+        this.log.debug("direct", fromName, "私聊 " + to.getUserName());
+        return time + "你悄悄对 " + to.getUserName() + " 说：" + text + "（已送达）";
+    }
+
+    /**
+     * 把聊客移入指定房间，向新旧房间广播进出消息。与广播串行，保证压缩流的切换不夹在一次广播中间
+     * @param client 聊客连接
+     * @param name   房间名
+     */
+    void joinRoom(ChatConnection client, String name) {
+        ChatRoom from;
+        ChatRoom to;
+        this.broadcastLock.lock();
+        try {
+            from = client.getRoom();
+            to = this.rooms.move(client, name);
+        } finally {
+            this.broadcastLock.unlock();
+        }
+        if (from == null || to == null) {
+            return; // 已断开
+        }
+        if (from == to) {
+            client.sendMessage("管理员: 你已在房间 " + to.getName() + " 中");
+            return;
+        }
+        String userName = client.getUserName();
+        enqueueNotice(from, userName + "：【离开了房间】");
+        enqueueNotice(to, userName + "：【进入了房间】");
+        client.sendMessage("管理员: 已进入房间 " + to.getName() + "（" + to.size() + " 人）");
+        this.log.info("room", userName, "用户 " + userName + " 从 " + from.getName() + " 进入 " + to.getName());
+    }
+
+    /**
+     * @return 本次启动的房间注册表
+     */
+    RoomRegistry rooms() {
+        return this.rooms;
+    }
+
+    /**
+     * 无界面启动服务器，进程退出时自动停止
+     * @param config 服务器配置
+     */
+    static void runHeadless(ServerConfig config) {
+        ChatServerCore core = new ChatServerCore(config);
+        try {
+            core.start();
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("无法在端口 " + config.getPort() + " 启动服务器！");
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(core::stop, "chat-shutdown"));
+
+        // 虚拟线程都是守护线程，主线程需等待服务器停止，否则进程会直接退出
+        try {
+            core.awaitStop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 无界面主程序入口
+     * @param args 命令行参数，见 {@link ServerConfig}
+     */
+    public static void main(String[] args) {
+        try {
+            runHeadless(ServerConfig.fromArgs(args));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("配置错误：" + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 接受客户端连接线程类
+     */
+    class AcceptThread implements Runnable {
+        /**
+         * 线程主方法，只负责接受客户端连接，握手交给独立的握手线程
+         */
+        public void run() {
+            while(true) {
+                if (ChatServerCore.this.isRunning) {
+                    try {
+                        // 接受客户端连接
+                        Socket socket = ChatServerCore.this.serverSocket.accept();
+                        long acceptedAt = System.nanoTime();
+
+                        // 握手数已达上限时直接关闭，避免连接风暴耗尽线程
+                        if (!ChatServerCore.this.handshakeGate.tryEnter()) {
+                            socket.close();
+                            continue;
+                        }
+
+                        // 握手线程在登录成功后直接成为该客户端的读取线程
+                        ChatServerCore.this.threadFactory.newThread(new HandshakeTask(socket, acceptedAt)).start();
+                        continue;
+                    } catch (IOException e) {
+                        if (ChatServerCore.this.isRunning) {
+                            // 记录连接错误
+                            ChatServerCore.this.appendLog("accept_error", null, "接收连接时发生错误: " + e.getMessage());
+                        }
+                    }
+                }
+                // 服务器已停止，退出线程
+                ChatServerCore.this.log.info("accept_exit", null, "接受线程正常退出");
+                return;
+            }
+        }
+    }
+
+    /**
+     * 登录握手任务：在限定时间内读取昵称并登记，成功后在同一线程中运行客户端处理器
+     */
+    class HandshakeTask implements Runnable {
+        private final Socket socket;
+        private final long acceptedAt;
+
+        HandshakeTask(Socket socket, long acceptedAt) {
+            this.socket = socket;
+            this.acceptedAt = acceptedAt;
+        }
+
+        public void run() {
+            ClientHandler clientHandler = null;
+            try {
+                InputStream input = new BufferedInputStream(
+                        ChatServerCore.this.metrics.countIn(this.socket.getInputStream()));
+
+                // 读取客户端发送的登录行：用户名及可选的协议版本
+                String login = readName(input);
+
+                // 创建客户端处理器，沿用握手时的输入流，避免丢失已缓冲的数据
+                ClientHandler candidate = ChatServerCore.this.new ClientHandler(this.socket, input, login);
+
+                // 验证用户名有效性并登记（成功时已发送确认消息）
+                if (ChatServerCore.this.registerClient(candidate)) {
+                    clientHandler = candidate;
+                } else {
+                    // 用户名无效，发送拒绝消息并关闭连接
+                    this.socket.getOutputStream().write(ChatProtocol.encodeLine(ChatProtocol.INVALID));
+                    this.socket.close();
+                }
+            } catch (SocketTimeoutException e) {
+                ChatServerCore.this.handshakeGate.onTimeout();
+                closeQuietly();
+            } catch (IOException e) {
+                closeQuietly();
+            } finally {
+                ChatServerCore.this.handshakeGate.exit(this.acceptedAt);
+            }
+
+            if (clientHandler != null) {
+                clientHandler.run();
+            }
+        }
+
+        /**
+         * 在握手期限内读取一行登录信息，超过最大长度时视为非法
+         * @return 登录行；连接关闭或昵称过长时返回null
+         * @throws SocketTimeoutException 超过握手期限
+         */
+        private String readName(InputStream input) throws IOException {
+            long deadline = this.acceptedAt + ChatServerCore.this.config.getHandshakeTimeoutMillis() * 1_000_000L;
+            // UTF-8下一个字符最多4字节，另留版本号和回车符的位置
+            int maxBytes = ChatServerCore.this.config.getMaxNameLength() * 4 + ChatProtocol.MAX_OFFER_BYTES + 2;
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            while (true) {
+                long remainingMillis = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMillis <= 0) {
+                    throw new SocketTimeoutException("登录握手超时");
+                }
+                this.socket.setSoTimeout((int) remainingMillis);
+                int b = input.read();
+                if (b < 0 || buffer.size() == maxBytes) {
+                    return null;
+                }
+                if (b == '\n') {
+                    break;
+                }
+                buffer.write(b);
+            }
+            this.socket.setSoTimeout(0);
+
+            byte[] bytes = buffer.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, 0, length, ChatProtocol.CHARSET);
+        }
+
+        private void closeQuietly() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+        }
+    }
+
+    /**
+     * 消息分发线程类，阻塞等待消息队列，消息一到立即按入队顺序广播
+     */
+    class DispatchThread implements Runnable {
+        public void run() {
+            MessageRing.Entry msg = new MessageRing.Entry(); // 反复使用，取出消息不分配对象
+            while (ChatServerCore.this.isRunning) {
+                try {
+                    ChatServerCore.this.messageQueue.take(msg);
+                } catch (InterruptedException e) {
+                    // 服务器停止时被中断，退出线程
+                    break;
+                }
+                try {
+                    // 本节点发起的消息先转发给其他集群节点，再广播给本地聊客
+                    ClusterNode cluster = ChatServerCore.this.cluster;
+                    if (cluster != null && !msg.relayed) {
+                        cluster.relay(msg.room, msg.text);
+                    }
+                    // 安全广播消息
+                    ChatServerCore.this.broadcast(msg.room, msg.text);
+                } catch (Exception e) {
+                    // 记录广播失败信息
+                    ChatServerCore.this.log.error("broadcast_error", null, "广播消息[" + msg.text + "]时出错: " + e.getMessage());
+                }
+            }
+            ChatServerCore.this.log.info("dispatch_exit", null, "分发线程正常退出");
+        }
+    }
+
+    /**
+     * 客户端处理器类，负责处理单个客户端连接：本线程阻塞读取，独立的写线程从待发送队列取出写出
+     */
+    class ClientHandler implements Runnable, ChatConnection {
+        private Socket socket;
+        private String userName;
+        private final int protocolVersion; // 登录时协商的协议版本
+        private final BroadcastEncoder.Stream deflateStream; // 未协商压缩时为 null
+        private InputStream input;
+        private OutputStream output;
+        private final OutboundQueue outbound;
+        private final RateLimiter limiter; // 只由本连接的读取线程使用
+        private volatile ChatRoom room; // 所在的房间
+        private Thread writerThread;
+        private volatile boolean connected;
+        private volatile boolean closing; // 已请求发完后关闭，不再接收新消息
+
+        /**
+         * @param socket 客户端连接
+         * @param input  握手时使用的输入流
+         * @param login  客户端发送的登录行，连接关闭或过长时为 null
+         */
+        public ClientHandler(Socket socket, InputStream input, String login) {
+            this.socket = socket;
+            this.userName = login == null ? null : ChatProtocol.loginName(login);
+            this.protocolVersion = login == null ? ChatProtocol.TEXT_VERSION : ChatProtocol.negotiate(login);
+            this.connected = true;
+            this.outbound = ChatServerCore.this.newOutboundQueue();
+            this.limiter = ChatServerCore.this.newRateLimiter();
+            this.deflateStream = login == null ? null
+                    : ChatServerCore.this.newDeflateStream(login, this.protocolVersion, this.outbound);
+            this.input = input;
+
+            try {
+                // 初始化输出流
+                this.output = new BufferedOutputStream(ChatServerCore.this.metrics.countOut(socket.getOutputStream()),
+                        ChatServerCore.this.config.getFlushBufferSize());
+            } catch (IOException e) {
+                // 初始化连接时出错
+                ChatServerCore.this.log.warn("init_error", this.userName, "初始化用户 " + this.userName + " 的连接时出错: " + e.getMessage());
+            }
+        }
+
+        public String getUserName() {
+            return this.userName;
+        }
+
+        public int getQueueDepth() {
+            return this.outbound.size();
+        }
+
+        public int getProtocolVersion() {
+            return this.protocolVersion;
+        }
+
+        public BroadcastEncoder.Stream getDeflateStream() {
+            return this.deflateStream;
+        }
+
+        public ChatRoom getRoom() {
+            return this.room;
+        }
+
+        public void setRoom(ChatRoom room) {
+            this.room = room;
+        }
+
+        public void sendFrame(byte[] frame) {
+            if (!this.connected || this.closing) {
+                return;
+            }
+            if (!this.outbound.offer(frame)) {
+                // 队列已满且策略为断开：关闭连接，读取线程结束时触发断线事件
+                ChatServerCore.this.log.warn("slow_consumer", this.userName, "用户 " + this.userName + " 接收过慢，连接已断开");
+                closeConnection();
+            }
+        }
+
+        public void closeAfterFlush() {
+            this.closing = true;
+            if (!this.outbound.offer(CLOSE_FRAME)) {
+                closeConnection();
+            }
+        }
+
+        public void closeConnection() {
+            this.connected = false;
+            if (this.writerThread != null) {
+                this.writerThread.interrupt();
+            }
+            try {
+                // 确保socket未被关闭
+                if (!this.socket.isClosed()) {
+                    this.socket.close();
+                }
+            } catch (IOException e) {
+                // 关闭连接时出错
+                ChatServerCore.this.log.warn("close_error", this.userName, "关闭用户 " + this.userName + " 的连接时出错: " + e.getMessage());
+            }
+        }
+
+        /**
+         * 写线程主方法：从待发送队列取出字节帧写入缓冲区，按合并写出的窗口批量刷出。
+         * 窗口为 0 时队列一写空就刷出；否则最早一帧等满一个窗口后，队列一写空就刷出。
+         * 窗口到期后只写出已在队列中的帧，不再等待，缓冲区写满时随时写出
+         */
+        private void writeLoop() {
+            long window = TimeUnit.MICROSECONDS.toNanos(ChatServerCore.this.config.getFlushWindowMicros());
+            boolean pending = false; // 缓冲区中是否有尚未刷出的数据
+            long deadline = 0;       // 缓冲区中最早一帧必须刷出的时刻
+            try {
+                while (this.connected) {
+                    byte[] frame = pending
+                            ? this.outbound.poll(deadline - System.nanoTime())
+                            : this.outbound.take();
+                    if (frame == null || frame == CLOSE_FRAME) {
+                        // 队列已写空或窗口已到，刷出积攒的帧
+                        this.output.flush();
+                        pending = false;
+                        if (frame == CLOSE_FRAME) {
+                            break;
+                        }
+                        continue;
+                    }
+                    // 写满缓冲区时 BufferedOutputStream 会自动写出
+                    this.output.write(frame);
+                    if (!pending) {
+                        pending = true;
+                        deadline = System.nanoTime() + window;
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                // 连接关闭时被中断或写失败，由读取线程结束后统一清理
+            } finally {
+                closeConnection();
+            }
+        }
+
+        /**
+         * 文本协议：每行是一条聊天消息
+         */
+        private void readLines() throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(this.input));
+            String line;
+            while(this.connected && (line = reader.readLine()) != null) {
+                ChatServerCore.this.onClientMessage(this, line);
+                if (!pauseIfLimited(line.getBytes(ChatProtocol.CHARSET).length)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 记入一条消息，超出限速时本线程暂停读取：未读的数据留在内核的接收缓冲区，由 TCP 流量控制让客户端慢下来
+         * @param bytes 消息的字节数
+         * @return 是否继续读取，因刷屏被踢出或暂停时被中断时返回 false
+         */
+        private boolean pauseIfLimited(int bytes) {
+            long pause = ChatServerCore.this.throttle(this, this.limiter, bytes);
+            if (pause <= 0) {
+                return pause == 0;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(pause);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * 二进制帧协议：按长度前缀整块读取每一帧，无需逐字节查找分隔符
+         */
+        private void readFrames() throws IOException {
+            DataInputStream in = new DataInputStream(this.input);
+            while (this.connected) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < ChatProtocol.FRAME_HEADER_BYTES || length > ChatProtocol.MAX_FRAME_BYTES) {
+                    ChatServerCore.this.appendLog("bad_frame", this.userName, "用户 " + this.userName + " 发送的帧长度非法，连接已断开");
+                    return;
+                }
+                byte type = in.readByte();
+                in.readInt(); // 客户端的序号，服务器不使用
+                byte[] payload = new byte[length - ChatProtocol.FRAME_HEADER_BYTES];
+                in.readFully(payload);
+                if (type == ChatProtocol.TYPE_CHAT) {
+                    String text = new String(payload, StandardCharsets.UTF_8);
+                    ChatServerCore.this.onClientMessage(this, text);
+                    if (!pauseIfLimited(payload.length)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        public void run() {
+            // 启动本连接的写线程
+            this.writerThread = ChatServerCore.this.threadFactory.newThread(this::writeLoop);
+            this.writerThread.start();
+            try {
+                try {
+                    // 持续读取客户端消息
+                    if (this.protocolVersion == ChatProtocol.TEXT_VERSION) {
+                        readLines();
+                    } else {
+                        readFrames();
+                    }
+                } catch (IOException e) {
+                    // 读取消息时发生异常（通常是客户端异常断开）
+                    ChatServerCore.this.log.info("read_error", this.userName, "用户 " + this.userName + " 读取消息时异常断开: " + e.getMessage());
+                }
+            } finally {
+                // 确保连接被关闭
+                this.connected = false;
+                this.outbound.clear();
+                this.writerThread.interrupt();
+                try {
+                    // 再次尝试关闭socket（双重保障）
+                    if (!this.socket.isClosed()) {
+                        this.socket.close();
+                    }
+                } catch (IOException e) {
+                    // 最终关闭连接时出错
+                    ChatServerCore.this.log.warn("close_error", this.userName, "最终关闭用户 " + this.userName + " 的连接时出错: " + e.getMessage());
+                }
+                // 触发断线事件
+                ChatServerCore.this.onDisconnect(this);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 以昵称为键的并发客户端注册表：查重和查找为 O(1)，
+ * 广播遍历为弱一致性视图，不会阻塞加入和离开
+ */
+final class ClientRegistry {
+    private final ConcurrentHashMap<String, ChatConnection> byName = new ConcurrentHashMap<>();
+
+    /**
+     * 原子地占用连接的昵称：昵称未被占用时先执行 beforeVisible，再让该连接对广播可见
+     * @param client        已读取昵称的连接
+     * @param beforeVisible 占用成功、连接可见前执行的操作（如发送OK应答），必须简短且不访问本注册表
+     * @return 是否占用成功，昵称已被占用时返回 false
+     */
+    boolean claim(ChatConnection client, Runnable beforeVisible) {
+        // computeIfAbsent 计算期间的预留节点对 get 和遍历不可见
+        ChatConnection owner = this.byName.computeIfAbsent(client.getUserName(), name -> {
+            beforeVisible.run();
+            return client;
+        });
+        return owner == client;
+    }
+
+    /**
+     * @param name 昵称
+     * @return 对应的连接，不存在时返回 null
+     */
+    ChatConnection get(String name) {
+        return name == null ? null : this.byName.get(name);
+    }
+
+    /**
+     * 移除连接，只有昵称仍属于该连接时才移除
+     * @param client 要移除的连接
+     * @return 是否由本次调用移除
+     */
+    boolean remove(ChatConnection client) {
+        String name = client.getUserName();
+        return name != null && this.byName.remove(name, client);
+    }
+
+    /**
+     * @return 所有连接的弱一致性视图，遍历期间不加锁
+     */
+    Collection<ChatConnection> connections() {
+        return this.byName.values();
+    }
+
+    int size() {
+        return this.byName.size();
+    }
+
+    void clear() {
+        this.byName.clear();
+    }
+}
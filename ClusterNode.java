@@ -0,0 +1,580 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 集群节点：多个服务器进程组成一个逻辑聊天室。本节点分发线程取出的本地消息经服务器间链路转发给其他节点，
+ * 收到的转发消息只投递给本地的聊客，不再转发，因此各节点须两两互相配置为对方的 --cluster-peers。
+ * <p>每个节点维护全集群的昵称目录（昵称 → 所在节点）：登录时先在目录中占用昵称，成功后通知其他节点；
+ * 两个节点几乎同时接受同一昵称时，节点名较小的一方保留，另一方断开其本地聊客。
+ * 踢人和私聊按目录转给聊客所在的节点执行；与某节点的链路断开时，目录中该节点的聊客随即移除
+ * <p>每对节点之间有两条 TCP 链路：本节点主动连接对方的链路只用于发送，对方连入的链路只用于接收。
+ * 链路帧格式：int 长度（不含长度字段）+ byte 操作码 + 以 \0 分隔的 UTF-8 字段
+ */
+final class ClusterNode {
+    private static final byte OP_HELLO = 1;  // 节点名，连入方先发，接受方回复自己的节点名
+    private static final byte OP_POST = 2;   // 房间名（空表示所有房间）、消息
+    private static final byte OP_JOIN = 3;   // 昵称
+    private static final byte OP_LEAVE = 4;  // 昵称
+    private static final byte OP_KICK = 5;   // 昵称、房间名（空表示踢出聊天室）
+    private static final byte OP_DIRECT = 6; // 发送方、接收方、内容
+    private static final byte OP_TELL = 7;   // 接收方、通知内容
+    private static final byte OP_PING = 8;   // 心跳，无字段；发送链路空闲时定时发送，以便及时发现对方已断开
+    private static final int MAX_FRAME_BYTES = 1 << 20;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int RETRY_MILLIS = 1000;
+    private static final int PING_MILLIS = 1000;
+    private static final int PEER_QUEUE_CAPACITY = 65536;
+
+    private final ChatServerCore server;
+    private final String nodeName;
+    private final int port;
+    private final List<Peer> peers = new ArrayList<>();
+    private final ConcurrentHashMap<String, String> directory = new ConcurrentHashMap<>(); // 昵称 → 所在节点名
+    private final ConcurrentHashMap<String, Socket> inbound = new ConcurrentHashMap<>(); // 节点名 → 当前的接收链路
+    private final ThreadFactory threadFactory = ServerThreads.factory(ServerMode.CLASSIC, "cluster-");
+    private final LongAdder relayedOut = new LongAdder();
+    private final LongAdder relayedIn = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * @param server 本节点的服务器核心
+     * @param config 服务器配置，读取集群端口、节点名和其他节点的地址
+     */
+    ClusterNode(ChatServerCore server, ServerConfig config) {
+        this.server = server;
+        this.nodeName = config.getClusterNode();
+        this.port = config.getClusterPort();
+        for (InetSocketAddress address : parsePeers(config.getClusterPeers())) {
+            this.peers.add(new Peer(address));
+        }
+    }
+
+    /**
+     * 解析逗号分隔的 host:port 列表
+     * @param peers 其他节点的集群地址，可为空串
+     * @return 未解析主机名的地址列表
+     * @throws IllegalArgumentException 地址格式非法
+     */
+    static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            try {
+                addresses.add(InetSocketAddress.createUnresolved(peer.substring(0, colon),
+                        Integer.parseInt(peer.substring(colon + 1))));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("集群节点地址非法（应为 主机:端口）：" + peer);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * 监听集群端口并开始连接其他节点，连接失败的节点在后台定时重试
+     * @throws IOException 集群端口绑定失败
+     */
+    void start() throws IOException {
+        this.serverSocket = new ServerSocket(this.port);
+        this.running = true;
+        this.threadFactory.newThread(this::acceptLoop).start();
+        for (Peer peer : this.peers) {
+            peer.thread = this.threadFactory.newThread(peer);
+            peer.thread.start();
+        }
+    }
+
+    /**
+     * 关闭所有链路，其他节点随即把本节点的聊客从目录中移除
+     */
+    void stop() {
+        this.running = false;
+        if (this.serverSocket != null) {
+            try {
+                this.serverSocket.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+        }
+        for (Socket socket : this.inbound.values()) {
+            closeQuietly(socket);
+        }
+        for (Peer peer : this.peers) {
+            peer.close();
+        }
+        this.directory.clear();
+    }
+
+    String getNodeName() {
+        return this.nodeName;
+    }
+
+    /**
+     * 在目录中为本节点占用昵称，尚未通知其他节点
+     * @param name 昵称
+     * @return 是否占用成功，昵称已在本节点或其他节点使用时返回 false
+     */
+    boolean reserve(String name) {
+        return this.directory.putIfAbsent(name, this.nodeName) == null;
+    }
+
+    /**
+     * 撤销尚未通知其他节点的占用
+     * @param name 昵称
+     */
+    void release(String name) {
+        this.directory.remove(name, this.nodeName);
+    }
+
+    /**
+     * @param name 昵称
+     * @return 目录中该昵称是否属于本节点
+     */
+    boolean owns(String name) {
+        return this.nodeName.equals(this.directory.get(name));
+    }
+
+    /**
+     * @param name 昵称
+     * @return 聊客所在的节点名，不在线时返回 null
+     */
+    String nodeOf(String name) {
+        return this.directory.get(name);
+    }
+
+    /**
+     * 本地聊客登录成功，通知其他节点
+     * @param name 昵称
+     */
+    void onLocalJoin(String name) {
+        sendAll(encode(OP_JOIN, name));
+    }
+
+    /**
+     * 本地聊客离开，昵称仍属于本节点时释放并通知其他节点
+     * @param name 昵称
+     */
+    void onLocalLeave(String name) {
+        if (this.directory.remove(name, this.nodeName)) {
+            sendAll(encode(OP_LEAVE, name));
+        }
+    }
+
+    /**
+     * 把本地发起的一条消息转发给所有已连接的节点
+     * @param room    目标房间，为 null 时发给所有房间
+     * @param message 消息内容（不含时间前缀，由各节点广播时添加）
+     */
+    void relay(ChatRoom room, String message) {
+        if (sendAll(encode(OP_POST, room == null ? "" : room.getName(), message))) {
+            this.relayedOut.increment();
+        }
+    }
+
+    /**
+     * 请聊客所在的节点踢出该聊客
+     * @param name     昵称
+     * @param roomName 房间名，为 null 时踢出聊天室
+     * @return 是否已转给其他节点；聊客不在线或在本节点时返回 false
+     */
+    boolean kick(String name, String roomName) {
+        return sendTo(this.directory.get(name), encode(OP_KICK, name, roomName == null ? "" : roomName));
+    }
+
+    /**
+     * 把私聊转给接收方所在的节点，由其投递并回复送达确认
+     * @return 是否已转给其他节点；接收方不在线或在本节点时返回 false
+     */
+    boolean direct(String from, String to, String text) {
+        return sendTo(this.directory.get(to), encode(OP_DIRECT, from, to, text));
+    }
+
+    /**
+     * 给某节点上的聊客发送一条通知
+     * @param node 节点名
+     * @param to   接收方昵称
+     * @param text 通知内容
+     */
+    void tell(String node, String to, String text) {
+        sendTo(node, encode(OP_TELL, to, text));
+    }
+
+    /**
+     * @return 已建立发送链路的节点数
+     */
+    int getConnectedPeers() {
+        int connected = 0;
+        for (Peer peer : this.peers) {
+            if (peer.connected) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * @return 全集群的在线聊客数
+     */
+    int getClusterClients() {
+        return this.directory.size();
+    }
+
+    long getRelayedOut() {
+        return this.relayedOut.sum();
+    }
+
+    long getRelayedIn() {
+        return this.relayedIn.sum();
+    }
+
+    /**
+     * @return 发送链路队列已满而丢弃的帧数
+     */
+    long getDropped() {
+        return this.dropped.sum();
+    }
+
+    private boolean sendAll(byte[] frame) {
+        boolean sent = false;
+        for (Peer peer : this.peers) {
+            sent |= peer.send(frame);
+        }
+        return sent;
+    }
+
+    private boolean sendTo(String node, byte[] frame) {
+        if (node == null || node.equals(this.nodeName)) {
+            return false;
+        }
+        for (Peer peer : this.peers) {
+            if (node.equals(peer.name)) {
+                return peer.send(frame);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 接受其他节点连入的接收链路
+     */
+    private void acceptLoop() {
+        while (this.running) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                this.threadFactory.newThread(() -> receive(socket)).start();
+            } catch (IOException e) {
+                if (this.running) {
+                    this.server.appendLog("cluster_error", null, "接受集群链路时出错: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 接收链路的读取循环：交换节点名后逐帧处理，链路断开时移除该节点的聊客
+     */
+    private void receive(Socket socket) {
+        String peer = null;
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            String[] hello = readFrame(in);
+            if (hello[0].charAt(0) != OP_HELLO || hello.length < 2 || hello[1].equals(this.nodeName)) {
+                this.server.appendLog("cluster_error", null, "集群链路握手失败，节点名缺失或与本节点重名");
+                return;
+            }
+            out.write(encode(OP_HELLO, this.nodeName));
+            out.flush();
+            peer = hello[1];
+            Socket previous = this.inbound.put(peer, socket);
+            if (previous != null) {
+                closeQuietly(previous); // 对方已重连，旧链路作废
+            }
+            this.server.log().info("cluster_link", null, "集群节点 " + peer + " 已连入");
+            while (this.running) {
+                onFrame(peer, readFrame(in));
+            }
+        } catch (EOFException e) {
+            // 对方关闭了链路
+        } catch (IOException e) {
+            if (this.running && peer != null) {
+                this.server.log().warn("cluster_link", null, "集群节点 " + peer + " 的链路断开: " + e.getMessage());
+            }
+        } finally {
+            closeQuietly(socket);
+            if (peer != null && this.inbound.remove(peer, socket)) {
+                purge(peer);
+            }
+        }
+    }
+
+    /**
+     * 处理其他节点发来的一帧
+     * @param peer   发送方节点名
+     * @param fields 操作码和各字段
+     * @throws IOException 字段数少于操作码所需，按链路错误处理
+     */
+    private void onFrame(String peer, String[] fields) throws IOException {
+        char op = fields[0].charAt(0);
+        if (fields.length - 1 < fieldCount(op)) {
+            throw new IOException("集群帧字段不足：操作码 " + (int) op + " 只有 " + (fields.length - 1) + " 个字段");
+        }
+        switch (op) {
+            case OP_POST:
+                this.relayedIn.increment();
+                this.server.onClusterPost(fields[1], fields[2]);
+                break;
+            case OP_JOIN:
+                onRemoteJoin(peer, fields[1]);
+                break;
+            case OP_LEAVE:
+                if (this.directory.remove(fields[1], peer)) {
+                    this.server.onClusterUserLeft(fields[1]);
+                }
+                break;
+            case OP_KICK:
+                if (this.server.findClient(fields[1]) != null) {
+                    this.server.kickUser(fields[1], fields[2].isEmpty() ? null : fields[2]);
+                }
+                break;
+            case OP_DIRECT:
+                this.server.onClusterDirect(peer, fields[1], fields[2], fields[3]);
+                break;
+            case OP_TELL:
+                ChatConnection client = this.server.findClient(fields[1]);
+                if (client != null) {
+                    client.sendMessage(fields[2]);
+                }
+                break;
+            default:
+                // 心跳及无法识别的操作码（便于以后扩展）不需处理
+        }
+    }
+
+    /**
+     * @param op 操作码
+     * @return 该操作码的帧至少应有的字段数
+     */
+    private static int fieldCount(char op) {
+        switch (op) {
+            case OP_JOIN:
+            case OP_LEAVE:
+                return 1;
+            case OP_POST:
+            case OP_KICK:
+            case OP_TELL:
+                return 2;
+            case OP_DIRECT:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 其他节点的聊客登录：昵称冲突时节点名较小的一方保留，本节点落败时断开本地的同名聊客
+     */
+    private void onRemoteJoin(String peer, String name) {
+        String[] previous = new String[1];
+        String owner = this.directory.compute(name, (n, current) -> {
+            previous[0] = current;
+            return current == null || peer.compareTo(current) < 0 ? peer : current;
+        });
+        if (!owner.equals(peer) || peer.equals(previous[0])) {
+            return;
+        }
+        if (this.nodeName.equals(previous[0])) {
+            this.server.onNameConflict(name);
+        }
+        if (previous[0] == null || this.nodeName.equals(previous[0])) {
+            this.server.onClusterUserJoined(name);
+        }
+    }
+
+    /**
+     * 与某节点的链路断开：从目录中移除该节点的所有聊客
+     */
+    private void purge(String peer) {
+        int removed = 0;
+        for (Map.Entry<String, String> entry : this.directory.entrySet()) {
+            if (peer.equals(entry.getValue()) && this.directory.remove(entry.getKey(), peer)) {
+                this.server.onClusterUserLeft(entry.getKey());
+                removed++;
+            }
+        }
+        this.server.log().warn("cluster_link", null, "集群节点 " + peer + " 已断开，移除其 " + removed + " 位聊客");
+    }
+
+    private static byte[] encode(byte op, String... fields) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(op);
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                payload.write(0);
+            }
+            payload.writeBytes(fields[i].getBytes(StandardCharsets.UTF_8));
+        }
+        int length = payload.size();
+        byte[] frame = new byte[4 + length];
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        System.arraycopy(payload.toByteArray(), 0, frame, 4, length);
+        return frame;
+    }
+
+    /**
+     * 读取一帧
+     * @return 第 0 个元素为操作码（作为单个字符），其后为各字段
+     * @throws IOException 链路断开或帧长度非法
+     */
+    private static String[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_FRAME_BYTES) {
+            throw new IOException("集群帧长度非法：" + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        String[] fields = new String(frame, 1, length - 1, StandardCharsets.UTF_8).split("\0", -1);
+        String[] result = new String[fields.length + 1];
+        result[0] = String.valueOf((char) frame[0]);
+        System.arraycopy(fields, 0, result, 1, fields.length);
+        return result;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+
+    /**
+     * 到另一个节点的发送链路：断开时定时重连，连上后先发送本节点所有聊客的昵称，再按序发送队列中的帧。
+     * 未连接期间不排队，重连后的昵称快照代替其间错过的进出通知
+     */
+    private final class Peer implements Runnable {
+        private final InetSocketAddress address;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(PEER_QUEUE_CAPACITY);
+        private volatile String name; // 对方的节点名，首次连上后得知
+        private volatile boolean connected;
+        private volatile Socket socket;
+        private Thread thread;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * @return 是否已入队；未连接时返回 false，队列已满时丢弃并计数
+         */
+        boolean send(byte[] frame) {
+            if (!this.connected) {
+                return false;
+            }
+            if (!this.queue.offer(frame)) {
+                ClusterNode.this.dropped.increment();
+            }
+            return true;
+        }
+
+        void close() {
+            this.connected = false;
+            Socket current = this.socket;
+            if (current != null) {
+                closeQuietly(current);
+            }
+            if (this.thread != null) {
+                this.thread.interrupt();
+            }
+        }
+
+        public void run() {
+            String target = this.address.getHostString() + ":" + this.address.getPort();
+            while (ClusterNode.this.running) {
+                try (Socket current = new Socket()) {
+                    this.socket = current;
+                    current.connect(new InetSocketAddress(this.address.getHostString(), this.address.getPort()),
+                            CONNECT_TIMEOUT_MILLIS);
+                    current.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(current.getOutputStream()));
+                    out.write(encode(OP_HELLO, ClusterNode.this.nodeName));
+                    out.flush();
+                    String[] hello = readFrame(new DataInputStream(current.getInputStream()));
+                    if (hello[0].charAt(0) != OP_HELLO || hello.length < 2) {
+                        throw new IOException("握手应答非法");
+                    }
+                    this.name = hello[1];
+                    ClusterNode.this.server.log().info("cluster_link", null, "已连接集群节点 " + this.name + "（" + target + "）");
+                    pump(out);
+                } catch (IOException e) {
+                    boolean wasConnected = this.connected;
+                    this.connected = false;
+                    if (wasConnected && ClusterNode.this.running) {
+                        ClusterNode.this.server.log().warn("cluster_link", null,
+                                "到集群节点 " + this.name + " 的链路断开: " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            this.connected = false;
+        }
+
+        /**
+         * 发送本节点的昵称快照，然后持续发送队列中的帧，队列写空时刷出，空闲时发送心跳
+         */
+        private void pump(DataOutputStream out) throws IOException, InterruptedException {
+            this.queue.clear();
+            this.connected = true;
+            for (Map.Entry<String, String> entry : ClusterNode.this.directory.entrySet()) {
+                if (ClusterNode.this.nodeName.equals(entry.getValue())) {
+                    out.write(encode(OP_JOIN, entry.getKey()));
+                }
+            }
+            out.flush();
+            byte[] ping = encode(OP_PING);
+            while (ClusterNode.this.running) {
+                byte[] frame = this.queue.poll(PING_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    frame = ping;
+                }
+                do {
+                    out.write(frame);
+                } while ((frame = this.queue.poll()) != null);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并写出的输出流：写入的数据先进入缓冲区，flush() 时不立即写出，
+ * 而是等待一个窗口，窗口内的多次写入合并为一次系统调用；缓冲区写满时立即写出。
+ * 窗口为 0 时与普通的缓冲输出流相同。供客户端的 PrintWriter 使用
+ */
+final class CoalescingOutputStream extends OutputStream {
+    /** 所有实例共用的延迟写出线程 */
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "coalescing-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final OutputStream out;
+    private final long windowNanos;
+    private final byte[] buffer;
+    private int count;
+    private ScheduledFuture<?> pendingFlush; // 已安排的延迟写出，null 表示未安排
+    private IOException failure;            // 延迟写出时发生的异常，下次调用时抛出
+
+    /**
+     * @param out          底层输出流
+     * @param windowMicros 合并写出的等待窗口，微秒
+     * @param bufferSize   缓冲区大小，字节
+     */
+    CoalescingOutputStream(OutputStream out, long windowMicros, int bufferSize) {
+        this.out = out;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        checkFailure();
+        if (this.count == this.buffer.length) {
+            flushBuffer();
+        }
+        this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        checkFailure();
+        if (len > this.buffer.length - this.count) {
+            flushBuffer();
+        }
+        if (len >= this.buffer.length) {
+            // 比缓冲区还大的数据直接写出
+            this.out.write(b, off, len);
+            return;
+        }
+        System.arraycopy(b, off, this.buffer, this.count, len);
+        this.count += len;
+    }
+
+    /**
+     * 请求写出：窗口为 0 时立即写出，否则最迟在窗口到期时写出
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        checkFailure();
+        if (this.windowNanos == 0) {
+            flushNow();
+        } else if (this.count > 0 && this.pendingFlush == null) {
+            this.pendingFlush = TIMER.schedule(this::deferredFlush, this.windowNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 立即写出缓冲区中的全部数据
+     * @throws IOException 写出失败
+     */
+    synchronized void flushNow() throws IOException {
+        if (this.pendingFlush != null) {
+            this.pendingFlush.cancel(false);
+            this.pendingFlush = null;
+        }
+        flushBuffer();
+        this.out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flushNow();
+        } finally {
+            this.out.close();
+        }
+    }
+
+    private synchronized void deferredFlush() {
+        this.pendingFlush = null;
+        try {
+            flushBuffer();
+            this.out.flush();
+        } catch (IOException e) {
+            this.failure = e;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.out.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+}
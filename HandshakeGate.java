@@ -0,0 +1,92 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 登录握手阶段的并发上限与统计：接收线程只负责 accept 并申请名额，
+ * 握手在独立的线程或事件循环中完成后归还名额并记录耗时
+ */
+final class HandshakeGate {
+    private final Semaphore slots;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param maxConcurrent 同时进行的握手数上限
+     */
+    HandshakeGate(int maxConcurrent) {
+        this.slots = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * 新连接被接受时调用，申请一个握手名额
+     * @return 是否获得名额，未获得时调用方应直接关闭连接
+     */
+    boolean tryEnter() {
+        this.accepted.increment();
+        if (this.slots.tryAcquire()) {
+            return true;
+        }
+        this.rejected.increment();
+        return false;
+    }
+
+    /**
+     * 握手结束（成功、失败或超时）时调用，每个名额只能归还一次
+     * @param acceptedAtNanos 连接被接受时的 System.nanoTime()
+     */
+    void exit(long acceptedAtNanos) {
+        this.latency.record(System.nanoTime() - acceptedAtNanos);
+        this.slots.release();
+    }
+
+    /**
+     * 握手超时时调用
+     */
+    void onTimeout() {
+        this.timedOut.increment();
+    }
+
+    /**
+     * 登录行已读到但昵称无效或已被占用时调用
+     */
+    void onInvalid() {
+        this.invalid.increment();
+    }
+
+    /**
+     * @return 超出握手上限被拒绝的连接数
+     */
+    long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * @return 握手超时的连接数
+     */
+    long getTimedOut() {
+        return this.timedOut.sum();
+    }
+
+    /**
+     * @return 昵称无效或已被占用的登录数
+     */
+    long getInvalid() {
+        return this.invalid.sum();
+    }
+
+    /**
+     * @return 接收速率与握手耗时分布的简要描述
+     */
+    String summary() {
+        double seconds = Math.max(1e-3, (System.nanoTime() - this.startNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+        long total = this.accepted.sum();
+        return String.format("接收连接 %d 个（%.1f 个/秒），超出握手上限拒绝 %d 个，握手超时 %d 个，昵称无效 %d 个；握手耗时：%s",
+                total, total / seconds, this.rejected.sum(), this.timedOut.sum(), this.invalid.sum(),
+                this.latency.summary());
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分桶的延迟直方图：以微秒计，每个 2 的幂区间再等分为 8 个子桶（相对误差约 12.5%），
+ * 小于 8 微秒的样本每微秒一个桶。记录时只做一次无锁自增，不分配对象
+ */
+final class LatencyHistogram {
+    /** 每个 2 的幂区间的子桶数（2^SUB_BITS） */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** 覆盖到 2^40 微秒（约 12 天），更大的样本计入最后一个桶 */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * 记录一个样本
+     * @param nanos 延迟，单位纳秒
+     */
+    void record(long nanos) {
+        this.counts.incrementAndGet(bucketOf(Math.max(0, nanos / 1000)));
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros); // micros 位于 [2^exponent, 2^(exponent+1))
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return 第 bucket 个桶的上界（不含），单位微秒
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * @return 样本总数
+     */
+    long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += this.counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * 估算分位数，返回所在桶的上界
+     * @param quantile 分位，取值 0~1
+     * @return 分位数上界，单位微秒；没有样本时返回 0
+     */
+    long percentileMicros(double quantile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return p50/p90/p99/p999 的简要描述
+     */
+    String summary() {
+        return "样本 " + count()
+                + "，p50≤" + percentileMicros(0.50) + "us"
+                + "，p90≤" + percentileMicros(0.90) + "us"
+                + "，p99≤" + percentileMicros(0.99) + "us"
+                + "，p999≤" + percentileMicros(0.999) + "us";
+    }
+}
@@ -0,0 +1,518 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无界面的压力测试工具：按与 {@link ChatClient} 相同的登录握手和协议模拟大量聊客，
+ * 按设定的速率加入和发言，每条消息带发送时刻，统计广播的端到端延迟分位数、吞吐量和加入失败数。
+ * <pre>
+ * --host=localhost        服务器地址
+ * --port=12345            服务器端口，逗号分隔多个端口时聊客轮流连接各个集群节点
+ * --clients=1000          模拟的聊客数
+ * --join-rate=200         每秒加入的聊客数
+ * --message-rate=100      所有聊客合计每秒发送的消息数
+ * --message-size=64       每条消息的字节数
+ * --duration=30           全部加入后继续发送的秒数
+ * --protocol=binary|text  使用二进制帧或文本协议
+ * --loops=2               接收消息的事件循环线程数
+ * --rooms=1               聊客平均分到的房间数，1 表示都在大厅
+ * </pre>
+ * 延迟只统计本次运行发出、且在接收方加入之后发出的消息，加入时补发的历史消息不计入
+ */
+final class LoadGenerator {
+    private static final String MARKER = "LG ";
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int LOGIN_TIMEOUT_MILLIS = 10000;
+    /** 文本协议下接收缓冲区的大小，一行超过它时断开 */
+    private static final int LINE_BUFFER_BYTES = 64 * 1024;
+
+    // 配置
+    private String host = "localhost";
+    private int[] ports = {12345};
+    private int clients = 1000;
+    private int joinRate = 200;
+    private int messageRate = 100;
+    private int messageSize = 64;
+    private int durationSeconds = 30;
+    private boolean binary = true;
+    private int loopCount = 2;
+    private int rooms = 1;
+
+    private final String runId = Long.toString(System.currentTimeMillis() % 1_000_000, 36);
+    private AtomicReferenceArray<Chatter> joined; // 按加入序号的槽位，断开后置空；按聊客数预先分配，加入和断开都是 O(1)
+    private volatile int joinedSlots; // 已用到的槽位数
+    private final AtomicInteger online = new AtomicInteger();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private ReaderLoop[] loops;
+    private volatile boolean running = true;
+
+    // 统计
+    private final LongAdder joinRefused = new LongAdder();
+    private final LongAdder joinRejected = new LongAdder();
+    private final LongAdder joinTimedOut = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sendFailed = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LatencyHistogram joinLatency = new LatencyHistogram();
+
+    /**
+     * 主程序入口
+     * @param args 命令行参数，见类说明
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("无法识别的参数：" + arg);
+                System.exit(1);
+            }
+            String key = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "host":
+                    generator.host = value;
+                    break;
+                case "port":
+                    String[] list = value.split(",");
+                    generator.ports = new int[list.length];
+                    for (int i = 0; i < list.length; i++) {
+                        generator.ports[i] = Integer.parseInt(list[i].trim());
+                    }
+                    break;
+                case "clients":
+                    generator.clients = Integer.parseInt(value);
+                    break;
+                case "join-rate":
+                    generator.joinRate = Integer.parseInt(value);
+                    break;
+                case "message-rate":
+                    generator.messageRate = Integer.parseInt(value);
+                    break;
+                case "message-size":
+                    generator.messageSize = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    generator.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "protocol":
+                    generator.binary = !value.equalsIgnoreCase("text");
+                    break;
+                case "loops":
+                    generator.loopCount = Integer.parseInt(value);
+                    break;
+                case "rooms":
+                    generator.rooms = Integer.parseInt(value);
+                    break;
+                default:
+                    System.err.println("无法识别的参数：" + arg);
+                    System.exit(1);
+            }
+        }
+        System.exit(generator.run() ? 0 : 2);
+    }
+
+    /**
+     * 执行一次压测并输出报告
+     * @return 是否所有聊客都加入成功且没有发送失败
+     */
+    boolean run() throws IOException, InterruptedException {
+        this.joined = new AtomicReferenceArray<>(this.clients);
+        this.loops = new ReaderLoop[this.loopCount];
+        for (int i = 0; i < this.loopCount; i++) {
+            this.loops[i] = new ReaderLoop(i);
+            this.loops[i].thread.start();
+        }
+        System.out.printf("压测开始：%s:%s，聊客 %d，房间 %d，每秒加入 %d，每秒消息 %d，消息 %d 字节，%s%n",
+                this.host, Arrays.toString(this.ports), this.clients, this.rooms, this.joinRate, this.messageRate, this.messageSize,
+                this.binary ? "二进制帧" : "文本协议");
+
+        Thread joiner = new Thread(this::joinAll, "load-join");
+        Thread sender = new Thread(this::sendLoop, "load-send");
+        long start = System.nanoTime();
+        joiner.start();
+        sender.start();
+
+        // 每秒输出一次进度；全部加入后再持续 duration 秒
+        long joinedAt = 0;
+        long lastSent = 0;
+        long lastDelivered = 0;
+        while (true) {
+            Thread.sleep(1000);
+            long elapsed = System.nanoTime() - start;
+            long sentNow = this.sent.sum();
+            long deliveredNow = this.delivered.sum();
+            System.out.printf("[%3ds] 在线 %d，加入失败 %d，发送 %d/s，送达 %d/s，p99≤%dus%n",
+                    TimeUnit.NANOSECONDS.toSeconds(elapsed), this.online.get(), joinFailures(),
+                    sentNow - lastSent, deliveredNow - lastDelivered, this.latency.percentileMicros(0.99));
+            lastSent = sentNow;
+            lastDelivered = deliveredNow;
+            if (joinedAt == 0 && !joiner.isAlive()) {
+                joinedAt = System.nanoTime();
+            }
+            if (joinedAt != 0 && System.nanoTime() - joinedAt >= TimeUnit.SECONDS.toNanos(this.durationSeconds)) {
+                break;
+            }
+        }
+
+        // 停止发送，留出时间接收仍在途中的消息
+        this.running = false;
+        sender.join();
+        long sendSeconds = System.nanoTime() - start;
+        Thread.sleep(2000);
+        for (ReaderLoop loop : this.loops) {
+            loop.close();
+        }
+        report(sendSeconds);
+        return joinFailures() == 0 && this.sendFailed.sum() == 0;
+    }
+
+    private long joinFailures() {
+        return this.joinRefused.sum() + this.joinRejected.sum() + this.joinTimedOut.sum();
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long sentTotal = this.sent.sum();
+        long deliveredTotal = this.delivered.sum();
+        System.out.println("==== 压测报告 ====");
+        System.out.printf("加入：成功 %d，连接失败 %d，被拒绝 %d，超时 %d；登录耗时 p50≤%dus p99≤%dus%n",
+                this.online.get(), this.joinRefused.sum(), this.joinRejected.sum(), this.joinTimedOut.sum(),
+                this.joinLatency.percentileMicros(0.50), this.joinLatency.percentileMicros(0.99));
+        System.out.printf("发送：%d 条（%.1f 条/秒），失败 %d；运行中断开 %d%n",
+                sentTotal, sentTotal / seconds, this.sendFailed.sum(), this.disconnected.sum());
+        System.out.printf("送达：%d 次（%.1f 次/秒）%n", deliveredTotal, deliveredTotal / seconds);
+        System.out.printf("广播延迟：p50≤%dus p90≤%dus p99≤%dus p999≤%dus max=%dus%n",
+                this.latency.percentileMicros(0.50), this.latency.percentileMicros(0.90),
+                this.latency.percentileMicros(0.99), this.latency.percentileMicros(0.999),
+                TimeUnit.NANOSECONDS.toMicros(this.maxLatencyNanos.get()));
+    }
+
+    /**
+     * 加入线程：按加入速率依次建立连接并完成登录握手，成功后交给事件循环接收
+     */
+    private void joinAll() {
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, this.joinRate);
+        long next = System.nanoTime();
+        for (int i = 0; i < this.clients && this.running; i++) {
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                sleepNanos(wait);
+            }
+            Chatter chatter = login("lg" + this.runId + "_" + i, this.ports[i % this.ports.length], i);
+            if (chatter != null && this.rooms > 1
+                    && !chatter.send(ChatProtocol.CMD_JOIN + " lg" + this.runId + "_room" + i % this.rooms)) {
+                this.sendFailed.increment();
+            }
+            if (chatter != null) {
+                this.joined.set(i, chatter);
+                this.online.incrementAndGet();
+                this.joinedSlots = i + 1;
+                this.loops[i % this.loops.length].add(chatter);
+            }
+        }
+    }
+
+    /**
+     * 阻塞地连接并登录，然后切换为非阻塞
+     * @param slot 加入序号
+     * @return 登录成功的聊客；失败时返回 null 并计数
+     */
+    private Chatter login(String name, int port, int slot) {
+        long start = System.nanoTime();
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.socket().connect(new InetSocketAddress(this.host, port), CONNECT_TIMEOUT_MILLIS);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setSoTimeout(LOGIN_TIMEOUT_MILLIS);
+            String login = this.binary ? name + ChatProtocol.VERSION_SEPARATOR + ChatProtocol.BINARY_VERSION : name;
+            channel.write(ByteBuffer.wrap(ChatProtocol.encodeLine(login)));
+
+            // 逐字节读取应答行，不多读应答之后的数据
+            InputStream in = channel.socket().getInputStream();
+            StringBuilder reply = new StringBuilder();
+            int b;
+            while ((b = in.read()) >= 0 && b != '\n') {
+                reply.append((char) b);
+            }
+            String response = reply.toString().trim();
+            if (!response.startsWith(ChatProtocol.OK)) {
+                this.joinRejected.increment();
+                channel.close();
+                return null;
+            }
+            this.joinLatency.record(System.nanoTime() - start);
+            channel.configureBlocking(false);
+            return new Chatter(channel, !response.equals(ChatProtocol.OK), slot);
+        } catch (SocketTimeoutException e) {
+            this.joinTimedOut.increment();
+        } catch (IOException e) {
+            this.joinRefused.increment();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 发送线程：按消息速率轮流让在线的聊客发言，消息内容为标记、运行编号、发送时刻和填充
+     */
+    private void sendLoop() {
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, this.messageRate);
+        long next = System.nanoTime();
+        int turn = 0;
+        while (this.running) {
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                sleepNanos(wait);
+            }
+            int slots = this.joinedSlots;
+            Chatter chatter = null;
+            for (int i = 0; i < slots && chatter == null && this.online.get() > 0; i++) {
+                chatter = this.joined.get(Math.floorMod(turn++, slots)); // 跳过加入失败和已断开的槽位
+            }
+            if (chatter == null) {
+                continue;
+            }
+            if (chatter.send(message(System.nanoTime()))) {
+                this.sent.increment();
+            } else {
+                this.sendFailed.increment();
+            }
+        }
+    }
+
+    private String message(long sentAt) {
+        StringBuilder text = new StringBuilder(this.messageSize);
+        text.append(MARKER).append(this.runId).append(' ').append(sentAt).append(' ');
+        while (text.length() < this.messageSize) {
+            text.append('x');
+        }
+        return text.toString();
+    }
+
+    /**
+     * 收到一条聊天消息：属于本次运行且在接收方加入后发出的，记录端到端延迟
+     */
+    private void onMessage(Chatter chatter, String message, long receivedAt) {
+        int marker = message.indexOf(MARKER);
+        if (marker < 0) {
+            return;
+        }
+        int idStart = marker + MARKER.length();
+        int idEnd = message.indexOf(' ', idStart);
+        int timeEnd = idEnd < 0 ? -1 : message.indexOf(' ', idEnd + 1);
+        if (timeEnd < 0 || !message.regionMatches(idStart, this.runId, 0, idEnd - idStart)) {
+            return;
+        }
+        long sentAt;
+        try {
+            sentAt = Long.parseLong(message, idEnd + 1, timeEnd, 10);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (sentAt < chatter.joinedAt) {
+            return; // 加入时补发的历史消息
+        }
+        long nanos = receivedAt - sentAt;
+        this.latency.record(nanos);
+        this.maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+        this.delivered.increment();
+    }
+
+    private static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 一个模拟的聊客连接
+     */
+    private final class Chatter {
+        final SocketChannel channel;
+        final boolean binary;
+        final long joinedAt = System.nanoTime();
+        final int slot;
+        final ByteBuffer readBuffer; // 二进制协议下能放下最大的合法帧及其长度字段
+        int sendSeq;
+
+        Chatter(SocketChannel channel, boolean binary, int slot) {
+            this.channel = channel;
+            this.binary = binary;
+            this.slot = slot;
+            this.readBuffer = ByteBuffer.allocate(binary ? Integer.BYTES + ChatProtocol.MAX_FRAME_BYTES : LINE_BUFFER_BYTES);
+        }
+
+        /**
+         * 由发送线程调用：非阻塞写出一条消息，发送缓冲区满时短暂等待
+         * @return 是否完整写出
+         */
+        boolean send(String message) {
+            byte[] bytes = this.binary
+                    ? ChatProtocol.encodeFrame(ChatProtocol.TYPE_CHAT, ++this.sendSeq, message)
+                    : ChatProtocol.encodeLine(message);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (this.channel.write(buffer) == 0) {
+                        if (System.nanoTime() > deadline) {
+                            return false;
+                        }
+                        Thread.onSpinWait();
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * 由事件循环调用：读取可读的数据，按协议拆出完整的消息
+         * @return 连接是否仍然有效
+         */
+        boolean read() throws IOException {
+            int n = this.channel.read(this.readBuffer);
+            if (n < 0) {
+                return false;
+            }
+            long now = System.nanoTime();
+            ByteBuffer buffer = this.readBuffer;
+            buffer.flip();
+            if (this.binary) {
+                while (buffer.remaining() >= Integer.BYTES) {
+                    int length = buffer.getInt(buffer.position());
+                    if (length < ChatProtocol.FRAME_HEADER_BYTES || length > ChatProtocol.MAX_FRAME_BYTES) {
+                        return false;
+                    }
+                    if (buffer.remaining() < Integer.BYTES + length) {
+                        break;
+                    }
+                    buffer.getInt();
+                    byte type = buffer.get();
+                    int seq = buffer.getInt();
+                    int payload = length - ChatProtocol.FRAME_HEADER_BYTES;
+                    if (type == ChatProtocol.TYPE_CHAT && seq != 0) {
+                        onMessage(this, new String(buffer.array(), buffer.position(), payload, StandardCharsets.UTF_8), now);
+                    }
+                    buffer.position(buffer.position() + payload);
+                }
+            } else {
+                int lineStart = buffer.position();
+                for (int i = buffer.position(); i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        onMessage(this, new String(buffer.array(), lineStart, i - lineStart, ChatProtocol.CHARSET), now);
+                        lineStart = i + 1;
+                    }
+                }
+                buffer.position(lineStart);
+                if (!buffer.hasRemaining() && lineStart == 0 && buffer.limit() == buffer.capacity()) {
+                    return false; // 一行超过缓冲区
+                }
+            }
+            buffer.compact();
+            return true;
+        }
+    }
+
+    /**
+     * 接收事件循环：一个 Selector 负责一组聊客的读取
+     */
+    private final class ReaderLoop implements Runnable {
+        final Thread thread;
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Chatter> pending = new ConcurrentLinkedQueue<>();
+
+        ReaderLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "load-read-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void add(Chatter chatter) {
+            this.pending.add(chatter);
+            this.selector.wakeup();
+        }
+
+        void close() {
+            this.thread.interrupt();
+            this.selector.wakeup();
+            List<SelectionKey> keys = new ArrayList<>();
+            try {
+                keys.addAll(this.selector.keys());
+            } catch (RuntimeException e) {
+                // 选择器已关闭
+            }
+            for (SelectionKey key : keys) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // 忽略关闭异常
+                }
+            }
+        }
+
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    this.selector.select();
+                    Chatter chatter;
+                    while ((chatter = this.pending.poll()) != null) {
+                        chatter.channel.register(this.selector, SelectionKey.OP_READ, chatter);
+                    }
+                    for (SelectionKey key : this.selector.selectedKeys()) {
+                        Chatter owner = (Chatter) key.attachment();
+                        boolean open;
+                        try {
+                            open = key.isReadable() && owner.read();
+                        } catch (IOException e) {
+                            open = false;
+                        }
+                        if (!open && key.isValid()) {
+                            key.cancel();
+                            owner.channel.close();
+                            if (LoadGenerator.this.joined.compareAndSet(owner.slot, owner, null)) {
+                                LoadGenerator.this.online.decrementAndGet();
+                            }
+                            if (LoadGenerator.this.running) {
+                                LoadGenerator.this.disconnected.increment();
+                            }
+                        }
+                    }
+                    this.selector.selectedKeys().clear();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
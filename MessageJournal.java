@@ -0,0 +1,473 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分段的只追加消息日志：广播过的消息由后台写线程批量写入磁盘，聊客加入时从中读取最近的若干条补发。
+ * <p>
+ * 每个分段文件创建时即预分配到固定大小，写满或重启后换新分段，只保留最近的若干个分段。
+ * 分段按位置读取而不映射到内存（刚写入的数据通常仍在页缓存中），关闭后即可删除：Windows 不能删除仍被映射的文件，
+ * 而关闭通道并不解除映射。每条记录为 {@code [int 长度][UTF-8 内容][int 长度]}，
+ * 长度为 0 处即数据末尾；尾部的长度字段用于从后向前读取最近的记录，也用于启动时识别写了一半的记录
+ */
+final class MessageJournal {
+    /** 刷盘策略 */
+    enum SyncPolicy {
+        /** 不主动刷盘，由操作系统决定 */
+        NEVER,
+        /** 每批写入后刷盘 */
+        BATCH,
+        /** 按固定间隔刷盘 */
+        INTERVAL
+    }
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final int RECORD_OVERHEAD = 2 * Integer.BYTES;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalMillis;
+    private final ServerLog log;
+
+    // 以下字段受 lock 保护
+    private final Object lock = new Object();
+    private final List<Segment> segments = new ArrayList<>(); // 由旧到新，最后一个为正在写的分段
+    private List<byte[]> pending = new ArrayList<>();          // 等待写入的消息（UTF-8）
+    private List<byte[]> inFlight = Collections.emptyList();    // 写线程正在写入的消息
+    private int inFlightWritten;                                // inFlight 中已写入分段、计入其数据末尾的条数
+    private long appended;                                      // 本次启动以来追加的消息数，即最新一条的序号
+    private boolean running;
+
+    private Thread writerThread;
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private boolean dirty;      // 有未刷盘的写入，只在写线程中访问
+    private long lastSyncNanos; // 只在写线程中访问
+
+    /**
+     * @param dir                分段文件所在目录
+     * @param segmentSize        每个分段的字节数
+     * @param maxSegments        最多保留的分段数
+     * @param syncPolicy         刷盘策略
+     * @param syncIntervalMillis 按间隔刷盘时的间隔，毫秒
+     * @param log                记录写入错误的日志
+     */
+    MessageJournal(Path dir, int segmentSize, int maxSegments, SyncPolicy syncPolicy, long syncIntervalMillis,
+                   ServerLog log) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.log = log;
+    }
+
+    /**
+     * 打开目录中已有的分段（找到各分段的数据末尾），再按当前配置的大小创建新分段写入，启动写线程。
+     * 已有分段只读取不再追加：它们可能是按旧的分段大小创建的，与当前配置不一致。
+     * 超出保留数量（连同新分段计算）的旧分段在打开任何分段之前删除
+     * @throws IOException 目录或分段文件无法打开
+     */
+    void open() throws IOException {
+        Files.createDirectories(this.dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // 文件名中的编号定长补零，按名称排序即按新旧排序
+        Collections.sort(files);
+        long next = files.isEmpty() ? 0 : index(files.get(files.size() - 1)) + 1;
+        int excess = Math.max(0, files.size() - (this.maxSegments - 1));
+        for (Path file : files.subList(0, excess)) {
+            Files.deleteIfExists(file);
+        }
+        try {
+            for (Path file : files.subList(excess, files.size())) {
+                this.segments.add(Segment.open(file, index(file)));
+            }
+            this.segments.add(Segment.create(this.dir, next, this.segmentSize));
+        } catch (IOException e) {
+            closeSegments();
+            throw e;
+        }
+
+        this.running = true;
+        this.lastSyncNanos = System.nanoTime();
+        this.writerThread = new Thread(this::writeLoop, "journal-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 追加一条消息，由写线程稍后批量写入，不等待磁盘
+     * @param message 消息内容
+     */
+    void append(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length + RECORD_OVERHEAD > this.segmentSize) {
+            return; // 单条消息比分段还大，不记录
+        }
+        synchronized (this.lock) {
+            if (!this.running) {
+                return;
+            }
+            this.pending.add(bytes);
+            this.appended++;
+            if (this.pending.size() == 1) {
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return 最新一条消息的序号（本次启动以来追加的消息数），用作补发历史的水位
+     */
+    long sequence() {
+        synchronized (this.lock) {
+            return this.appended;
+        }
+    }
+
+    /**
+     * 读取最近的若干条消息：已写入的部分从分段中读取，尚未写入的取自内存
+     * @param count 最多读取的条数
+     * @return 由旧到新的消息
+     */
+    List<String> recent(int count) {
+        return recent(count, Long.MAX_VALUE);
+    }
+
+    /**
+     * 读取序号不超过水位的最近若干条消息，水位之后追加的消息不读取
+     * @param count 最多读取的条数
+     * @param upTo  水位，即 {@link #sequence()} 的某次返回值
+     * @return 由旧到新的消息
+     */
+    List<String> recent(int count, long upTo) {
+        List<byte[]> unwritten = new ArrayList<>();
+        List<Segment> snapshot;
+        int[] ends;
+        long skip; // 由新到旧跳过的水位之后的消息数
+        synchronized (this.lock) {
+            skip = Math.max(0, this.appended - upTo);
+            // 已计入分段数据末尾的记录从分段中读取，不再从内存中重复读取
+            unwritten.addAll(this.inFlight.subList(this.inFlightWritten, this.inFlight.size()));
+            unwritten.addAll(this.pending);
+            snapshot = new ArrayList<>(this.segments);
+            ends = new int[snapshot.size()];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = snapshot.get(i).end;
+            }
+        }
+
+        // 由新到旧收集，最后反转
+        List<String> result = new ArrayList<>(count);
+        for (int i = unwritten.size() - 1; i >= 0 && result.size() < count; i--) {
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            result.add(new String(unwritten.get(i), StandardCharsets.UTF_8));
+        }
+        ByteBuffer lengthField = ByteBuffer.allocate(Integer.BYTES);
+        try {
+            for (int s = snapshot.size() - 1; s >= 0 && result.size() < count; s--) {
+                Segment segment = snapshot.get(s);
+                int end = ends[s];
+                while (end > 0 && result.size() < count) {
+                    lengthField.clear();
+                    segment.read(lengthField, end - Integer.BYTES);
+                    int length = lengthField.getInt(0);
+                    int start = end - RECORD_OVERHEAD - length;
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        byte[] bytes = new byte[length];
+                        segment.read(ByteBuffer.wrap(bytes), start + Integer.BYTES);
+                        result.add(new String(bytes, StandardCharsets.UTF_8));
+                    }
+                    end = start;
+                }
+            }
+        } catch (IOException e) {
+            // 读取期间较旧的分段已因换分段被关闭删除，只返回已读到的较新的消息
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * 写完剩余的消息，刷盘并关闭所有分段
+     */
+    void close() {
+        synchronized (this.lock) {
+            this.running = false;
+            this.lock.notifyAll();
+        }
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeSegments();
+    }
+
+    /**
+     * 写线程主循环：取出积攒的消息一次写入，按策略刷盘
+     */
+    private void writeLoop() {
+        while (true) {
+            List<byte[]> batch;
+            synchronized (this.lock) {
+                while (this.pending.isEmpty() && this.running) {
+                    try {
+                        if (this.dirty && this.syncPolicy == SyncPolicy.INTERVAL) {
+                            // 有未刷盘的数据时最多等到下一次刷盘时刻
+                            this.lock.wait(this.syncIntervalMillis);
+                            break;
+                        }
+                        this.lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (this.pending.isEmpty() && !this.running) {
+                    break;
+                }
+                batch = this.pending;
+                this.pending = new ArrayList<>();
+                this.inFlight = batch;
+                this.inFlightWritten = 0;
+            }
+
+            try {
+                write(batch);
+                sync(false);
+            } catch (IOException e) {
+                this.log.error("journal_error", null, "写入消息日志时出错: " + e.getMessage());
+            }
+            synchronized (this.lock) {
+                this.inFlight = Collections.emptyList();
+                this.inFlightWritten = 0;
+            }
+        }
+        try {
+            sync(true);
+        } catch (IOException e) {
+            this.log.error("journal_error", null, "消息日志刷盘时出错: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把一批消息编码为记录写入当前分段，写不下时换新分段
+     */
+    private void write(List<byte[]> batch) throws IOException {
+        Segment segment = currentSegment();
+        int position = segment.end;
+        int encoded = 0; // 已编码进缓冲区的条数
+        this.writeBuffer.clear();
+        for (byte[] bytes : batch) {
+            int size = bytes.length + RECORD_OVERHEAD;
+            if (position + this.writeBuffer.position() + size > this.segmentSize) {
+                // 当前分段写不下：先写出已编码的部分，再换新分段
+                position = flushBuffer(segment, position, encoded);
+                segment = roll(segment);
+                position = segment.end;
+            }
+            if (this.writeBuffer.remaining() < size) {
+                position = flushBuffer(segment, position, encoded);
+                if (this.writeBuffer.capacity() < size) {
+                    this.writeBuffer = ByteBuffer.allocateDirect(size);
+                }
+            }
+            this.writeBuffer.putInt(bytes.length).put(bytes).putInt(bytes.length);
+            encoded++;
+        }
+        flushBuffer(segment, position, encoded);
+    }
+
+    /**
+     * 写出编码缓冲区中的记录并推进分段的数据末尾。新的末尾与已写入的条数在同一临界区中发布，
+     * 读取最近消息时每条记录要么在分段中、要么在内存中，不会读到两次
+     * @param encoded 本批中到此为止已编码的条数
+     * @return 新的写入位置
+     */
+    private int flushBuffer(Segment segment, int position, int encoded) throws IOException {
+        this.writeBuffer.flip();
+        while (this.writeBuffer.hasRemaining()) {
+            position += segment.channel.write(this.writeBuffer, position);
+        }
+        this.writeBuffer.clear();
+        this.dirty = true;
+        synchronized (this.lock) {
+            segment.end = position;
+            this.inFlightWritten = encoded;
+        }
+        return position;
+    }
+
+    /**
+     * 当前分段写满：刷盘后创建新分段，删除超出保留数量的旧分段
+     */
+    private Segment roll(Segment full) throws IOException {
+        sync(true);
+        Segment next = Segment.create(this.dir, full.index + 1, this.segmentSize);
+        List<Segment> removed = new ArrayList<>();
+        synchronized (this.lock) {
+            this.segments.add(next);
+            while (this.segments.size() > this.maxSegments) {
+                removed.add(this.segments.remove(0));
+            }
+        }
+        for (Segment segment : removed) {
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        }
+        return next;
+    }
+
+    /**
+     * 按刷盘策略把当前分段刷到磁盘
+     * @param force 为 true 时只要有未刷盘的数据就刷盘（关闭或换分段时）
+     */
+    private void sync(boolean force) throws IOException {
+        if (!this.dirty) {
+            return;
+        }
+        boolean due;
+        switch (this.syncPolicy) {
+            case BATCH:
+                due = true;
+                break;
+            case INTERVAL:
+                due = force || System.nanoTime() - this.lastSyncNanos >= this.syncIntervalMillis * 1_000_000L;
+                break;
+            default:
+                due = false;
+                break;
+        }
+        if (due) {
+            currentSegment().channel.force(false);
+            this.lastSyncNanos = System.nanoTime();
+            this.dirty = false;
+        }
+    }
+
+    private Segment currentSegment() {
+        synchronized (this.lock) {
+            return this.segments.get(this.segments.size() - 1);
+        }
+    }
+
+    private void closeSegments() {
+        synchronized (this.lock) {
+            for (Segment segment : this.segments) {
+                segment.close();
+            }
+            this.segments.clear();
+        }
+    }
+
+    private static long index(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 单个分段文件：预分配到固定大小，按位置读写
+     */
+    private static final class Segment {
+        final Path path;
+        final long index;
+        final FileChannel channel;
+        int end; // 有效数据的末尾，受 MessageJournal.lock 保护
+
+        private Segment(Path path, long index, FileChannel channel) {
+            this.path = path;
+            this.index = index;
+            this.channel = channel;
+        }
+
+        /**
+         * 创建并预分配新分段
+         */
+        static Segment create(Path dir, long index, int size) throws IOException {
+            Path path = dir.resolve(String.format("%s%020d%s", PREFIX, index, SUFFIX));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // 在末尾写一个字节，文件即扩展到完整大小（稀疏文件，未写部分读出为 0）
+            channel.write(ByteBuffer.allocate(1), size - 1);
+            return new Segment(path, index, channel);
+        }
+
+        /**
+         * 打开已有分段（只读取），从头扫描找到最后一条完整记录之后的位置
+         */
+        static Segment open(Path path, long index) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            Segment segment = new Segment(path, index, channel);
+            ByteBuffer data;
+            try {
+                data = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+                segment.read(data, 0);
+            } catch (IOException e) {
+                segment.close();
+                throw e;
+            }
+            int position = 0;
+            int limit = data.capacity();
+            while (position + RECORD_OVERHEAD <= limit) {
+                int length = data.getInt(position);
+                if (length <= 0 || length > limit - position - RECORD_OVERHEAD) {
+                    break; // 数据末尾，或损坏的长度
+                }
+                int end = position + RECORD_OVERHEAD + length;
+                if (data.getInt(end - Integer.BYTES) != length) {
+                    break; // 写了一半的记录
+                }
+                position = end;
+            }
+            segment.end = position;
+            return segment;
+        }
+
+        /**
+         * 从指定位置起读满缓冲区，可由多个线程同时调用
+         * @throws IOException 读取出错，或分段已关闭
+         */
+        void read(ByteBuffer into, long position) throws IOException {
+            while (into.hasRemaining()) {
+                int read = this.channel.read(into, position);
+                if (read < 0) {
+                    throw new EOFException("消息日志分段意外结束：" + this.path);
+                }
+                position += read;
+            }
+        }
+
+        void close() {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+        }
+    }
+}
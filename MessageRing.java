@@ -0,0 +1,217 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 待广播消息的有界环形队列：多个线程放入，只由分发线程取出。
+ * 槽位在创建时一次分配好并反复使用，放入和取出都不分配对象，突发流量下堆也不会增长。
+ * <p>
+ * 每个槽位带一个序号：等于 pos 时可以写入第 pos 条消息，等于 pos + 1 时第 pos 条已可读取。
+ * 放入线程用 CAS 抢占位置后写入槽位再发布序号，分发线程按序读取后把序号推进一圈，交还槽位。
+ * 队列已满时聊客的消息按 {@link QueueFullPolicy} 处理；服务器通知（进出、踢出等）与分发线程自己放入的消息从不等待，
+ * 它们可能产生于扇出途中（分片线程断开慢速聊客产生离开消息），等待空位会与等待扇出完成的分发线程互相等待
+ */
+final class MessageRing {
+    private static final int SPINS = 100; // 让出 CPU 前自旋检查的次数
+    private static final long FULL_PARK_NANOS = 10_000L; // 队列已满时放入线程每次等待的时长
+
+    private final int mask;
+    private final Entry[] entries;
+    private final AtomicLongArray sequences; // 各槽位的序号
+    private final AtomicLong tail = new AtomicLong(); // 下一条放入的位置
+    private volatile long head; // 下一条取出的位置，只由分发线程写
+    private final QueueFullPolicy policy;
+    private final LongAdder dropped = new LongAdder(); // 队列已满时丢弃或拒绝的消息数
+    private volatile Thread reader; // 取出消息的分发线程
+    private final AtomicReference<Thread> parked = new AtomicReference<>(); // 正在等待新消息的分发线程，未等待时为 null
+    private volatile boolean closed;
+
+    /**
+     * @param capacity 容量，向上取整为 2 的幂且不小于 2（只有一个槽位时“可写第 pos + 1 条”与“第 pos 条可读”的序号相同）
+     * @param policy   队列已满时的处理策略
+     */
+    MessageRing(int capacity, QueueFullPolicy policy) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.entries = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.entries[i] = new Entry();
+            this.sequences.set(i, i);
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * 放入一条消息，队列已满时按策略等待或放弃
+     * @param room    目标房间，为 null 时发给所有房间
+     * @param text    消息内容
+     * @param relayed 是否由其他集群节点转发而来
+     * @return false 表示队列已满未能放入，或服务器已停止
+     */
+    boolean offer(ChatRoom room, String text, boolean relayed) {
+        return counted(offer(room, text, relayed, this.policy == QueueFullPolicy.BLOCK));
+    }
+
+    /**
+     * 放入一条消息，队列已满时不论策略都不等待。按 BLOCK 策略时不计为丢弃，由调用方稍后重试同一条消息
+     * @param room 目标房间，为 null 时发给所有房间
+     * @param text 消息内容
+     * @return false 表示队列已满未能放入
+     */
+    boolean tryOffer(ChatRoom room, String text) {
+        if (offer(room, text, false, false)) {
+            return true;
+        }
+        if (this.policy != QueueFullPolicy.BLOCK) {
+            this.dropped.increment();
+        }
+        return false;
+    }
+
+    /**
+     * 放入一条服务器通知，队列已满时不论策略都不等待，丢弃并计数
+     * @param room 目标房间，为 null 时发给所有房间
+     * @param text 通知内容
+     * @return false 表示队列已满未能放入
+     */
+    boolean offerNotice(ChatRoom room, String text) {
+        return counted(offer(room, text, false, false));
+    }
+
+    /**
+     * @param offered 是否已放入
+     * @return offered，未放入时计为丢弃
+     */
+    private boolean counted(boolean offered) {
+        if (!offered) {
+            this.dropped.increment();
+        }
+        return offered;
+    }
+
+    private boolean offer(ChatRoom room, String text, boolean relayed, boolean mayWait) {
+        int spins = 0;
+        while (true) {
+            long pos = this.tail.get();
+            int index = (int) pos & this.mask;
+            long diff = this.sequences.get(index) - pos;
+            if (diff == 0) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    Entry entry = this.entries[index];
+                    entry.room = room;
+                    entry.text = text;
+                    entry.relayed = relayed;
+                    this.sequences.set(index, pos + 1);
+                    // 只由清除登记的一个放入线程唤醒，分发线程被唤醒前其余放入线程不再重复唤醒
+                    Thread waiting = this.parked.get();
+                    if (waiting != null && this.parked.compareAndSet(waiting, null)) {
+                        LockSupport.unpark(waiting);
+                    }
+                    return true;
+                }
+            } else if (diff < 0) {
+                // 该槽位还存着上一圈的消息，队列已满
+                Thread current = Thread.currentThread();
+                if (!mayWait || this.closed || current == this.reader || current.isInterrupted()) {
+                    return false;
+                }
+                // 先自旋，再让出 CPU 给分发线程，仍满时才短暂休眠
+                spins++;
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                } else if (spins < SPINS * 2) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, FULL_PARK_NANOS);
+                }
+            }
+            // diff > 0：其他线程刚抢占了该位置，重读 tail
+        }
+    }
+
+    /**
+     * 阻塞等待下一条消息，复制到调用者的条目中并交还槽位。只能由分发线程调用
+     * @param into 接收消息的条目，由分发线程反复使用
+     * @throws InterruptedException 等待时被中断
+     */
+    void take(Entry into) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        if (this.reader != current) {
+            this.reader = current;
+        }
+        long pos = this.head;
+        int index = (int) pos & this.mask;
+        int spins = 0;
+        while (this.sequences.get(index) != pos + 1) {
+            if (spins++ < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+            // 先登记再复查，放入线程发布序号后必能看到登记并唤醒
+            this.parked.set(current);
+            if (this.sequences.get(index) != pos + 1) {
+                LockSupport.park(this);
+            }
+            this.parked.set(null);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        Entry entry = this.entries[index];
+        into.room = entry.room;
+        into.text = entry.text;
+        into.relayed = entry.relayed;
+        entry.room = null;
+        entry.text = null;
+        this.sequences.lazySet(index, pos + this.entries.length);
+        this.head = pos + 1;
+    }
+
+    /**
+     * 服务器停止时调用，之后等待空位的放入线程立即放弃
+     */
+    void close() {
+        this.closed = true;
+    }
+
+    /**
+     * @return 队列已满时的处理策略
+     */
+    QueueFullPolicy policy() {
+        return this.policy;
+    }
+
+    /**
+     * @return 队列中待取出的消息数
+     */
+    int size() {
+        long size = this.tail.get() - this.head;
+        return (int) Math.max(0, Math.min(size, this.entries.length));
+    }
+
+    /**
+     * @return 队列容量
+     */
+    int capacity() {
+        return this.entries.length;
+    }
+
+    /**
+     * @return 队列已满时丢弃或拒绝的消息数
+     */
+    long dropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * 队列中的一条消息。槽位中的条目反复使用，分发线程也用一个条目接收取出的消息
+     */
+    static final class Entry {
+        ChatRoom room; // 为 null 时发给所有房间
+        String text;
+        boolean relayed; // 由其他集群节点转发而来，不再转发
+    }
+}
@@ -0,0 +1,84 @@
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
+import java.io.Serial;
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingConstants;
+
+/**
+ * 管理窗口中的运行指标面板，显示与 JMX 相同的 {@link ServerMetricsMBean} 数值，
+ * 由管理窗口的定时器每秒刷新一次
+ */
+class MetricsPanel extends JPanel {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private static final String[] NAMES = {
+            "在线聊客", "房间数", "加入/秒", "离开/秒", "消息队列/丢弃", "广播数", "私聊数", "限速/刷屏踢出", "扇出 p50", "扇出 p99",
+            "流入", "流出", "最大积压", "总积压", "握手失败", "集群节点", "集群在线", "转发出/入"
+    };
+
+    private final JLabel[] values = new JLabel[NAMES.length];
+
+    MetricsPanel() {
+        super(new BorderLayout());
+        JPanel grid = new JPanel(new GridLayout(NAMES.length, 2, 8, 2));
+        grid.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+        for (int i = 0; i < NAMES.length; i++) {
+            grid.add(new JLabel(NAMES[i]));
+            this.values[i] = new JLabel("-", SwingConstants.RIGHT);
+            grid.add(this.values[i]);
+        }
+        // 指标行数固定，顶部对齐，不随窗口拉伸
+        JPanel top = new JPanel(new BorderLayout());
+        top.add(new JLabel("运行指标："), BorderLayout.NORTH);
+        top.add(grid, BorderLayout.CENTER);
+        this.add(top, BorderLayout.NORTH);
+    }
+
+    /**
+     * 在Swing线程中读取并显示指标
+     * @param metrics 运行中的服务器指标，服务器未启动时为 null
+     */
+    void refresh(ServerMetricsMBean metrics) {
+        if (metrics == null) {
+            for (JLabel value : this.values) {
+                value.setText("-");
+            }
+            return;
+        }
+        String[] texts = {
+                String.valueOf(metrics.getConnectedClients()),
+                String.valueOf(metrics.getRooms()),
+                String.format("%.1f", metrics.getJoinsPerSecond()),
+                String.format("%.1f", metrics.getLeavesPerSecond()),
+                metrics.getMessageQueueDepth() + "/" + metrics.getMessageQueueDropped(),
+                String.valueOf(metrics.getBroadcasts()),
+                String.valueOf(metrics.getDirectMessages()),
+                metrics.getThrottled() + "/" + metrics.getFloodKicks(),
+                "≤" + metrics.getFanOutP50Micros() + "us",
+                "≤" + metrics.getFanOutP99Micros() + "us",
+                formatBytes(metrics.getBytesIn()),
+                formatBytes(metrics.getBytesOut()),
+                String.valueOf(metrics.getMaxClientBacklog()),
+                String.valueOf(metrics.getTotalClientBacklog()),
+                String.valueOf(metrics.getHandshakeFailures()),
+                String.valueOf(metrics.getClusterPeers()),
+                String.valueOf(metrics.getClusterClients()),
+                metrics.getRelayedOut() + "/" + metrics.getRelayedIn()
+        };
+        for (int i = 0; i < texts.length; i++) {
+            this.values[i].setText(texts[i]);
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
@@ -0,0 +1,754 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于 ServerSocketChannel/Selector 的非阻塞连接引擎。
+ * 接收线程只负责 accept，少量固定的事件循环线程负责所有连接的读取、按行拆帧和写出，
+ * 登录握手与经典模式的 AcceptThread 相同（昵称 → OK/INVALID）。
+ * 事件循环从不等待：登录和房间命令要取广播锁、重放消息日志，交给工作线程执行；
+ * 待广播队列按 block 策略已满时暂停读取该连接，稍后重试同一条消息。
+ */
+class NioServer {
+    /** 单行消息的最大字节数，超出则断开连接 */
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    /** 每个连接的读缓冲区大小 */
+    private static final int READ_BUFFER_SIZE = 4096;
+    /** 一次聚集写出（gathering write）的最大帧数 */
+    private static final int MAX_GATHER = 64;
+    /** 待广播队列已满时重试放入的间隔 */
+    private static final long QUEUE_FULL_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final ChatServerCore server;
+    private final int port;
+    private final EventLoop[] loops;
+    private final long flushWindowNanos; // 合并写出的等待窗口，0 表示立即写出
+    private final int flushBufferSize;   // 一次写出的字节数上限
+    private ServerSocketChannel serverChannel;
+    private ScheduledThreadPoolExecutor timer; // 登录握手超时检查，限速暂停或队列已满后恢复读取
+    private ExecutorService workers; // 执行登录和房间命令，不占用事件循环
+    private volatile boolean running;
+
+    /**
+     * @param server    所属的聊天服务器
+     * @param port      监听端口
+     * @param loopCount 事件循环线程数
+     */
+    NioServer(ChatServerCore server, int port, int loopCount) {
+        this.server = server;
+        this.port = port;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        this.flushWindowNanos = TimeUnit.MICROSECONDS.toNanos(server.config().getFlushWindowMicros());
+        this.flushBufferSize = server.config().getFlushBufferSize();
+    }
+
+    /**
+     * 绑定端口并启动接收线程和事件循环线程
+     * @throws IOException 端口绑定或 Selector 打开失败
+     */
+    void start() throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            this.serverChannel.bind(new InetSocketAddress(this.port));
+            for (int i = 0; i < this.loops.length; i++) {
+                this.loops[i] = new EventLoop();
+            }
+        } catch (IOException e) {
+            this.serverChannel.close();
+            throw e;
+        }
+
+        this.timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "nio-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.workers = Executors.newFixedThreadPool(this.loops.length, ServerThreads.factory(ServerMode.NIO, "nio-worker-"));
+
+        this.running = true;
+        for (int i = 0; i < this.loops.length; i++) {
+            new Thread(this.loops[i], "nio-loop-" + i).start();
+        }
+        new Thread(this::acceptLoop, "nio-accept").start();
+    }
+
+    /**
+     * 停止接收新连接，并关闭所有事件循环及其连接
+     */
+    void stop() {
+        this.running = false;
+        try {
+            this.serverChannel.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+        for (EventLoop loop : this.loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        if (this.timer != null) {
+            this.timer.shutdownNow();
+        }
+        if (this.workers != null) {
+            this.workers.shutdownNow();
+        }
+    }
+
+    /**
+     * 接收线程主循环：接受连接后轮询分配给事件循环
+     */
+    private void acceptLoop() {
+        int next = 0;
+        while (this.running) {
+            try {
+                SocketChannel channel = this.serverChannel.accept();
+                long acceptedAt = System.nanoTime();
+
+                // 握手数已达上限时直接关闭
+                if (!this.server.handshakeGate().tryEnter()) {
+                    channel.close();
+                    continue;
+                }
+                channel.configureBlocking(false);
+                this.loops[next].register(channel, acceptedAt);
+                next = (next + 1) % this.loops.length;
+            } catch (IOException e) {
+                if (this.running) {
+                    this.server.appendLog("accept_error", null, "NIO 接收连接时发生错误: " + e.getMessage());
+                }
+            }
+        }
+        this.server.log().info("accept_exit", null, "NIO 接收线程正常退出");
+    }
+
+    /**
+     * 事件循环：一个 Selector 负责一组连接的全部读写。
+     * 合并写出窗口大于 0 时，本循环上待写出的连接在窗口到期时一起写出
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ArrayList<NioConnection> deferred = new ArrayList<>(); // 等待窗口到期再写出的连接
+        private long flushDeadline; // 最早一个等待写出的连接必须写出的时刻
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * 在事件循环线程中执行任务
+         * @param task 要执行的任务
+         */
+        void execute(Runnable task) {
+            this.tasks.offer(task);
+            this.selector.wakeup();
+        }
+
+        /**
+         * 延迟后在事件循环线程中执行任务。服务器已停止时不再执行，事件循环退出时会关闭所有连接
+         * @param task       要执行的任务
+         * @param delayNanos 延迟的纳秒数
+         */
+        void schedule(Runnable task, long delayNanos) {
+            try {
+                NioServer.this.timer.schedule(() -> execute(task), delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // 服务器已停止
+            }
+        }
+
+        /**
+         * 将新连接注册到本事件循环，并安排握手超时检查
+         * @param channel    已设置为非阻塞的连接
+         * @param acceptedAt 连接被接受时的 System.nanoTime()
+         */
+        void register(SocketChannel channel, long acceptedAt) {
+            execute(() -> {
+                NioConnection connection = new NioConnection(channel, this, acceptedAt);
+                try {
+                    connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+                    connection.handshakeTimeout = NioServer.this.timer.schedule(
+                            () -> execute(connection::onHandshakeTimeout),
+                            NioServer.this.server.config().getHandshakeTimeoutMillis(), TimeUnit.MILLISECONDS);
+                } catch (ClosedChannelException e) {
+                    connection.closeConnection();
+                }
+            });
+        }
+
+        /**
+         * 在事件循环线程中调用：推迟到合并写出窗口到期时再写出该连接
+         * @param connection 有待发送数据的连接
+         */
+        void deferFlush(NioConnection connection) {
+            if (this.deferred.isEmpty()) {
+                this.flushDeadline = System.nanoTime() + NioServer.this.flushWindowNanos;
+            }
+            this.deferred.add(connection);
+        }
+
+        /**
+         * 写出窗口已到期的连接
+         * @param force 为 true 时不等窗口到期
+         */
+        private void flushDeferred(boolean force) {
+            if (this.deferred.isEmpty() || (!force && System.nanoTime() - this.flushDeadline < 0)) {
+                return;
+            }
+            for (NioConnection connection : this.deferred) {
+                connection.flush();
+            }
+            this.deferred.clear();
+        }
+
+        /**
+         * 等待就绪事件，有等待写出的连接时最多等到窗口到期
+         */
+        private void select() throws IOException {
+            if (this.deferred.isEmpty()) {
+                this.selector.select();
+                return;
+            }
+            long remaining = this.flushDeadline - System.nanoTime();
+            if (remaining <= 0) {
+                this.selector.selectNow();
+            } else {
+                this.selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = this.tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (NioServer.this.running) {
+                try {
+                    select();
+                } catch (IOException e) {
+                    NioServer.this.server.appendLog("loop_error", null, "NIO 事件循环出错: " + e.getMessage());
+                    break;
+                }
+
+                runTasks();
+
+                Iterator<SelectionKey> iter = this.selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (CancelledKeyException e) {
+                        connection.closeConnection();
+                    }
+                }
+                flushDeferred(false);
+            }
+
+            // 服务器已停止，先执行剩余任务（尽量写出关闭消息），再关闭本循环上的所有连接
+            runTasks();
+            flushDeferred(true);
+            for (SelectionKey key : this.selector.keys()) {
+                ((NioConnection) key.attachment()).closeConnection();
+            }
+            try {
+                this.selector.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+        }
+    }
+
+    /**
+     * 单个非阻塞连接：第一行为登录行，之后按协商的协议每行或每帧为一条聊天消息
+     */
+    private final class NioConnection implements ChatConnection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final OutboundQueue outbound;
+        private final RateLimiter limiter; // 只由本连接的事件循环使用
+        private int pauses; // 暂停读取和处理读缓冲区中其余数据的原因数：超出限速、等待工作线程、等待队列空位
+        private String pendingText; // 待广播队列已满时未能放入的消息，等待重试
+        private int pendingBytes;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final AtomicBoolean handshaking = new AtomicBoolean(true); // 是否仍占用握手名额
+        private final long acceptedAt;
+        private ScheduledFuture<?> handshakeTimeout;
+        private SelectionKey key;
+        private final ByteBuffer[] writing = new ByteBuffer[MAX_GATHER]; // 正在写出的帧，包装共享数组以记录本连接的写入位置
+        private int writingCount;
+        private byte[] lineBuffer = new byte[256]; // 未读完的一行，或二进制协议下未读完的长度字段或帧
+        private int lineLength;
+        private int frameLength = -1; // 二进制协议下正在读取的帧长度，-1 表示正在读取长度字段
+        private volatile int protocolVersion = ChatProtocol.TEXT_VERSION;
+        private volatile BroadcastEncoder.Stream deflateStream; // 未协商压缩时为 null
+        private volatile ChatRoom room; // 所在的房间
+        private volatile String userName;
+        private volatile boolean open = true;
+        private volatile boolean closing; // 已请求发完后关闭，不再接收新消息
+
+        NioConnection(SocketChannel channel, EventLoop loop, long acceptedAt) {
+            this.channel = channel;
+            this.loop = loop;
+            this.acceptedAt = acceptedAt;
+            this.outbound = NioServer.this.server.newOutboundQueue();
+            this.limiter = NioServer.this.server.newRateLimiter();
+        }
+
+        @Override
+        public String getUserName() {
+            return this.userName;
+        }
+
+        @Override
+        public int getProtocolVersion() {
+            return this.protocolVersion;
+        }
+
+        @Override
+        public BroadcastEncoder.Stream getDeflateStream() {
+            return this.deflateStream;
+        }
+
+        @Override
+        public ChatRoom getRoom() {
+            return this.room;
+        }
+
+        @Override
+        public void setRoom(ChatRoom room) {
+            this.room = room;
+        }
+
+        @Override
+        public void sendFrame(byte[] frame) {
+            if (!this.open || this.closing) {
+                return;
+            }
+            if (!this.outbound.offer(frame)) {
+                // 队列已满且策略为断开：关闭连接并触发断线事件
+                NioServer.this.server.log().warn("slow_consumer", this.userName, "用户 " + this.userName + " 接收过慢，连接已断开");
+                closeConnection();
+                return;
+            }
+            scheduleFlush();
+        }
+
+        @Override
+        public void closeAfterFlush() {
+            this.closing = true;
+            scheduleFlush();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return this.outbound.size();
+        }
+
+        /**
+         * 安排事件循环写出待发送数据，已安排时不重复提交。
+         * 合并写出窗口大于 0 时等窗口到期再写出，期间到达的帧一起写出
+         */
+        private void scheduleFlush() {
+            if (this.flushScheduled.compareAndSet(false, true)) {
+                if (NioServer.this.flushWindowNanos > 0) {
+                    this.loop.execute(() -> this.loop.deferFlush(this));
+                } else {
+                    this.loop.execute(this::flush);
+                }
+            }
+        }
+
+        @Override
+        public void closeConnection() {
+            this.open = false;
+            this.outbound.clear();
+            finishHandshake();
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                NioServer.this.server.log().warn("close_error", this.userName, "关闭用户 " + this.userName + " 的连接时出错: " + e.getMessage());
+            }
+            // 触发断线事件（未登记或已移除的连接会被忽略）
+            NioServer.this.server.onDisconnect(this);
+        }
+
+        /**
+         * 握手结束（成功、失败或连接关闭）时归还握手名额，只生效一次
+         */
+        private void finishHandshake() {
+            if (this.handshaking.compareAndSet(true, false)) {
+                NioServer.this.server.handshakeGate().exit(this.acceptedAt);
+                if (this.handshakeTimeout != null) {
+                    this.handshakeTimeout.cancel(false);
+                }
+            }
+        }
+
+        /**
+         * 握手期限已到：仍未发送昵称的连接直接关闭，正在工作线程中登记的不算超时
+         */
+        void onHandshakeTimeout() {
+            if (this.handshaking.get() && this.open && this.userName == null) {
+                NioServer.this.server.handshakeGate().onTimeout();
+                closeConnection();
+            }
+        }
+
+        /**
+         * 读就绪：读取数据，按换行符或帧长度拆分为消息。登录行之后的数据可能已是二进制帧
+         */
+        void onReadable() {
+            int n;
+            try {
+                n = this.channel.read(this.readBuffer);
+            } catch (IOException e) {
+                NioServer.this.server.log().info("read_error", this.userName, "用户 " + this.userName + " 读取消息时异常断开: " + e.getMessage());
+                closeConnection();
+                return;
+            }
+            if (n < 0) {
+                closeConnection();
+                return;
+            }
+            NioServer.this.server.metrics().onBytesIn(n);
+            processInput();
+        }
+
+        /**
+         * 拆分读缓冲区中的数据；因限速暂停时其余数据留在缓冲区中，恢复后继续处理
+         */
+        private void processInput() {
+            this.readBuffer.flip();
+            try {
+                readLines();
+                if (this.userName != null && this.protocolVersion != ChatProtocol.TEXT_VERSION) {
+                    readFrames();
+                }
+            } finally {
+                this.readBuffer.compact();
+            }
+        }
+
+        /**
+         * 记入一条消息，超出限速时不再关注读事件，未读的数据留在内核的接收缓冲区，
+         * 由 TCP 流量控制让客户端慢下来；欠额还清后恢复读取
+         * @param bytes 消息的字节数
+         */
+        private void throttle(int bytes) {
+            long pause = NioServer.this.server.throttle(this, this.limiter, bytes);
+            if (pause <= 0 || !this.key.isValid()) {
+                return; // 未超限，或已因刷屏被踢出
+            }
+            pauseReading();
+            this.loop.schedule(this::resumeReading, pause);
+        }
+
+        /**
+         * 在事件循环线程中调用：暂停读取，直到对应的 {@link #resumeReading} 被调用
+         */
+        private void pauseReading() {
+            if (this.pauses++ == 0 && this.key.isValid()) {
+                this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * 在事件循环线程中调用：一项暂停结束，全部结束后先处理缓冲区中剩余的数据，再重新关注读事件
+         */
+        private void resumeReading() {
+            if (--this.pauses > 0 || !this.open || !this.key.isValid()) {
+                return;
+            }
+            processInput();
+            if (this.pauses == 0 && this.key.isValid()) {
+                this.key.interestOps(this.key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * 在事件循环线程中调用：把可能等待广播锁或读取消息日志的处理交给工作线程，期间暂停读取本连接，
+         * 处理完后回到事件循环继续读取，同一连接的消息仍按顺序处理
+         * @param task 在工作线程中执行的处理
+         * @param done 处理完后在事件循环线程中执行，恢复读取之前
+         */
+        private void offload(Runnable task, Runnable done) {
+            pauseReading();
+            try {
+                NioServer.this.workers.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        this.loop.execute(() -> {
+                            done.run();
+                            resumeReading();
+                        });
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                closeConnection(); // 服务器已停止
+            }
+        }
+
+        /**
+         * 处理登录后的一条消息：命令交给工作线程，聊天内容直接放入待广播队列
+         * @param text  消息内容
+         * @param bytes 计入限速的字节数
+         */
+        private void onMessage(String text, int bytes) {
+            if (text.startsWith(ChatProtocol.COMMAND_PREFIX)) {
+                offload(() -> NioServer.this.server.onClientMessage(this, text), () -> { });
+            } else if (!NioServer.this.server.offerClientMessage(this, text)) {
+                // 队列已满：暂停读取，由 TCP 流量控制让客户端慢下来，稍后重试这一条
+                this.pendingText = text;
+                this.pendingBytes = bytes;
+                pauseReading();
+                this.loop.schedule(this::retryPending, QUEUE_FULL_RETRY_NANOS);
+                return;
+            }
+            throttle(bytes);
+        }
+
+        /**
+         * 在事件循环线程中调用：重试放入因队列已满暂停的消息，放入后恢复读取
+         */
+        private void retryPending() {
+            if (!this.open) {
+                return;
+            }
+            if (!NioServer.this.server.offerClientMessage(this, this.pendingText)) {
+                this.loop.schedule(this::retryPending, QUEUE_FULL_RETRY_NANOS);
+                return;
+            }
+            this.pendingText = null;
+            throttle(this.pendingBytes);
+            resumeReading();
+        }
+
+        /**
+         * 按换行符拆分消息，登录成功并协商为二进制协议后停止
+         */
+        private void readLines() {
+            while (this.readBuffer.hasRemaining() && this.open && !this.closing && this.pauses == 0
+                    && (this.userName == null || this.protocolVersion == ChatProtocol.TEXT_VERSION)) {
+                byte b = this.readBuffer.get();
+                if (b == '\n') {
+                    String line = decodeLine();
+                    this.lineLength = 0;
+                    onLine(line);
+                } else if (this.handshaking.get() && this.lineLength == this.maxNameBytes()) {
+                    // 昵称过长，按非法昵称处理
+                    rejectHandshake();
+                } else if (this.lineLength == MAX_LINE_BYTES) {
+                    NioServer.this.server.appendLog("bad_frame", this.userName, "用户 " + this.userName + " 发送的消息过长，连接已断开");
+                    closeConnection();
+                } else {
+                    if (this.lineLength == this.lineBuffer.length) {
+                        this.lineBuffer = Arrays.copyOf(this.lineBuffer,
+                                Math.min(MAX_LINE_BYTES, this.lineBuffer.length * 2));
+                    }
+                    this.lineBuffer[this.lineLength++] = b;
+                }
+            }
+        }
+
+        /**
+         * 按长度前缀整块复制每一帧，不逐字节查找分隔符
+         */
+        private void readFrames() {
+            while (this.readBuffer.hasRemaining() && this.open && !this.closing && this.pauses == 0) {
+                int expected = this.frameLength < 0 ? Integer.BYTES : this.frameLength;
+                if (this.lineBuffer.length < expected) {
+                    this.lineBuffer = Arrays.copyOf(this.lineBuffer, expected);
+                }
+                int n = Math.min(expected - this.lineLength, this.readBuffer.remaining());
+                this.readBuffer.get(this.lineBuffer, this.lineLength, n);
+                this.lineLength += n;
+                if (this.lineLength < expected) {
+                    return;
+                }
+                this.lineLength = 0;
+
+                if (this.frameLength >= 0) {
+                    this.frameLength = -1;
+                    onFrame(expected);
+                    continue;
+                }
+                int length = ByteBuffer.wrap(this.lineBuffer, 0, Integer.BYTES).getInt();
+                if (length < ChatProtocol.FRAME_HEADER_BYTES || length > ChatProtocol.MAX_FRAME_BYTES) {
+                    NioServer.this.server.appendLog("bad_frame", this.userName, "用户 " + this.userName + " 发送的帧长度非法，连接已断开");
+                    closeConnection();
+                    return;
+                }
+                this.frameLength = length;
+            }
+        }
+
+        /**
+         * 处理帧缓冲区中一个完整的帧：只转发聊天帧，忽略无法识别的类型
+         * @param length 帧长度（不含长度字段）
+         */
+        private void onFrame(int length) {
+            if (this.lineBuffer[0] == ChatProtocol.TYPE_CHAT) {
+                String text = new String(this.lineBuffer, ChatProtocol.FRAME_HEADER_BYTES,
+                        length - ChatProtocol.FRAME_HEADER_BYTES, StandardCharsets.UTF_8);
+                onMessage(text, length - ChatProtocol.FRAME_HEADER_BYTES);
+            }
+        }
+
+        /**
+         * 将行缓冲区解码为字符串，去掉行尾的回车符
+         */
+        private String decodeLine() {
+            int length = this.lineLength;
+            if (length > 0 && this.lineBuffer[length - 1] == '\r') {
+                length--;
+            }
+            return new String(this.lineBuffer, 0, length, ChatProtocol.CHARSET);
+        }
+
+        /**
+         * 处理完整的一行：握手前为昵称，握手后为聊天消息
+         */
+        private void onLine(String line) {
+            if (this.userName != null) {
+                onMessage(line, line.getBytes(ChatProtocol.CHARSET).length);
+                return;
+            }
+
+            // 登录行：昵称及可选的协议版本。登记在工作线程中进行，完成前不再读取
+            this.userName = ChatProtocol.loginName(line);
+            this.protocolVersion = ChatProtocol.negotiate(line);
+            this.deflateStream = NioServer.this.server.newDeflateStream(line, this.protocolVersion, this.outbound);
+            boolean[] accepted = new boolean[1];
+            offload(() -> accepted[0] = NioServer.this.server.registerClient(this), () -> onRegistered(accepted[0]));
+        }
+
+        /**
+         * 在事件循环线程中调用：工作线程已完成登记
+         * @param accepted 昵称是否被接受
+         */
+        private void onRegistered(boolean accepted) {
+            if (!this.open) {
+                // 登记期间连接已关闭：断线事件可能早于登记，再移除一次
+                NioServer.this.server.onDisconnect(this);
+            } else if (accepted) {
+                finishHandshake();
+            } else {
+                this.userName = null;
+                this.protocolVersion = ChatProtocol.TEXT_VERSION;
+                this.deflateStream = null;
+                this.outbound.setOnStreamBreak(null);
+                rejectHandshake();
+            }
+        }
+
+        /**
+         * 昵称无效，发送拒绝消息后关闭连接
+         */
+        private void rejectHandshake() {
+            finishHandshake();
+            sendFrame(ChatProtocol.encodeLine(ChatProtocol.INVALID));
+            closeAfterFlush();
+        }
+
+        /**
+         * @return 握手阶段登录行允许的最大字节数（UTF-8下一个字符最多4字节，另留版本号和回车符的位置）
+         */
+        private int maxNameBytes() {
+            return NioServer.this.server.config().getMaxNameLength() * 4 + ChatProtocol.MAX_OFFER_BYTES + 2;
+        }
+
+        /**
+         * 在事件循环线程中写出待发送数据：多帧合并为一次聚集写出，写不完时关注写就绪事件
+         */
+        void flush() {
+            this.flushScheduled.set(false);
+            if (!this.open || this.key == null) {
+                return;
+            }
+            try {
+                while (fillWriting()) {
+                    long written = this.channel.write(this.writing, 0, this.writingCount);
+                    NioServer.this.server.metrics().onBytesOut(written);
+                    if (!dropWritten()) {
+                        this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (this.closing) {
+                    closeConnection();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                closeConnection();
+            }
+        }
+
+        /**
+         * 从待发送队列补充要写出的帧，直到帧数或字节数达到一次写出的上限
+         * @return 是否有要写出的帧
+         */
+        private boolean fillWriting() {
+            long bytes = 0;
+            for (int i = 0; i < this.writingCount; i++) {
+                bytes += this.writing[i].remaining();
+            }
+            while (this.writingCount < MAX_GATHER && bytes < NioServer.this.flushBufferSize) {
+                byte[] frame = this.outbound.poll();
+                if (frame == null) {
+                    break;
+                }
+                this.writing[this.writingCount++] = ByteBuffer.wrap(frame).asReadOnlyBuffer();
+                bytes += frame.length;
+            }
+            return this.writingCount > 0;
+        }
+
+        /**
+         * 移除已完整写出的帧，未写完的帧移到数组前部
+         * @return 是否全部写完
+         */
+        private boolean dropWritten() {
+            int done = 0;
+            while (done < this.writingCount && !this.writing[done].hasRemaining()) {
+                done++;
+            }
+            System.arraycopy(this.writing, done, this.writing, 0, this.writingCount - done);
+            Arrays.fill(this.writing, this.writingCount - done, this.writingCount, null);
+            this.writingCount -= done;
+            return this.writingCount == 0;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个连接的有界待发送队列。广播线程只负责入队，由该连接独立的写线程（经典模式）
+ * 或事件循环（NIO 模式）取出写出，慢速聊客不会拖住整个聊天室
+ */
+final class OutboundQueue {
+    private final ArrayBlockingQueue<byte[]> frames;
+    private final OverflowPolicy policy;
+    private volatile Runnable onStreamBreak; // 丢弃了压缩流中的帧时调用，null 表示该连接未启用压缩
+
+    /**
+     * @param capacity 队列容量
+     * @param policy   队列已满时的处理策略
+     */
+    OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.frames = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * 将字节帧入队，队列已满时按策略处理
+     * @param frame 待发送的字节帧
+     * @return false 表示队列已满且策略为断开连接
+     */
+    boolean offer(byte[] frame) {
+        while (!this.frames.offer(frame)) {
+            if (this.policy == OverflowPolicy.DISCONNECT) {
+                return false;
+            }
+            // 丢弃最旧的一帧
+            byte[] dropped = this.frames.poll();
+            Runnable streamBreak = this.onStreamBreak;
+            if (dropped != null && streamBreak != null && ChatProtocol.isDeflated(dropped)) {
+                // 压缩流缺了一段，其后的压缩帧都无法解压，一并丢弃，等待压缩流重置
+                this.frames.removeIf(ChatProtocol::isDeflated);
+                streamBreak.run();
+                if (ChatProtocol.isDeflated(frame)) {
+                    // 本帧同样依赖被丢弃的数据，不再入队
+                    return true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 设置丢弃压缩帧时的回调
+     * @param onStreamBreak 回调
+     */
+    void setOnStreamBreak(Runnable onStreamBreak) {
+        this.onStreamBreak = onStreamBreak;
+    }
+
+    /**
+     * @return 队首的字节帧，队列为空时返回 null
+     */
+    byte[] poll() {
+        return this.frames.poll();
+    }
+
+    /**
+     * 阻塞等待下一个字节帧
+     * @return 队首的字节帧
+     * @throws InterruptedException 等待时被中断
+     */
+    byte[] take() throws InterruptedException {
+        return this.frames.take();
+    }
+
+    /**
+     * 最多等待指定时间取出下一个字节帧
+     * @param timeoutNanos 最长等待时间，纳秒
+     * @return 队首的字节帧，超时返回 null
+     * @throws InterruptedException 等待时被中断
+     */
+    byte[] poll(long timeoutNanos) throws InterruptedException {
+        return this.frames.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return 队列中待发送的帧数
+     */
+    int size() {
+        return this.frames.size();
+    }
+
+    boolean isEmpty() {
+        return this.frames.isEmpty();
+    }
+
+    void clear() {
+        this.frames.clear();
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * 单个连接的待发送队列已满时的处理策略
+ */
+enum OverflowPolicy {
+    /** 丢弃队列中最旧的消息，为新消息腾出位置 */
+    DROP_OLDEST("丢弃最旧消息"),
+    /** 断开接收过慢的聊客，由断线事件广播离开消息 */
+    DISCONNECT("断开慢速聊客");
+
+    private final String label;
+
+    OverflowPolicy(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return this.label;
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * 待广播消息队列已满时，放入消息的线程的处理策略
+ */
+enum QueueFullPolicy {
+    /**
+     * 等待分发线程腾出空位，读取线程因此暂停读取，由 TCP 流量控制让客户端慢下来；服务器通知不等待，直接丢弃。
+     * NIO 模式下事件循环不等待，只暂停读取发送方的连接，稍后重试
+     */
+    BLOCK("阻塞等待"),
+    /** 丢弃新消息 */
+    DROP("丢弃新消息"),
+    /** 拒绝新消息并通知发送者 */
+    REJECT("拒绝并通知");
+
+    private final String label;
+
+    QueueFullPolicy(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return this.label;
+    }
+}
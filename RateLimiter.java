@@ -0,0 +1,132 @@
+/**
+ * 单个连接的发言限速：按消息数和字节数各一个令牌桶，桶容量为一秒的配额。
+ * 超出配额的消息照常处理，但记下欠额，连接在欠额还清之前暂停读取，
+ * 未读的数据留在内核的接收缓冲区中，由 TCP 流量控制让发送方慢下来，服务器不额外缓存。
+ * <p>
+ * 每次超限记一次违规，令牌桶重新攒满（即发言低于配额满一秒）时清零；
+ * 连续违规达到上限的连接视为刷屏，应被踢出。只由该连接的读取线程或事件循环调用
+ */
+final class RateLimiter {
+    private final Limits limits;
+    private double messageTokens;
+    private double byteTokens;
+    private long refilledAt = System.nanoTime();
+    private int strikes; // 连续违规次数
+
+    /**
+     * @param limits 全服共用、可在运行时调整的限速配置
+     */
+    RateLimiter(Limits limits) {
+        this.limits = limits;
+        this.messageTokens = limits.getMessagesPerSecond();
+        this.byteTokens = limits.getBytesPerSecond();
+    }
+
+    /**
+     * 记入一条消息
+     * @param bytes 消息的字节数
+     * @return 处理本条消息后须暂停读取的纳秒数，0 表示未超限
+     */
+    long acquire(int bytes) {
+        return acquire(bytes, System.nanoTime());
+    }
+
+    /**
+     * 按给定的时刻记入一条消息（单元测试用它模拟时间流逝）
+     * @param bytes 消息的字节数
+     * @param now   当前时刻，{@link System#nanoTime()} 的时间基准
+     * @return 处理本条消息后须暂停读取的纳秒数，0 表示未超限
+     */
+    long acquire(int bytes, long now) {
+        double elapsed = (now - this.refilledAt) / 1e9;
+        this.refilledAt = now;
+
+        int messageRate = this.limits.getMessagesPerSecond();
+        int byteRate = this.limits.getBytesPerSecond();
+        boolean rested = true; // 两个桶此前都已攒满
+        double wait = 0;
+        if (messageRate > 0) {
+            this.messageTokens = Math.min(messageRate, this.messageTokens + elapsed * messageRate);
+            rested = this.messageTokens >= messageRate;
+            this.messageTokens -= 1;
+            wait = Math.max(wait, -this.messageTokens / messageRate);
+        }
+        if (byteRate > 0) {
+            this.byteTokens = Math.min(byteRate, this.byteTokens + elapsed * byteRate);
+            rested &= this.byteTokens >= byteRate;
+            this.byteTokens -= bytes;
+            wait = Math.max(wait, -this.byteTokens / byteRate);
+        }
+
+        if (wait <= 0) {
+            if (rested) {
+                this.strikes = 0;
+            }
+            return 0;
+        }
+        this.strikes++;
+        return (long) (wait * 1e9);
+    }
+
+    /**
+     * @return 连续违规次数是否已达到踢出的上限
+     */
+    boolean isFlooding() {
+        int kickAfter = this.limits.getKickAfter();
+        return kickAfter > 0 && this.strikes >= kickAfter;
+    }
+
+    /**
+     * 全服共用的限速配置，启动时取自 {@link ServerConfig}，之后可由管理窗口随时调整，
+     * 各连接在下一条消息时按新值计算
+     */
+    static final class Limits {
+        private volatile int messagesPerSecond;
+        private volatile int bytesPerSecond;
+        private volatile int kickAfter;
+
+        /**
+         * @param messagesPerSecond 每秒消息数上限，0 表示不限
+         * @param bytesPerSecond    每秒字节数上限，0 表示不限
+         * @param kickAfter         连续违规多少次后踢出，0 表示不踢出
+         */
+        Limits(int messagesPerSecond, int bytesPerSecond, int kickAfter) {
+            setMessagesPerSecond(messagesPerSecond);
+            setBytesPerSecond(bytesPerSecond);
+            setKickAfter(kickAfter);
+        }
+
+        int getMessagesPerSecond() {
+            return this.messagesPerSecond;
+        }
+
+        void setMessagesPerSecond(int messagesPerSecond) {
+            if (messagesPerSecond < 0) {
+                throw new IllegalArgumentException("每秒消息数上限非法：" + messagesPerSecond);
+            }
+            this.messagesPerSecond = messagesPerSecond;
+        }
+
+        int getBytesPerSecond() {
+            return this.bytesPerSecond;
+        }
+
+        void setBytesPerSecond(int bytesPerSecond) {
+            if (bytesPerSecond < 0) {
+                throw new IllegalArgumentException("每秒字节数上限非法：" + bytesPerSecond);
+            }
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        int getKickAfter() {
+            return this.kickAfter;
+        }
+
+        void setKickAfter(int kickAfter) {
+            if (kickAfter < 0) {
+                throw new IllegalArgumentException("刷屏踢出的违规次数非法：" + kickAfter);
+            }
+            this.kickAfter = kickAfter;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 以房间名为键的房间注册表。聊客登录后位于大厅，同一时刻只在一个房间中；
+ * 房间在第一个聊客进入时创建，最后一个聊客离开时移除（大厅除外）。
+ * 成员变动在本对象上串行执行，广播只读取房间的成员集合，不加锁
+ */
+final class RoomRegistry {
+    /** 大厅的房间名 */
+    static final String LOBBY = "大厅";
+
+    private final ConcurrentHashMap<String, ChatRoom> byName = new ConcurrentHashMap<>();
+    private final BroadcastEncoder.Stats stats;
+    private final int shards;
+    private final ChatRoom lobby;
+
+    /**
+     * @param stats  压缩统计，各房间的编码器共用
+     * @param shards 扇出的分片数，各房间的成员按此分组
+     */
+    RoomRegistry(BroadcastEncoder.Stats stats, int shards) {
+        this.stats = stats;
+        this.shards = shards;
+        this.lobby = new ChatRoom(LOBBY, true, stats, shards);
+        this.byName.put(LOBBY, this.lobby);
+    }
+
+    ChatRoom lobby() {
+        return this.lobby;
+    }
+
+    /**
+     * @param name 房间名
+     * @return 对应的房间，不存在时返回 null
+     */
+    ChatRoom get(String name) {
+        return name == null ? null : this.byName.get(name);
+    }
+
+    /**
+     * @return 所有房间的弱一致性视图
+     */
+    Collection<ChatRoom> rooms() {
+        return this.byName.values();
+    }
+
+    int size() {
+        return this.byName.size();
+    }
+
+    /**
+     * 把聊客移入指定房间，先离开其当前所在的房间；房间不存在时创建。
+     * 协商了压缩的连接改为接收新房间的压缩流，从下一个重置帧开始
+     * @param client 聊客连接
+     * @param name   房间名
+     * @return 聊客现在所在的房间
+     */
+    synchronized ChatRoom join(ChatConnection client, String name) {
+        ChatRoom current = client.getRoom();
+        if (current != null && current.getName().equals(name)) {
+            return current;
+        }
+        leave(client);
+        ChatRoom room = this.byName.computeIfAbsent(name, n -> new ChatRoom(n, false, this.stats, this.shards));
+        room.add(client);
+        client.setRoom(room);
+        BroadcastEncoder.Stream stream = client.getDeflateStream();
+        if (stream != null) {
+            stream.moveTo(room.encoder());
+        }
+        return room;
+    }
+
+    /**
+     * 把仍在某个房间中的聊客移入指定房间；聊客已断开（不在任何房间）时什么也不做
+     * @param client 聊客连接
+     * @param name   房间名
+     * @return 聊客现在所在的房间，已断开时返回 null
+     */
+    synchronized ChatRoom move(ChatConnection client, String name) {
+        return client.getRoom() == null ? null : join(client, name);
+    }
+
+    /**
+     * 聊客离开当前所在的房间，空房间随即移除（大厅除外）
+     * @param client 聊客连接
+     * @return 聊客原来所在的房间，不在任何房间时返回 null
+     */
+    synchronized ChatRoom leave(ChatConnection client) {
+        ChatRoom room = client.getRoom();
+        if (room == null) {
+            return null;
+        }
+        room.remove(client);
+        client.setRoom(null);
+        if (!room.isLobby() && room.size() == 0) {
+            this.byName.remove(room.getName(), room);
+        }
+        return room;
+    }
+}
@@ -0,0 +1,583 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * 服务器配置：可由命令行参数或 properties 文件加载，命令行参数优先。
+ * <pre>
+ * --config=server.properties  从文件加载配置
+ * --port=12345                监听端口（port）
+ * --mode=classic|virtual|nio  连接处理模式（mode）
+ * --queue-capacity=1024       每个连接待发送队列的容量（queue.capacity）
+ * --overflow=drop_oldest|disconnect  待发送队列已满时的策略（overflow.policy）
+ * --nio-loops=4               NIO 事件循环线程数（nio.loops）
+ * --message-queue=65536       待广播消息队列的容量，向上取整为 2 的幂（message.queue）
+ * --message-queue-policy=block|drop|reject  待广播消息队列已满时的策略（message.queue.policy）
+ * --fanout-shards=4           广播扇出的分片数，大房间的扇出由这么多个线程并行完成，默认为 CPU 核数（fanout.shards）
+ * --handshake-timeout=10000   登录握手的最长等待时间，毫秒（handshake.timeout）
+ * --handshake-max=1024        同时进行的登录握手数上限（handshake.max）
+ * --name-max=32               昵称的最大长度（name.max）
+ * --rate-messages=0           每个聊客每秒最多发送的消息数，0 表示不限，如 10（rate.messages）
+ * --rate-bytes=0              每个聊客每秒最多发送的字节数，0 表示不限，如 32768（rate.bytes）
+ * --flood-kick=0              连续超出限速多少次后自动踢出，0 表示不踢出，如 50（flood.kick）
+ * --flush-window=0            合并写出的等待窗口，微秒，0 表示队列写空即刷出（flush.window）
+ * --flush-buffer=8192         合并写出的缓冲区大小，字节，写满立即刷出（flush.buffer）
+ * --deflate=true              是否允许客户端协商 DEFLATE 压缩（deflate）
+ * --log-scrollback=5000       管理窗口聊天区域保留的最大行数（log.scrollback）
+ * --journal-dir=              消息日志目录，如 journal，为空时不记录也不补发历史（journal.dir）
+ * --journal-segment-size=8388608  每个日志分段的字节数，写满换新分段（journal.segment.size）
+ * --journal-segments=16       最多保留的日志分段数（journal.segments）
+ * --journal-fsync=never|batch|interval  日志刷盘策略（journal.fsync）
+ * --journal-fsync-interval=1000  按间隔刷盘时的间隔，毫秒（journal.fsync.interval）
+ * --journal-replay=20         聊客加入时补发的最近消息条数，0 表示不补发（journal.replay）
+ * --log-level=info            日志的最低级别 debug|info|warn|error（log.level）
+ * --log-dir=                  日志文件目录，如 logs，为空时只输出到控制台（log.dir）
+ * --log-file-size=10485760    单个日志文件的字节数上限，超出时轮转（log.file.size）
+ * --log-files=5               最多保留的日志文件数（log.files）
+ * --log-queue=65536           日志队列最多积压的记录数，超出时丢弃（log.queue）
+ * --log-console=true          日志是否同时输出到控制台（log.console）
+ * --jmx=true                  是否把运行指标注册为 JMX MBean（jmx）
+ * --cluster-port=0            集群节点间链路的监听端口，0 表示不组成集群（cluster.port）
+ * --cluster-peers=            其他节点的集群地址，逗号分隔的 主机:端口（cluster.peers）
+ * --cluster-node=             本节点名，集群内须唯一，为空时取 node-聊天端口（cluster.node）
+ * --headless                  不创建窗口，直接启动服务（headless）
+ * </pre>
+ */
+final class ServerConfig {
+    private int port = 12345;
+    private ServerMode mode = ServerMode.CLASSIC;
+    private int outboundCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private int nioLoops = Runtime.getRuntime().availableProcessors();
+    private int messageQueueCapacity = 65536;
+    private QueueFullPolicy messageQueuePolicy = QueueFullPolicy.BLOCK;
+    private int fanoutShards = Runtime.getRuntime().availableProcessors();
+    private int handshakeTimeoutMillis = 10000;
+    private int maxHandshakes = 1024;
+    private int maxNameLength = 32;
+    private int rateMessages = 0;
+    private int rateBytes = 0;
+    private int floodKick = 0;
+    private int flushWindowMicros = 0;
+    private int flushBufferSize = 8192;
+    private boolean deflate = true;
+    private int logScrollback = 5000;
+    private String journalDir = "";
+    private int journalSegmentSize = 8 * 1024 * 1024;
+    private int journalSegments = 16;
+    private MessageJournal.SyncPolicy journalSync = MessageJournal.SyncPolicy.INTERVAL;
+    private int journalSyncIntervalMillis = 1000;
+    private int journalReplay = 20;
+    private ServerLog.Level logLevel = ServerLog.Level.INFO;
+    private String logDir = "";
+    private int logFileSize = 10 * 1024 * 1024;
+    private int logFiles = 5;
+    private int logQueueCapacity = 65536;
+    private boolean logConsole = true;
+    private boolean jmx = true;
+    private int clusterPort = 0;
+    private String clusterPeers = "";
+    private String clusterNode = "";
+    private boolean headless;
+
+    /**
+     * 解析命令行参数，若指定了 --config 则先加载该文件
+     * @param args 命令行参数
+     * @return 配置
+     * @throws IOException              配置文件读取失败
+     * @throws IllegalArgumentException 参数非法
+     */
+    static ServerConfig fromArgs(String[] args) throws IOException {
+        Properties props = new Properties();
+        Properties overrides = new Properties();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数：" + arg);
+            }
+            String option = arg.substring(2);
+            int eq = option.indexOf('=');
+            String key = eq < 0 ? option : option.substring(0, eq);
+            String value = eq < 0 ? "true" : option.substring(eq + 1);
+            if (key.equals("config")) {
+                try (InputStream in = new FileInputStream(value)) {
+                    props.load(in);
+                }
+            } else {
+                overrides.setProperty(key.replace('-', '.'), value);
+            }
+        }
+        props.putAll(overrides);
+
+        ServerConfig config = new ServerConfig();
+        config.apply(props);
+        return config;
+    }
+
+    /**
+     * 用 properties 中的配置项覆盖当前值
+     * @param props 配置项
+     */
+    void apply(Properties props) {
+        for (String key : props.stringPropertyNames()) {
+            String value = props.getProperty(key).trim();
+            switch (key) {
+                case "port":
+                    setPort(parseInt(key, value));
+                    break;
+                case "mode":
+                    setMode(ServerMode.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "queue.capacity":
+                    setOutboundCapacity(parseInt(key, value));
+                    break;
+                case "overflow":
+                case "overflow.policy":
+                    setOverflowPolicy(OverflowPolicy.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "nio.loops":
+                    setNioLoops(parseInt(key, value));
+                    break;
+                case "message.queue":
+                    setMessageQueueCapacity(parseInt(key, value));
+                    break;
+                case "message.queue.policy":
+                    setMessageQueuePolicy(QueueFullPolicy.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "fanout.shards":
+                    setFanoutShards(parseInt(key, value));
+                    break;
+                case "handshake.timeout":
+                    setHandshakeTimeoutMillis(parseInt(key, value));
+                    break;
+                case "handshake.max":
+                    setMaxHandshakes(parseInt(key, value));
+                    break;
+                case "name.max":
+                    setMaxNameLength(parseInt(key, value));
+                    break;
+                case "rate.messages":
+                    setRateMessages(parseInt(key, value));
+                    break;
+                case "rate.bytes":
+                    setRateBytes(parseInt(key, value));
+                    break;
+                case "flood.kick":
+                    setFloodKick(parseInt(key, value));
+                    break;
+                case "flush.window":
+                    setFlushWindowMicros(parseInt(key, value));
+                    break;
+                case "flush.buffer":
+                    setFlushBufferSize(parseInt(key, value));
+                    break;
+                case "deflate":
+                    this.deflate = Boolean.parseBoolean(value);
+                    break;
+                case "log.scrollback":
+                    setLogScrollback(parseInt(key, value));
+                    break;
+                case "journal.dir":
+                    this.journalDir = value;
+                    break;
+                case "journal.segment.size":
+                    setJournalSegmentSize(parseInt(key, value));
+                    break;
+                case "journal.segments":
+                    setJournalSegments(parseInt(key, value));
+                    break;
+                case "journal.fsync":
+                    setJournalSync(MessageJournal.SyncPolicy.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "journal.fsync.interval":
+                    setJournalSyncIntervalMillis(parseInt(key, value));
+                    break;
+                case "journal.replay":
+                    setJournalReplay(parseInt(key, value));
+                    break;
+                case "log.level":
+                    setLogLevel(ServerLog.Level.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "log.dir":
+                    this.logDir = value;
+                    break;
+                case "log.file.size":
+                    setLogFileSize(parseInt(key, value));
+                    break;
+                case "log.files":
+                    setLogFiles(parseInt(key, value));
+                    break;
+                case "log.queue":
+                    setLogQueueCapacity(parseInt(key, value));
+                    break;
+                case "log.console":
+                    this.logConsole = Boolean.parseBoolean(value);
+                    break;
+                case "jmx":
+                    this.jmx = Boolean.parseBoolean(value);
+                    break;
+                case "cluster.port":
+                    setClusterPort(parseInt(key, value));
+                    break;
+                case "cluster.peers":
+                    setClusterPeers(value);
+                    break;
+                case "cluster.node":
+                    this.clusterNode = value;
+                    break;
+                case "headless":
+                    this.headless = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的配置项：" + key);
+            }
+        }
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("配置项 " + key + " 不是整数：" + value);
+        }
+    }
+
+    int getPort() {
+        return this.port;
+    }
+
+    void setPort(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("端口号非法：" + port);
+        }
+        this.port = port;
+    }
+
+    ServerMode getMode() {
+        return this.mode;
+    }
+
+    void setMode(ServerMode mode) {
+        this.mode = mode;
+    }
+
+    int getOutboundCapacity() {
+        return this.outboundCapacity;
+    }
+
+    void setOutboundCapacity(int outboundCapacity) {
+        if (outboundCapacity <= 0) {
+            throw new IllegalArgumentException("队列上限非法：" + outboundCapacity);
+        }
+        this.outboundCapacity = outboundCapacity;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    int getNioLoops() {
+        return this.nioLoops;
+    }
+
+    void setNioLoops(int nioLoops) {
+        if (nioLoops <= 0) {
+            throw new IllegalArgumentException("NIO 事件循环线程数非法：" + nioLoops);
+        }
+        this.nioLoops = nioLoops;
+    }
+
+    int getMessageQueueCapacity() {
+        return this.messageQueueCapacity;
+    }
+
+    void setMessageQueueCapacity(int messageQueueCapacity) {
+        if (messageQueueCapacity <= 0 || messageQueueCapacity > 1 << 30) {
+            throw new IllegalArgumentException("消息队列容量非法：" + messageQueueCapacity);
+        }
+        this.messageQueueCapacity = messageQueueCapacity;
+    }
+
+    QueueFullPolicy getMessageQueuePolicy() {
+        return this.messageQueuePolicy;
+    }
+
+    void setMessageQueuePolicy(QueueFullPolicy messageQueuePolicy) {
+        this.messageQueuePolicy = messageQueuePolicy;
+    }
+
+    int getFanoutShards() {
+        return this.fanoutShards;
+    }
+
+    void setFanoutShards(int fanoutShards) {
+        if (fanoutShards <= 0) {
+            throw new IllegalArgumentException("扇出分片数非法：" + fanoutShards);
+        }
+        this.fanoutShards = fanoutShards;
+    }
+
+    int getHandshakeTimeoutMillis() {
+        return this.handshakeTimeoutMillis;
+    }
+
+    void setHandshakeTimeoutMillis(int handshakeTimeoutMillis) {
+        if (handshakeTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("握手超时时间非法：" + handshakeTimeoutMillis);
+        }
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    int getMaxHandshakes() {
+        return this.maxHandshakes;
+    }
+
+    void setMaxHandshakes(int maxHandshakes) {
+        if (maxHandshakes <= 0) {
+            throw new IllegalArgumentException("握手并发上限非法：" + maxHandshakes);
+        }
+        this.maxHandshakes = maxHandshakes;
+    }
+
+    int getMaxNameLength() {
+        return this.maxNameLength;
+    }
+
+    void setMaxNameLength(int maxNameLength) {
+        if (maxNameLength <= 0) {
+            throw new IllegalArgumentException("昵称最大长度非法：" + maxNameLength);
+        }
+        this.maxNameLength = maxNameLength;
+    }
+
+    int getRateMessages() {
+        return this.rateMessages;
+    }
+
+    void setRateMessages(int rateMessages) {
+        if (rateMessages < 0) {
+            throw new IllegalArgumentException("每秒消息数上限非法：" + rateMessages);
+        }
+        this.rateMessages = rateMessages;
+    }
+
+    int getRateBytes() {
+        return this.rateBytes;
+    }
+
+    void setRateBytes(int rateBytes) {
+        if (rateBytes < 0) {
+            throw new IllegalArgumentException("每秒字节数上限非法：" + rateBytes);
+        }
+        this.rateBytes = rateBytes;
+    }
+
+    int getFloodKick() {
+        return this.floodKick;
+    }
+
+    void setFloodKick(int floodKick) {
+        if (floodKick < 0) {
+            throw new IllegalArgumentException("刷屏踢出的违规次数非法：" + floodKick);
+        }
+        this.floodKick = floodKick;
+    }
+
+    int getFlushWindowMicros() {
+        return this.flushWindowMicros;
+    }
+
+    void setFlushWindowMicros(int flushWindowMicros) {
+        if (flushWindowMicros < 0) {
+            throw new IllegalArgumentException("合并写出窗口非法：" + flushWindowMicros);
+        }
+        this.flushWindowMicros = flushWindowMicros;
+    }
+
+    int getFlushBufferSize() {
+        return this.flushBufferSize;
+    }
+
+    void setFlushBufferSize(int flushBufferSize) {
+        if (flushBufferSize <= 0) {
+            throw new IllegalArgumentException("合并写出缓冲区大小非法：" + flushBufferSize);
+        }
+        this.flushBufferSize = flushBufferSize;
+    }
+
+    boolean isDeflate() {
+        return this.deflate;
+    }
+
+    int getLogScrollback() {
+        return this.logScrollback;
+    }
+
+    void setLogScrollback(int logScrollback) {
+        if (logScrollback <= 0) {
+            throw new IllegalArgumentException("保留行数非法：" + logScrollback);
+        }
+        this.logScrollback = logScrollback;
+    }
+
+    String getJournalDir() {
+        return this.journalDir;
+    }
+
+    void setJournalDir(String journalDir) {
+        this.journalDir = journalDir;
+    }
+
+    int getJournalSegmentSize() {
+        return this.journalSegmentSize;
+    }
+
+    void setJournalSegmentSize(int journalSegmentSize) {
+        if (journalSegmentSize < 4096) {
+            throw new IllegalArgumentException("日志分段大小非法（至少 4096 字节）：" + journalSegmentSize);
+        }
+        this.journalSegmentSize = journalSegmentSize;
+    }
+
+    int getJournalSegments() {
+        return this.journalSegments;
+    }
+
+    void setJournalSegments(int journalSegments) {
+        if (journalSegments <= 0) {
+            throw new IllegalArgumentException("日志分段保留数非法：" + journalSegments);
+        }
+        this.journalSegments = journalSegments;
+    }
+
+    MessageJournal.SyncPolicy getJournalSync() {
+        return this.journalSync;
+    }
+
+    void setJournalSync(MessageJournal.SyncPolicy journalSync) {
+        this.journalSync = journalSync;
+    }
+
+    int getJournalSyncIntervalMillis() {
+        return this.journalSyncIntervalMillis;
+    }
+
+    void setJournalSyncIntervalMillis(int journalSyncIntervalMillis) {
+        if (journalSyncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("日志刷盘间隔非法：" + journalSyncIntervalMillis);
+        }
+        this.journalSyncIntervalMillis = journalSyncIntervalMillis;
+    }
+
+    int getJournalReplay() {
+        return this.journalReplay;
+    }
+
+    void setJournalReplay(int journalReplay) {
+        if (journalReplay < 0) {
+            throw new IllegalArgumentException("补发消息条数非法：" + journalReplay);
+        }
+        this.journalReplay = journalReplay;
+    }
+
+    ServerLog.Level getLogLevel() {
+        return this.logLevel;
+    }
+
+    void setLogLevel(ServerLog.Level logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    String getLogDir() {
+        return this.logDir;
+    }
+
+    void setLogDir(String logDir) {
+        this.logDir = logDir;
+    }
+
+    int getLogFileSize() {
+        return this.logFileSize;
+    }
+
+    void setLogFileSize(int logFileSize) {
+        if (logFileSize <= 0) {
+            throw new IllegalArgumentException("日志文件大小非法：" + logFileSize);
+        }
+        this.logFileSize = logFileSize;
+    }
+
+    int getLogFiles() {
+        return this.logFiles;
+    }
+
+    void setLogFiles(int logFiles) {
+        if (logFiles <= 0) {
+            throw new IllegalArgumentException("日志文件保留数非法：" + logFiles);
+        }
+        this.logFiles = logFiles;
+    }
+
+    int getLogQueueCapacity() {
+        return this.logQueueCapacity;
+    }
+
+    void setLogQueueCapacity(int logQueueCapacity) {
+        if (logQueueCapacity <= 0) {
+            throw new IllegalArgumentException("日志队列容量非法：" + logQueueCapacity);
+        }
+        this.logQueueCapacity = logQueueCapacity;
+    }
+
+    boolean isLogConsole() {
+        return this.logConsole;
+    }
+
+    boolean isJmx() {
+        return this.jmx;
+    }
+
+    void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    int getClusterPort() {
+        return this.clusterPort;
+    }
+
+    void setClusterPort(int clusterPort) {
+        if (clusterPort < 0 || clusterPort > 65535) {
+            throw new IllegalArgumentException("集群端口号非法：" + clusterPort);
+        }
+        this.clusterPort = clusterPort;
+    }
+
+    String getClusterPeers() {
+        return this.clusterPeers;
+    }
+
+    void setClusterPeers(String clusterPeers) {
+        ClusterNode.parsePeers(clusterPeers);
+        this.clusterPeers = clusterPeers;
+    }
+
+    /**
+     * @return 本节点名，未配置时为 node-聊天端口
+     */
+    String getClusterNode() {
+        return this.clusterNode.isEmpty() ? "node-" + this.port : this.clusterNode;
+    }
+
+    void setClusterNode(String clusterNode) {
+        this.clusterNode = clusterNode;
+    }
+
+    boolean isHeadless() {
+        return this.headless;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * 服务器核心的事件监听器，供管理界面等观察者使用。
+ * 回调在服务器的网络线程中执行，实现方需自行切换到界面线程
+ */
+interface ServerListener {
+    /**
+     * 服务器已开始接受连接
+     */
+    default void onStarted() {
+    }
+
+    /**
+     * 服务器已停止
+     */
+    default void onStopped() {
+    }
+
+    /**
+     * 一条带时间前缀的消息已广播
+     * @param formattedMessage 广播的消息
+     */
+    default void onBroadcast(String formattedMessage) {
+    }
+
+    /**
+     * 一条日志消息
+     * @param message 日志内容
+     */
+    default void onLog(String message) {
+    }
+
+    /**
+     * 聊客进入聊天室
+     * @param name 昵称
+     */
+    default void onUserJoined(String name) {
+    }
+
+    /**
+     * 聊客离开或被踢出聊天室
+     * @param name 昵称
+     */
+    default void onUserLeft(String name) {
+    }
+}
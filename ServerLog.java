@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 服务器的异步结构化日志：调用方只把记录放入无锁队列，由后台写线程批量格式化，
+ * 写入按大小轮转的日志文件（及控制台）。每条记录带级别、事件名，可选的用户和耗时字段。
+ * 队列已满时直接丢弃记录并计数，调用方从不等待输出
+ * <pre>
+ * 2024-06-01 12:00:00.123 INFO  event=broadcast user=- latency_us=35 msg="【12:00:00】张三：你好"
+ * </pre>
+ */
+final class ServerLog {
+    /** 日志级别 */
+    enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final String FILE_NAME = "server.log";
+    private static final int MAX_BATCH = 1024;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final Level level;
+    private final int capacity;
+    private final Path dir;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final PrintStream console;
+
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger(); // 队列中的记录数，用于限制容量
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running;
+    private volatile boolean sleeping; // 写线程已无事可做，正在等待唤醒
+    private Thread writerThread;
+
+    // 以下字段只在写线程中访问
+    private FileChannel file;
+    private long fileSize;
+    private long reportedDrops;
+    private final StringBuilder batch = new StringBuilder();
+
+    /**
+     * @param level       最低输出级别
+     * @param capacity    队列中最多积压的记录数，超出时丢弃
+     * @param dir         日志文件目录，为 null 时不写文件
+     * @param maxFileSize 单个日志文件的字节数上限，超出时轮转
+     * @param maxFiles    最多保留的日志文件数（含当前文件）
+     * @param console     同时输出到控制台，为 null 时不输出
+     */
+    ServerLog(Level level, int capacity, Path dir, long maxFileSize, int maxFiles, PrintStream console) {
+        this.level = level;
+        this.capacity = capacity;
+        this.dir = dir;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.console = console;
+    }
+
+    /**
+     * 按服务器配置创建日志
+     * @param config 服务器配置
+     * @return 尚未启动的日志
+     */
+    static ServerLog fromConfig(ServerConfig config) {
+        String dir = config.getLogDir();
+        return new ServerLog(config.getLogLevel(), config.getLogQueueCapacity(),
+                dir.isEmpty() ? null : Paths.get(dir), config.getLogFileSize(), config.getLogFiles(),
+                config.isLogConsole() ? System.out : null);
+    }
+
+    /**
+     * 打开日志文件并启动写线程
+     * @throws IOException 日志目录或文件无法打开
+     */
+    void start() throws IOException {
+        if (this.dir != null) {
+            Files.createDirectories(this.dir);
+            openFile();
+        }
+        this.running = true;
+        this.writerThread = new Thread(this::writeLoop, "log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 写完队列中剩余的记录后停止写线程，关闭日志文件
+     */
+    void stop() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        LockSupport.unpark(this.writerThread);
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param level 级别
+     * @return 该级别的记录是否会被输出，调用方可据此跳过拼接消息
+     */
+    boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    void debug(String event, String user, String message) {
+        log(Level.DEBUG, event, user, -1, message);
+    }
+
+    void info(String event, String user, String message) {
+        log(Level.INFO, event, user, -1, message);
+    }
+
+    void warn(String event, String user, String message) {
+        log(Level.WARN, event, user, -1, message);
+    }
+
+    void error(String event, String user, String message) {
+        log(Level.ERROR, event, user, -1, message);
+    }
+
+    /**
+     * 记录一条日志，不阻塞：只做入队，队列已满或日志未启动时丢弃并计数
+     * @param level        级别
+     * @param event        事件名，如 broadcast、join
+     * @param user         相关的用户，没有时为 null
+     * @param latencyNanos 相关的耗时，纳秒，没有时为负数
+     * @param message      消息内容
+     */
+    void log(Level level, String event, String user, long latencyNanos, String message) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        if (!this.running) {
+            this.dropped.increment();
+            return;
+        }
+        if (this.queued.incrementAndGet() > this.capacity) {
+            this.queued.decrementAndGet();
+            this.dropped.increment();
+            return;
+        }
+        this.queue.offer(new Record(System.currentTimeMillis(), level, event, user, latencyNanos, message));
+        if (this.sleeping) {
+            LockSupport.unpark(this.writerThread);
+        }
+    }
+
+    /**
+     * @return 因队列已满而丢弃的记录数
+     */
+    long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * 写线程主循环：取出积压的记录，格式化为一批后一次写出；没有记录时休眠直到被唤醒
+     */
+    private void writeLoop() {
+        while (true) {
+            if (this.queue.isEmpty()) {
+                if (!this.running) {
+                    break;
+                }
+                this.sleeping = true;
+                // 设置标志后再检查一次，避免错过在此之间入队的记录
+                if (this.queue.isEmpty() && this.running) {
+                    LockSupport.park(this);
+                }
+                this.sleeping = false;
+                continue;
+            }
+            drainBatch();
+        }
+        closeFile();
+    }
+
+    private void drainBatch() {
+        this.batch.setLength(0);
+        Record record;
+        int count = 0;
+        while (count < MAX_BATCH && (record = this.queue.poll()) != null) {
+            this.queued.decrementAndGet();
+            record.format(this.batch);
+            count++;
+        }
+        long drops = this.dropped.sum();
+        if (drops > this.reportedDrops) {
+            new Record(System.currentTimeMillis(), Level.WARN, "log_dropped", null, -1,
+                    "日志积压，已丢弃 " + (drops - this.reportedDrops) + " 条，累计 " + drops + " 条").format(this.batch);
+            this.reportedDrops = drops;
+        }
+
+        if (this.console != null) {
+            this.console.print(this.batch);
+            this.console.flush();
+        }
+        if (this.file != null) {
+            byte[] bytes = this.batch.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                if (this.fileSize > 0 && this.fileSize + bytes.length > this.maxFileSize) {
+                    rotate();
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    this.file.write(buffer);
+                }
+                this.fileSize += bytes.length;
+            } catch (IOException e) {
+                // 文件写不进去时只能退回控制台
+                System.err.println("写入日志文件时出错: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 轮转：server.log 改名为 server.log.1，原有的编号依次加一，超出保留数的删除
+     */
+    private void rotate() throws IOException {
+        closeFile();
+        Files.deleteIfExists(this.dir.resolve(FILE_NAME + "." + (this.maxFiles - 1)));
+        for (int i = this.maxFiles - 2; i >= 1; i--) {
+            Path source = this.dir.resolve(FILE_NAME + "." + i);
+            if (Files.exists(source)) {
+                Files.move(source, this.dir.resolve(FILE_NAME + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (this.maxFiles > 1) {
+            Files.move(this.dir.resolve(FILE_NAME), this.dir.resolve(FILE_NAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(this.dir.resolve(FILE_NAME));
+        }
+        openFile();
+    }
+
+    private void openFile() throws IOException {
+        this.file = FileChannel.open(this.dir.resolve(FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.fileSize = this.file.size();
+    }
+
+    private void closeFile() {
+        if (this.file == null) {
+            return;
+        }
+        try {
+            this.file.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+        this.file = null;
+    }
+
+    /**
+     * 一条日志记录，由写线程格式化
+     */
+    private static final class Record {
+        final long time;
+        final Level level;
+        final String event;
+        final String user;
+        final long latencyNanos;
+        final String message;
+
+        Record(long time, Level level, String event, String user, long latencyNanos, String message) {
+            this.time = time;
+            this.level = level;
+            this.event = event;
+            this.user = user;
+            this.latencyNanos = latencyNanos;
+            this.message = message;
+        }
+
+        void format(StringBuilder out) {
+            TIME_FORMAT.formatTo(Instant.ofEpochMilli(this.time), out);
+            out.append(' ').append(this.level);
+            if (this.level.name().length() < 5) {
+                out.append(' ');
+            }
+            out.append(" event=").append(this.event);
+            out.append(" user=").append(this.user == null ? "-" : this.user);
+            if (this.latencyNanos >= 0) {
+                out.append(" latency_us=").append(this.latencyNanos / 1000);
+            }
+            out.append(" msg=\"");
+            // 多行消息与引号转义，保证一条记录占一行
+            for (int i = 0; i < this.message.length(); i++) {
+                char c = this.message.charAt(i);
+                if (c == '\n') {
+                    out.append("\\n");
+                } else if (c == '\r') {
+                    out.append("\\r");
+                } else if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append("\"\n");
+        }
+    }
+}
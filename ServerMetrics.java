@@ -0,0 +1,340 @@
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 服务器运行指标。网络线程记录时只做 {@link LongAdder} 分段计数和直方图的一次原子自增，
+ * 不加锁、不分配对象；队列深度、积压数等瞬时值在读取时才计算。
+ * 通过 JMX 暴露，管理窗口的指标面板读取的也是同一组数值
+ */
+final class ServerMetrics implements ServerMetricsMBean {
+    private final ClientRegistry clients;
+    private final RoomRegistry rooms;
+    private final MessageRing messageQueue;
+    private final HandshakeGate handshakeGate;
+    private final ClusterNode cluster; // 未组成集群时为 null
+
+    private final LongAdder joins = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder directMessages = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder floodKicks = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+    private ObjectName registeredName; // 已注册到 JMX 时的名称
+
+    // 速率采样，只在读取时更新
+    private long sampledAt = System.nanoTime();
+    private long sampledJoins;
+    private long sampledLeaves;
+    private double joinRate;
+    private double leaveRate;
+
+    /**
+     * @param clients       客户端注册表
+     * @param rooms         房间注册表
+     * @param messageQueue  待广播的消息队列
+     * @param handshakeGate 本次启动的登录握手统计
+     * @param cluster       集群节点，未组成集群时为 null
+     */
+    ServerMetrics(ClientRegistry clients, RoomRegistry rooms, MessageRing messageQueue,
+                  HandshakeGate handshakeGate, ClusterNode cluster) {
+        this.clients = clients;
+        this.rooms = rooms;
+        this.messageQueue = messageQueue;
+        this.handshakeGate = handshakeGate;
+        this.cluster = cluster;
+    }
+
+    /**
+     * 注册到平台 MBeanServer
+     * @param port 服务器端口，用于区分同一进程中的多个服务器
+     * @throws JMException 名称已被占用等注册失败
+     */
+    void register(int port) throws JMException {
+        ObjectName name = new ObjectName("bjfu.chatroom:type=ChatServer,port=" + port);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        this.registeredName = name;
+    }
+
+    /**
+     * 从平台 MBeanServer 注销，未注册时什么也不做
+     */
+    void unregister() {
+        if (this.registeredName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(this.registeredName);
+        } catch (JMException e) {
+            // 已被注销
+        }
+        this.registeredName = null;
+    }
+
+    void onJoin() {
+        this.joins.increment();
+    }
+
+    void onLeave() {
+        this.leaves.increment();
+    }
+
+    /**
+     * 记录一次广播扇出
+     * @param nanos 向所有连接入队的耗时
+     */
+    void onBroadcast(long nanos) {
+        this.broadcasts.increment();
+        this.fanOut.record(nanos);
+    }
+
+    void onDirect() {
+        this.directMessages.increment();
+    }
+
+    void onThrottled() {
+        this.throttled.increment();
+    }
+
+    void onFloodKick() {
+        this.floodKicks.increment();
+    }
+
+    void onBytesIn(long bytes) {
+        this.bytesIn.add(bytes);
+    }
+
+    void onBytesOut(long bytes) {
+        this.bytesOut.add(bytes);
+    }
+
+    /**
+     * 包装输入流，读取的字节计入 {@link #getBytesIn()}
+     */
+    InputStream countIn(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    onBytesIn(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    onBytesIn(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * 包装输出流，写出的字节计入 {@link #getBytesOut()}
+     */
+    OutputStream countOut(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                this.out.write(b);
+                onBytesOut(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                this.out.write(b, off, len);
+                onBytesOut(len);
+            }
+        };
+    }
+
+    /**
+     * 距上次采样满一秒时更新加入和离开速率
+     */
+    private synchronized void sampleRates() {
+        long now = System.nanoTime();
+        long elapsed = now - this.sampledAt;
+        if (elapsed < TimeUnit.SECONDS.toNanos(1)) {
+            return;
+        }
+        long joinsNow = this.joins.sum();
+        long leavesNow = this.leaves.sum();
+        double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+        this.joinRate = (joinsNow - this.sampledJoins) / seconds;
+        this.leaveRate = (leavesNow - this.sampledLeaves) / seconds;
+        this.sampledJoins = joinsNow;
+        this.sampledLeaves = leavesNow;
+        this.sampledAt = now;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return this.clients.size();
+    }
+
+    @Override
+    public int getRooms() {
+        return this.rooms.size();
+    }
+
+    @Override
+    public long getJoins() {
+        return this.joins.sum();
+    }
+
+    @Override
+    public long getLeaves() {
+        return this.leaves.sum();
+    }
+
+    @Override
+    public synchronized double getJoinsPerSecond() {
+        sampleRates();
+        return this.joinRate;
+    }
+
+    @Override
+    public synchronized double getLeavesPerSecond() {
+        sampleRates();
+        return this.leaveRate;
+    }
+
+    @Override
+    public int getMessageQueueDepth() {
+        return this.messageQueue.size();
+    }
+
+    @Override
+    public int getMessageQueueCapacity() {
+        return this.messageQueue.capacity();
+    }
+
+    @Override
+    public long getMessageQueueDropped() {
+        return this.messageQueue.dropped();
+    }
+
+    @Override
+    public long getBroadcasts() {
+        return this.broadcasts.sum();
+    }
+
+    @Override
+    public long getDirectMessages() {
+        return this.directMessages.sum();
+    }
+
+    @Override
+    public long getThrottled() {
+        return this.throttled.sum();
+    }
+
+    @Override
+    public long getFloodKicks() {
+        return this.floodKicks.sum();
+    }
+
+    @Override
+    public long getFanOutP50Micros() {
+        return this.fanOut.percentileMicros(0.50);
+    }
+
+    @Override
+    public long getFanOutP99Micros() {
+        return this.fanOut.percentileMicros(0.99);
+    }
+
+    @Override
+    public long getFanOutP999Micros() {
+        return this.fanOut.percentileMicros(0.999);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return this.bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return this.bytesOut.sum();
+    }
+
+    @Override
+    public int getMaxClientBacklog() {
+        int max = 0;
+        for (ChatConnection client : this.clients.connections()) {
+            max = Math.max(max, client.getQueueDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public long getTotalClientBacklog() {
+        long total = 0;
+        for (ChatConnection client : this.clients.connections()) {
+            total += client.getQueueDepth();
+        }
+        return total;
+    }
+
+    @Override
+    public long getHandshakeFailures() {
+        return getHandshakeRejected() + getHandshakeTimeouts() + getHandshakeInvalid();
+    }
+
+    @Override
+    public long getHandshakeRejected() {
+        return this.handshakeGate.getRejected();
+    }
+
+    @Override
+    public long getHandshakeTimeouts() {
+        return this.handshakeGate.getTimedOut();
+    }
+
+    @Override
+    public long getHandshakeInvalid() {
+        return this.handshakeGate.getInvalid();
+    }
+
+    @Override
+    public int getClusterPeers() {
+        return this.cluster == null ? 0 : this.cluster.getConnectedPeers();
+    }
+
+    @Override
+    public int getClusterClients() {
+        return this.cluster == null ? getConnectedClients() : this.cluster.getClusterClients();
+    }
+
+    @Override
+    public long getRelayedOut() {
+        return this.cluster == null ? 0 : this.cluster.getRelayedOut();
+    }
+
+    @Override
+    public long getRelayedIn() {
+        return this.cluster == null ? 0 : this.cluster.getRelayedIn();
+    }
+
+    @Override
+    public long getRelayDropped() {
+        return this.cluster == null ? 0 : this.cluster.getDropped();
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * 服务器运行指标的 JMX 接口，注册名为 {@code bjfu.chatroom:type=ChatServer,port=端口}，
+ * 可用 jconsole 等工具查看。JMX 要求标准 MBean 的接口为 public
+ */
+public interface ServerMetricsMBean {
+    /**
+     * @return 当前在线的聊客数
+     */
+    int getConnectedClients();
+
+    /**
+     * @return 当前的房间数（含大厅）
+     */
+    int getRooms();
+
+    /**
+     * @return 启动以来加入的聊客数
+     */
+    long getJoins();
+
+    /**
+     * @return 启动以来离开（含被踢出）的聊客数
+     */
+    long getLeaves();
+
+    /**
+     * @return 最近一秒左右每秒加入的聊客数
+     */
+    double getJoinsPerSecond();
+
+    /**
+     * @return 最近一秒左右每秒离开的聊客数
+     */
+    double getLeavesPerSecond();
+
+    /**
+     * @return 待广播的消息队列中的消息数
+     */
+    int getMessageQueueDepth();
+
+    /**
+     * @return 待广播的消息队列的容量
+     */
+    int getMessageQueueCapacity();
+
+    /**
+     * @return 待广播的消息队列已满时丢弃或拒绝的消息数
+     */
+    long getMessageQueueDropped();
+
+    /**
+     * @return 启动以来广播的消息数
+     */
+    long getBroadcasts();
+
+    /**
+     * @return 启动以来送达的私聊数
+     */
+    long getDirectMessages();
+
+    /**
+     * @return 超出发言限速而暂停读取的次数
+     */
+    long getThrottled();
+
+    /**
+     * @return 持续超出发言限速被自动踢出的聊客数
+     */
+    long getFloodKicks();
+
+    /**
+     * @return 广播扇出到所有连接耗时的中位数上界，微秒
+     */
+    long getFanOutP50Micros();
+
+    /**
+     * @return 广播扇出到所有连接耗时的 p99 上界，微秒
+     */
+    long getFanOutP99Micros();
+
+    /**
+     * @return 广播扇出到所有连接耗时的 p999 上界，微秒
+     */
+    long getFanOutP999Micros();
+
+    /**
+     * @return 启动以来从客户端读取的字节数
+     */
+    long getBytesIn();
+
+    /**
+     * @return 启动以来写出给客户端的字节数
+     */
+    long getBytesOut();
+
+    /**
+     * @return 各连接待发送队列积压数的最大值
+     */
+    int getMaxClientBacklog();
+
+    /**
+     * @return 各连接待发送队列积压数之和
+     */
+    long getTotalClientBacklog();
+
+    /**
+     * @return 登录握手失败数：超出握手上限、超时和昵称无效之和
+     */
+    long getHandshakeFailures();
+
+    /**
+     * @return 超出握手上限被直接关闭的连接数
+     */
+    long getHandshakeRejected();
+
+    /**
+     * @return 登录握手超时的连接数
+     */
+    long getHandshakeTimeouts();
+
+    /**
+     * @return 昵称无效或已被占用的登录数
+     */
+    long getHandshakeInvalid();
+
+    /**
+     * @return 已连接的其他集群节点数，未组成集群时为 0
+     */
+    int getClusterPeers();
+
+    /**
+     * @return 全集群的在线聊客数，未组成集群时等于本节点的在线数
+     */
+    int getClusterClients();
+
+    /**
+     * @return 转发给其他节点的消息数
+     */
+    long getRelayedOut();
+
+    /**
+     * @return 从其他节点收到的转发消息数
+     */
+    long getRelayedIn();
+
+    /**
+     * @return 节点间链路的发送队列已满而丢弃的帧数
+     */
+    long getRelayDropped();
+}
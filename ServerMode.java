@@ -0,0 +1,22 @@
+/**
+ * 服务器连接处理模式，在启动服务时选择
+ */
+enum ServerMode {
+    /** 每个连接一个线程，阻塞读写 */
+    CLASSIC("经典模式"),
+    /** 每个连接一个虚拟线程，阻塞读写（需要 Java 21） */
+    VIRTUAL("虚拟线程模式"),
+    /** Selector 事件循环，少量线程处理所有连接 */
+    NIO("NIO模式");
+
+    private final String label;
+
+    ServerMode(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return this.label;
+    }
+}
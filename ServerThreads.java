@@ -0,0 +1,53 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按服务器模式创建线程：虚拟线程模式使用 Java 21 的 Thread.ofVirtual()，其余模式使用平台线程。
+ * 虚拟线程通过反射获取，在旧版本 JDK 上编译和运行时不会出错，只是不可选。
+ */
+final class ServerThreads {
+    /** Thread.ofVirtual() 返回的构建器，当前 JDK 不支持时为 null */
+    private static final Object VIRTUAL_BUILDER = lookupVirtualBuilder();
+
+    private ServerThreads() {
+    }
+
+    /**
+     * @return 当前 JDK 是否支持虚拟线程
+     */
+    static boolean isVirtualSupported() {
+        return VIRTUAL_BUILDER != null;
+    }
+
+    /**
+     * 创建线程工厂
+     * @param mode   服务器模式
+     * @param prefix 线程名前缀
+     * @return 虚拟线程模式下为虚拟线程工厂，否则为平台线程工厂
+     */
+    static ThreadFactory factory(ServerMode mode, String prefix) {
+        if (mode == ServerMode.VIRTUAL && VIRTUAL_BUILDER != null) {
+            try {
+                Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+                Object named = ofVirtual.getMethod("name", String.class, long.class)
+                        .invoke(VIRTUAL_BUILDER, prefix, 0L);
+                Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+                return (ThreadFactory) factory.invoke(named);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("无法创建虚拟线程工厂", e);
+            }
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        return task -> new Thread(task, prefix + counter.getAndIncrement());
+    }
+
+    private static Object lookupVirtualBuilder() {
+        try {
+            return Thread.class.getMethod("ofVirtual").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
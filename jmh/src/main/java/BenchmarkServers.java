@@ -0,0 +1,31 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * 基准测试中启动真实服务器的辅助方法：不写日志文件和消息日志，只输出警告以上的日志
+ */
+final class BenchmarkServers {
+    private BenchmarkServers() {
+    }
+
+    /**
+     * @param mode 连接处理模式
+     * @return 使用空闲端口的服务器配置
+     * @throws IOException 找不到空闲端口
+     */
+    static ServerConfig config(ServerMode mode) throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setPort(freePort());
+        config.setMode(mode);
+        config.setJournalDir("");
+        config.setLogDir("");
+        config.setLogLevel(ServerLog.Level.WARN);
+        return config;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import bench.Fixture;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 一条广播的完整开销：启动真实服务器，登记若干个桩连接后反复调用 broadcast()。
+ * 房间数大于 1 时桩连接平均分到各房间，只向第一个房间广播
+ * <p>参数：连接数，协议版本，房间数，扇出分片数
+ */
+final class BroadcastFixture implements Fixture {
+    private static final String READY = "bench-ready"; // 文本协议按平台默认字符集编码，标记只用 ASCII
+
+    private final ChatServerCore core;
+    private final ChatRoom target; // 为 null 时发给所有房间
+
+    BroadcastFixture(String[] args) throws Exception {
+        int clients = Integer.parseInt(args[0]);
+        int protocolVersion = Integer.parseInt(args[1]);
+        int rooms = Integer.parseInt(args[2]);
+        ServerConfig config = BenchmarkServers.config(ServerMode.NIO);
+        config.setFanoutShards(Integer.parseInt(args[3]));
+        this.core = new ChatServerCore(config);
+        this.core.start();
+        StubConnection[] stubs = new StubConnection[clients];
+        for (int i = 0; i < clients; i++) {
+            stubs[i] = new StubConnection("user" + i, protocolVersion);
+            if (!this.core.registerClient(stubs[i])) {
+                throw new IllegalStateException("登记失败：user" + i);
+            }
+            if (rooms > 1) {
+                this.core.joinRoom(stubs[i], "room" + (i % rooms));
+            }
+        }
+        this.target = rooms > 1 ? this.core.rooms().get("room0") : null;
+
+        // 等广播线程发完所有进入消息，测量期间不与之争用
+        this.core.enqueueMessage(READY);
+        while (!lastMessage(stubs[0]).endsWith(READY)) {
+            Thread.sleep(10);
+        }
+        for (StubConnection stub : stubs) {
+            stub.arm();
+        }
+    }
+
+    public Object run() {
+        this.core.broadcast(this.target, "张三：大家好，这是一条用于基准测试的聊天消息");
+        return this.core;
+    }
+
+    public void close() {
+        this.core.stop();
+    }
+
+    private static String lastMessage(StubConnection stub) {
+        byte[] frame = stub.getLastFrame();
+        return frame == null ? "" : new String(frame, StandardCharsets.UTF_8).trim();
+    }
+}
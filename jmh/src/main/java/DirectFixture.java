@@ -0,0 +1,58 @@
+import bench.Fixture;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 私聊的完整开销：启动真实服务器，登记若干个桩连接后由第一个连接轮流私聊其余连接，
+ * 包括命令解析、按昵称查找、给对方的通知和给发送方的送达确认
+ * <p>参数：连接数
+ */
+final class DirectFixture implements Fixture {
+    private static final String READY = "bench-ready"; // 文本协议按平台默认字符集编码，标记只用 ASCII
+
+    private final ChatServerCore core;
+    private final StubConnection sender;
+    private final String[] commands;
+    private int next;
+
+    DirectFixture(String[] args) throws Exception {
+        int clients = Integer.parseInt(args[0]);
+        this.core = new ChatServerCore(BenchmarkServers.config(ServerMode.NIO));
+        this.core.start();
+        StubConnection[] stubs = new StubConnection[clients];
+        this.commands = new String[clients - 1];
+        for (int i = 0; i < clients; i++) {
+            stubs[i] = new StubConnection("user" + i, ChatProtocol.BINARY_VERSION);
+            if (!this.core.registerClient(stubs[i])) {
+                throw new IllegalStateException("登记失败：user" + i);
+            }
+            if (i > 0) {
+                this.commands[i - 1] = ChatProtocol.CMD_WHISPER + " user" + i + " 你好，这是一条用于基准测试的私聊";
+            }
+        }
+        this.sender = stubs[0];
+
+        // 等广播线程发完所有进入消息，测量期间不与之争用
+        this.core.enqueueMessage(READY);
+        while (!lastMessage(stubs[0]).endsWith(READY)) {
+            Thread.sleep(10);
+        }
+        for (StubConnection stub : stubs) {
+            stub.arm();
+        }
+    }
+
+    public Object run() {
+        this.next = (this.next + 1) % this.commands.length;
+        this.core.onClientMessage(this.sender, this.commands[this.next]);
+        return this.core;
+    }
+
+    public void close() {
+        this.core.stop();
+    }
+
+    private static String lastMessage(StubConnection stub) {
+        byte[] frame = stub.getLastFrame();
+        return frame == null ? "" : new String(frame, StandardCharsets.UTF_8).trim();
+    }
+}
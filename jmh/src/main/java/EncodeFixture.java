@@ -0,0 +1,23 @@
+import bench.Fixture;
+
+/**
+ * 广播消息按协议编码：文本行或二进制帧
+ * <p>参数：编码（text、frame）
+ */
+final class EncodeFixture implements Fixture {
+    private final boolean text;
+    private final String message = "【12:00:00】张三：大家好，这是一条用于基准测试的聊天消息";
+
+    EncodeFixture(String[] args) {
+        this.text = args[0].equals("text");
+    }
+
+    public Object run() {
+        return this.text
+                ? ChatProtocol.encodeText(this.message)
+                : ChatProtocol.encodeFrame(ChatProtocol.TYPE_CHAT, 1, this.message);
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,71 @@
+import bench.Fixture;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 广播一条消息到若干个连接的编码开销：perClient 与改为只编码一次之前相同，每个连接各用一个自动刷新的
+ * PrintWriter 调用 println，字符集编码做 N 次；shared 按文本协议只编码一次，各连接在写锁内写出同一个字节数组。
+ * 连接的输出流只统计字节数，不涉及套接字
+ * <p>参数：连接数，路径（perClient、shared）
+ */
+final class EncodeOnceFixture implements Fixture {
+    private final String message = "【12:00:00】张三：大家好，这是一条用于基准测试的聊天消息";
+    private final boolean shared;
+    private final CountingStream[] streams;
+    private final PrintWriter[] writers;
+    private final ReentrantLock[] locks;
+
+    EncodeOnceFixture(String[] args) {
+        int clients = Integer.parseInt(args[0]);
+        this.shared = args[1].equals("shared");
+        this.streams = new CountingStream[clients];
+        this.writers = new PrintWriter[clients];
+        this.locks = new ReentrantLock[clients];
+        for (int i = 0; i < clients; i++) {
+            this.streams[i] = new CountingStream();
+            this.writers[i] = new PrintWriter(this.streams[i], true);
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    public Object run() throws Exception {
+        if (!this.shared) {
+            for (PrintWriter writer : this.writers) {
+                writer.println(this.message);
+            }
+            return this.writers;
+        }
+        byte[] frame = ChatProtocol.encodeLine(this.message);
+        for (int i = 0; i < this.streams.length; i++) {
+            ReentrantLock lock = this.locks[i];
+            lock.lock();
+            try {
+                this.streams[i].write(frame);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return frame;
+    }
+
+    public void close() {
+    }
+
+    /**
+     * 只统计写入字节数的输出流
+     */
+    private static final class CountingStream extends OutputStream {
+        private long bytes;
+
+        @Override
+        public void write(int b) {
+            this.bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.bytes += len;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import bench.Fixture;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 经回环地址的完整登录：建立连接、发送昵称、读到 OK 应答后断开
+ * <p>参数：服务器模式（classic、nio、virtual）
+ */
+final class HandshakeFixture implements Fixture {
+    private final ChatServerCore core;
+    private final int port;
+    private int next;
+
+    HandshakeFixture(String[] args) throws IOException {
+        ServerConfig config = BenchmarkServers.config(ServerMode.valueOf(args[0].toUpperCase()));
+        this.port = config.getPort();
+        this.core = new ChatServerCore(config);
+        this.core.start();
+    }
+
+    public Object run() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            out.write(("bench" + (this.next++) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            int length = 0;
+            int b;
+            while ((b = in.read()) >= 0 && b != '\n') {
+                length++;
+            }
+            if (length != 2) {
+                throw new IOException("登录未被接受");
+            }
+            return length;
+        }
+    }
+
+    public void close() {
+        this.core.stop();
+    }
+}
@@ -0,0 +1,63 @@
+import bench.Fixture;
+import java.awt.EventQueue;
+import javax.swing.JList;
+import javax.swing.JTextArea;
+
+/**
+ * 客户端聊天区域在 Swing 线程中追加一批消息的开销，历史先预填到指定行数。
+ * textArea 为改用有界列表之前的 JTextArea，文档随历史无限增长；
+ * bounded 为 ChatClient 使用的 BoundedLogModel（保留 5000 行）与 JList，一批消息在一次刷新中应用
+ * <p>参数：预填的历史行数，视图（textArea、bounded）
+ */
+final class HistoryFixture implements Fixture {
+    /** 每次操作追加的行数，相当于一个刷新周期内到达的消息 */
+    static final int BATCH = 100;
+    private static final int KEPT_LINES = 5000;
+    private static final String LINE = "【12:00:00】张三：大家好，这是一条用于基准测试的聊天消息";
+
+    private final boolean bounded;
+    private JTextArea area;
+    private BoundedLogModel model;
+    private JList<String> list;
+
+    HistoryFixture(String[] args) throws Exception {
+        int history = Integer.parseInt(args[0]);
+        this.bounded = args[1].equals("bounded");
+        EventQueue.invokeAndWait(() -> {
+            if (this.bounded) {
+                this.model = new BoundedLogModel(KEPT_LINES, BoundedLogModel.DEFAULT_REFRESH_MILLIS);
+                this.list = new JList<>(this.model);
+                this.list.setPrototypeCellValue(LINE);
+                for (int i = 0; i < history; i++) {
+                    this.model.append(LINE);
+                }
+                this.model.refresh();
+            } else {
+                this.area = new JTextArea();
+                this.area.append((LINE + "\n").repeat(history));
+            }
+        });
+    }
+
+    public Object run() throws Exception {
+        EventQueue.invokeAndWait(this.bounded ? this::appendBounded : this::appendTextArea);
+        return this.bounded ? this.model : this.area;
+    }
+
+    private void appendTextArea() {
+        for (int i = 0; i < BATCH; i++) {
+            this.area.append(LINE + "\n");
+        }
+    }
+
+    private void appendBounded() {
+        for (int i = 0; i < BATCH; i++) {
+            this.model.append(LINE);
+        }
+        this.model.refresh();
+        this.list.ensureIndexIsVisible(this.model.getSize() - 1);
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,75 @@
+import bench.Fixture;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * 广播线程记录一条广播日志的开销，控制台为一个慢速输出（如接到管道上由另一个进程逐行读取）。
+ * println 与改用 ServerLog 之前相同，广播线程直接向自动刷新的 PrintStream 输出一行；
+ * serverLog 只放入 ServerLog 的队列（默认容量），由写线程批量输出，队列满时丢弃并计数
+ * <p>参数：路径（println、serverLog），控制台每次写出的耗时（微秒）
+ */
+final class LogFixture implements Fixture {
+    private static final int QUEUE_CAPACITY = 65536;
+
+    private final String message = "【12:00:00】张三：大家好，这是一条用于基准测试的聊天消息";
+    private final PrintStream console;
+    private final ServerLog log;
+    private final SlowStream sink;
+
+    LogFixture(String[] args) throws Exception {
+        boolean serverLog = args[0].equals("serverLog");
+        this.sink = new SlowStream(Long.parseLong(args[1]) * 1000L);
+        this.console = new PrintStream(new BufferedOutputStream(this.sink), true, "UTF-8");
+        if (serverLog) {
+            this.log = new ServerLog(ServerLog.Level.INFO, QUEUE_CAPACITY, null, 0, 1, this.console);
+            this.log.start();
+        } else {
+            this.log = null;
+        }
+    }
+
+    public Object run() {
+        if (this.log == null) {
+            this.console.println("【广播】" + this.message);
+        } else {
+            this.log.log(ServerLog.Level.INFO, "broadcast", null, 1000L, this.message);
+        }
+        return this.console;
+    }
+
+    public void close() {
+        if (this.log != null) {
+            this.log.stop();
+            System.out.println("dropped=" + this.log.getDropped() + " written=" + this.sink.writes);
+        } else {
+            System.out.println("written=" + this.sink.writes);
+        }
+    }
+
+    /**
+     * 每次写出都忙等指定时长的输出流，模拟读取较慢的控制台
+     */
+    private static final class SlowStream extends OutputStream {
+        private final long nanosPerWrite;
+        private long writes;
+
+        SlowStream(long nanosPerWrite) {
+            this.nanosPerWrite = nanosPerWrite;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.writes++;
+            long until = System.nanoTime() + this.nanosPerWrite;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
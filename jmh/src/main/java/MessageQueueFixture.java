@@ -0,0 +1,88 @@
+import bench.Fixture;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 待广播消息队列的放入与取出：有界环形队列 {@link MessageRing}，
+ * 对照为改用环形队列之前每条消息分配一个 Post 和一个链表节点的 LinkedBlockingQueue。
+ * roundTrip 在同一线程中放入后立即取出；handoff 只放入，由夹具内的分发线程阻塞取出
+ * <p>参数：队列（ring、linked），操作（roundTrip、handoff）
+ */
+final class MessageQueueFixture implements Fixture {
+    /** 与默认配置相同的队列容量；无界的对照队列积压超过该数量时放入线程让出 */
+    private static final int CAPACITY = 65536;
+
+    private final String text = "张三：大家好";
+    private final boolean handoff;
+    private final MessageRing ring;
+    private final BlockingQueue<Post> linked;
+    private final MessageRing.Entry entry = new MessageRing.Entry();
+    private final Thread dispatcher;
+
+    MessageQueueFixture(String[] args) {
+        boolean useRing = args[0].equals("ring");
+        this.handoff = args[1].equals("handoff");
+        this.ring = useRing ? new MessageRing(CAPACITY, QueueFullPolicy.BLOCK) : null;
+        this.linked = useRing ? null : new LinkedBlockingQueue<>();
+        if (!this.handoff) {
+            this.dispatcher = null;
+            return;
+        }
+        this.dispatcher = new Thread(() -> {
+            MessageRing.Entry taken = new MessageRing.Entry();
+            try {
+                while (true) {
+                    if (this.ring != null) {
+                        this.ring.take(taken);
+                    } else {
+                        this.linked.take();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // 夹具关闭
+            }
+        }, "bench-dispatch");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    public Object run() throws Exception {
+        if (this.ring != null) {
+            boolean offered = this.ring.offer(null, this.text, false);
+            if (!this.handoff) {
+                this.ring.take(this.entry);
+            }
+            return offered;
+        }
+        if (this.handoff && this.linked.size() > CAPACITY) {
+            Thread.yield();
+            return false;
+        }
+        boolean offered = this.linked.offer(new Post(null, this.text, false));
+        if (!this.handoff) {
+            return this.linked.take();
+        }
+        return offered;
+    }
+
+    public void close() {
+        if (this.dispatcher != null) {
+            this.dispatcher.interrupt();
+        }
+    }
+
+    /**
+     * 改用环形队列之前每条待广播消息分配的对象
+     */
+    private static final class Post {
+        final ChatRoom room;
+        final String text;
+        final boolean relayed;
+
+        Post(ChatRoom room, String text, boolean relayed) {
+            this.room = room;
+            this.text = text;
+            this.relayed = relayed;
+        }
+    }
+}
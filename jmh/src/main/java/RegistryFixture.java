@@ -0,0 +1,103 @@
+import bench.Fixture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端注册表的操作：按昵称查找（踢人时的查找），以及占用并释放昵称。
+ * 并发下的两种操作：churn 由多个基准线程占用并释放昵称，同时夹具内的一个线程不停遍历注册表（广播扇出）；
+ * fanOut 遍历注册表，同时夹具内的两个线程不停占用并释放昵称（聊客频繁进出）
+ * <p>参数：已登记的连接数，操作（hit、miss、claim、churn、fanOut）
+ */
+final class RegistryFixture implements Fixture {
+    private final ClientRegistry registry = new ClientRegistry();
+    private final String[] names;
+    private final String op;
+    private final StubConnection extra = new StubConnection("newcomer", ChatProtocol.TEXT_VERSION);
+    private final AtomicInteger newcomers = new AtomicInteger();
+    private final ThreadLocal<StubConnection> own = ThreadLocal.withInitial(
+            () -> new StubConnection("newcomer" + this.newcomers.getAndIncrement(), ChatProtocol.TEXT_VERSION));
+    private final List<Thread> background = new ArrayList<>(); // churn、fanOut 中与基准线程并发的线程
+    private volatile boolean closed;
+    private int next;
+
+    RegistryFixture(String[] args) {
+        int clients = Integer.parseInt(args[0]);
+        this.op = args[1];
+        this.names = new String[clients];
+        for (int i = 0; i < clients; i++) {
+            this.names[i] = "user" + i;
+            this.registry.claim(new StubConnection(this.names[i], ChatProtocol.TEXT_VERSION), () -> {
+            });
+        }
+        if (this.op.equals("churn")) {
+            startBackground("bench-fanout", this::fanOut);
+        } else if (this.op.equals("fanOut")) {
+            for (int i = 0; i < 2; i++) {
+                startBackground("bench-churn-" + i, this::churn);
+            }
+        }
+    }
+
+    private void startBackground(String name, Runnable operation) {
+        Thread thread = new Thread(() -> {
+            while (!this.closed) {
+                operation.run();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        this.background.add(thread);
+    }
+
+    /**
+     * 本线程自己的新连接占用并释放昵称
+     */
+    private boolean churn() {
+        StubConnection client = this.own.get();
+        this.registry.claim(client, () -> {
+        });
+        return this.registry.remove(client);
+    }
+
+    /**
+     * 像广播一样遍历所有连接
+     */
+    private int fanOut() {
+        int visited = 0;
+        for (ChatConnection client : this.registry.connections()) {
+            visited += client.getProtocolVersion() + 1;
+        }
+        return visited;
+    }
+
+    public Object run() {
+        switch (this.op) {
+            case "hit":
+                this.next = (this.next + 1) % this.names.length;
+                return this.registry.get(this.names[this.next]);
+            case "miss":
+                return this.registry.get("nobody");
+            case "churn":
+                return churn();
+            case "fanOut":
+                return fanOut();
+            default:
+                this.registry.claim(this.extra, () -> {
+                });
+                return this.registry.remove(this.extra);
+        }
+    }
+
+    public void close() {
+        this.closed = true;
+        for (Thread thread : this.background) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
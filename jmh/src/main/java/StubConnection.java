@@ -0,0 +1,63 @@
+/**
+ * 基准测试用的连接：不持有套接字，发送的帧像 ClientHandler 一样进入有界的待发送队列。
+ * 未启用时只记下最后一帧，供准备阶段确认广播线程已处理完积压的消息
+ */
+final class StubConnection implements ChatConnection {
+    private final String userName;
+    private final int protocolVersion;
+    private final OutboundQueue outbound = new OutboundQueue(1024, OverflowPolicy.DROP_OLDEST);
+    private volatile boolean armed;    // 启用后帧进入待发送队列
+    private volatile byte[] lastFrame; // 未启用时收到的最后一帧
+    private volatile ChatRoom room;
+
+    StubConnection(String userName, int protocolVersion) {
+        this.userName = userName;
+        this.protocolVersion = protocolVersion;
+    }
+
+    void arm() {
+        this.armed = true;
+    }
+
+    byte[] getLastFrame() {
+        return this.lastFrame;
+    }
+
+    public String getUserName() {
+        return this.userName;
+    }
+
+    public int getProtocolVersion() {
+        return this.protocolVersion;
+    }
+
+    public BroadcastEncoder.Stream getDeflateStream() {
+        return null;
+    }
+
+    public void sendFrame(byte[] frame) {
+        if (this.armed) {
+            this.outbound.offer(frame);
+        } else {
+            this.lastFrame = frame;
+        }
+    }
+
+    public void closeConnection() {
+    }
+
+    public void closeAfterFlush() {
+    }
+
+    public int getQueueDepth() {
+        return this.outbound.size();
+    }
+
+    public ChatRoom getRoom() {
+        return this.room;
+    }
+
+    public void setRoom(ChatRoom room) {
+        this.room = room;
+    }
+}
@@ -0,0 +1,60 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 广播扇出：加时间前缀、按协议编码一次、遍历房间成员向每个连接的待发送队列投递。
+ * 房间数为 1 时所有连接都在大厅；大于 1 时连接平均分到各房间，只向其中一个房间广播。
+ * 分片数大于 1 时成员不少于 {@code BroadcastShards.PARALLEL_MIN_MEMBERS} 的房间由多个线程并行投递
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"1", "100", "1000", "10000"})
+    public int clients;
+
+    /** 0 为文本协议，1 为二进制帧 */
+    @Param({"0", "1"})
+    public int protocolVersion;
+
+    @Param({"1", "100"})
+    public int rooms;
+
+    @Param({"1", "4"})
+    public int shards;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = Fixture.create("BroadcastFixture", String.valueOf(this.clients), String.valueOf(this.protocolVersion),
+                String.valueOf(this.rooms), String.valueOf(this.shards));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public Object broadcast() throws Exception {
+        return this.fixture.run();
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 私聊：按昵称直接投递给对方并回复送达确认，耗时应不随在线人数增长（对照 BroadcastBenchmark）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectMessageBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int clients;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = Fixture.create("DirectFixture", String.valueOf(this.clients));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public Object direct() throws Exception {
+        return this.fixture.run();
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 一次广播的编码开销：每个连接各自用 PrintWriter 编码，对比只编码一次、各连接写出同一个字节数组。
+ * 加 {@code -prof gc} 运行可比较每次广播分配的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeOnceBenchmark {
+    @Param({"1000", "10000"})
+    public int clients;
+
+    @Param({"perClient", "shared"})
+    public String path;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = Fixture.create("EncodeOnceFixture", String.valueOf(this.clients), this.path);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public Object broadcast() throws Exception {
+        return this.fixture.run();
+    }
+}
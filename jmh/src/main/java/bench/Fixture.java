@@ -0,0 +1,32 @@
+package bench;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * 被测的一个操作。聊天室的类都在默认包中，JMH 又要求基准类不在默认包，
+ * 所以由默认包中的夹具类实现本接口，基准通过 {@link #create(String, String...)} 按类名创建
+ */
+public interface Fixture extends AutoCloseable {
+    /**
+     * 执行一次被测操作
+     * @return 操作结果，交给 Blackhole 防止被优化掉
+     * @throws Exception 操作失败
+     */
+    Object run() throws Exception;
+
+    @Override
+    void close();
+
+    /**
+     * 按类名创建默认包中的夹具
+     * @param className 夹具类名
+     * @param args      构造参数
+     * @return 已就绪的夹具
+     * @throws Exception 创建或准备失败
+     */
+    static Fixture create(String className, String... args) throws Exception {
+        Constructor<?> constructor = Class.forName(className).getDeclaredConstructor(String[].class);
+        constructor.setAccessible(true);
+        return (Fixture) constructor.newInstance((Object) args);
+    }
+}
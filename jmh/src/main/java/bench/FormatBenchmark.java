@@ -0,0 +1,71 @@
+package bench;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 广播消息的格式化：broadcast() 中每次调用 DateTimeFormatter.ofPattern 加时间前缀，
+ * 对比复用格式器；以及按文本协议和二进制帧编码
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final String message = "张三：大家好，这是一条用于基准测试的聊天消息";
+    private Fixture text;
+    private Fixture frame;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.text = Fixture.create("EncodeFixture", "text");
+        this.frame = Fixture.create("EncodeFixture", "frame");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.text.close();
+        this.frame.close();
+    }
+
+    /**
+     * 与 broadcast() 相同：每条消息都重新解析格式模式
+     */
+    @Benchmark
+    public String prefixOfPatternPerCall() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss");
+        return "【" + LocalTime.now().format(formatter) + "】" + this.message;
+    }
+
+    @Benchmark
+    public String prefixCachedFormatter() {
+        return "【" + LocalTime.now().format(TIME_FORMAT) + "】" + this.message;
+    }
+
+    @Benchmark
+    public Object encodeText() throws Exception {
+        return this.text.run();
+    }
+
+    @Benchmark
+    public Object encodeFrame() throws Exception {
+        return this.frame.run();
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 经回环地址的完整登录：建立连接、发送昵称、读到 OK 应答后断开
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark {
+    @Param({"classic", "nio"})
+    public String mode;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = Fixture.create("HandshakeFixture", this.mode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public Object login() throws Exception {
+        return this.fixture.run();
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 客户端聊天区域追加一批（100 行）消息的耗时：JTextArea 对比有界列表，历史越长差距越大。
+ * 无需显示窗口，以 {@code -Djava.awt.headless=true} 运行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class HistoryBenchmark {
+    @Param({"10000", "100000", "300000"})
+    public int history;
+
+    @Param({"textArea", "bounded"})
+    public String view;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = Fixture.create("HistoryFixture", String.valueOf(this.history), this.view);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public Object appendBatch() throws Exception {
+        return this.fixture.run();
+    }
+}
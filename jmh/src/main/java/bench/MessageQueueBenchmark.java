@@ -0,0 +1,78 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 待广播消息队列的放入与取出：单线程往返，以及三个读取线程放入、一个分发线程阻塞取出。
+ * queue 为 ring 时是 ChatServerCore 使用的有界环形队列，为 linked 时是此前的 LinkedBlockingQueue；
+ * 加 {@code -prof gc} 运行可比较每条消息分配的字节数和 GC 次数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageQueueBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class RoundTrip {
+        @Param({"linked", "ring"})
+        public String queue;
+
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            this.fixture = Fixture.create("MessageQueueFixture", this.queue, "roundTrip");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.fixture.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Handoff {
+        @Param({"linked", "ring"})
+        public String queue;
+
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            this.fixture = Fixture.create("MessageQueueFixture", this.queue, "handoff");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.fixture.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object roundTrip(RoundTrip state) throws Exception {
+        return state.fixture.run();
+    }
+
+    @Benchmark
+    @Threads(3)
+    public Object handoff(Handoff state) throws Exception {
+        return state.fixture.run();
+    }
+}
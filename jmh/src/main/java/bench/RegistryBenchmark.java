@@ -0,0 +1,105 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 客户端注册表：按昵称查找命中与未命中（踢人时的查找），占用并释放昵称（加入与离开）。
+ * 并发下：两个线程占用并释放昵称、同时有一个线程遍历注册表时，占用释放的耗时（churn），
+ * 以及两个线程不停进出时遍历一遍注册表的耗时（fanOut）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Single {
+        @Param({"100", "10000"})
+        public int clients;
+
+        @Param({"hit", "miss", "claim"})
+        public String op;
+
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            this.fixture = Fixture.create("RegistryFixture", String.valueOf(this.clients), this.op);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.fixture.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Churn {
+        @Param({"100", "10000"})
+        public int clients;
+
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            this.fixture = Fixture.create("RegistryFixture", String.valueOf(this.clients), "churn");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.fixture.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class FanOut {
+        @Param({"100", "10000"})
+        public int clients;
+
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            this.fixture = Fixture.create("RegistryFixture", String.valueOf(this.clients), "fanOut");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.fixture.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object registry(Single state) throws Exception {
+        return state.fixture.run();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Object churn(Churn state) throws Exception {
+        return state.fixture.run();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object fanOut(FanOut state) throws Exception {
+        return state.fixture.run();
+    }
+}
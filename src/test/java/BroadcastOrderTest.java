@@ -0,0 +1,169 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 经待广播队列和分片并行扇出后，各聊客收到的广播完整且顺序一致，
+ * 扇出途中换房间的聊客收到的消息仍然有序
+ */
+class BroadcastOrderTest {
+    private static final int CLIENTS = 300;
+    private static final int PER_TALKER = 300;
+    private static final int ROOM_HOPPER = 7;
+
+    private ChatServerCore core;
+
+    @AfterEach
+    void stop() {
+        this.core.stop();
+    }
+
+    private void start(int shards) throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--port=" + port, "--fanout-shards=" + shards,
+                "--message-queue=64", "--rate-messages=0", "--rate-bytes=0", "--journal-dir=", "--log-dir=",
+                "--log-console=false", "--jmx=false"});
+        this.core = new ChatServerCore(config);
+        this.core.start();
+    }
+
+    @Test
+    void sequentialFanOutKeepsOrder() throws Exception {
+        checkOrder(1);
+    }
+
+    @Test
+    void parallelFanOutKeepsOrder() throws Exception {
+        checkOrder(4);
+    }
+
+    private void checkOrder(int shards) throws Exception {
+        start(shards);
+        List<RecordingConnection> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            RecordingConnection client = new RecordingConnection("user" + i);
+            assertTrue(this.core.registerClient(client));
+            clients.add(client);
+        }
+
+        // 两个线程同时发言，第三个线程让一个聊客在发言途中进出别的房间
+        Thread[] talkers = new Thread[2];
+        for (int t = 0; t < talkers.length; t++) {
+            String prefix = "t" + t + ":m";
+            talkers[t] = new Thread(() -> {
+                for (int i = 0; i < PER_TALKER; i++) {
+                    this.core.enqueueMessage(this.core.rooms().lobby(), prefix + i);
+                }
+            });
+        }
+        Thread hopper = new Thread(() -> {
+            RecordingConnection client = clients.get(ROOM_HOPPER);
+            this.core.joinRoom(client, "other");
+            this.core.joinRoom(client, RoomRegistry.LOBBY);
+        });
+        for (Thread talker : talkers) {
+            talker.start();
+        }
+        hopper.start();
+        for (Thread talker : talkers) {
+            talker.join();
+        }
+        hopper.join();
+
+        int expected = talkers.length * PER_TALKER;
+        for (int i = 0; i < 1000 && clients.get(0).chat().size() < expected; i++) {
+            Thread.sleep(10);
+        }
+        List<String> reference = clients.get(0).chat();
+        assertEquals(expected, reference.size());
+        for (RecordingConnection client : clients) {
+            List<String> chat = client.chat();
+            int[] next = new int[talkers.length];
+            for (String text : chat) {
+                int talker = text.charAt(text.indexOf(":m") - 1) - '0';
+                int seq = Integer.parseInt(text.substring(text.indexOf(":m") + 2));
+                assertTrue(seq >= next[talker], client.getUserName() + " 收到的 " + text + " 乱序");
+                next[talker] = seq + 1;
+            }
+            if (client != clients.get(ROOM_HOPPER)) {
+                assertEquals(reference, chat, client.getUserName() + " 收到的广播与其他聊客不一致");
+            }
+        }
+    }
+
+    /**
+     * 记录收到的聊天广播的连接，只用二进制协议
+     */
+    private static final class RecordingConnection implements ChatConnection {
+        private final String userName;
+        private final Queue<String> received = new ConcurrentLinkedQueue<>();
+        private volatile ChatRoom room;
+
+        RecordingConnection(String userName) {
+            this.userName = userName;
+        }
+
+        /**
+         * @return 收到的发言（去掉时间前缀），不含进出通知
+         */
+        List<String> chat() {
+            List<String> chat = new ArrayList<>();
+            for (String text : this.received) {
+                int at = text.indexOf(":m");
+                if (at > 0) {
+                    chat.add(text.substring(at - 2));
+                }
+            }
+            return chat;
+        }
+
+        public String getUserName() {
+            return this.userName;
+        }
+
+        public int getProtocolVersion() {
+            return ChatProtocol.BINARY_VERSION;
+        }
+
+        public BroadcastEncoder.Stream getDeflateStream() {
+            return null;
+        }
+
+        public void sendFrame(byte[] frame) {
+            int header = Integer.BYTES + ChatProtocol.FRAME_HEADER_BYTES;
+            if (frame.length > header) {
+                this.received.add(new String(frame, header, frame.length - header, StandardCharsets.UTF_8));
+            }
+        }
+
+        public void closeConnection() {
+        }
+
+        public void closeAfterFlush() {
+        }
+
+        public int getQueueDepth() {
+            return 0;
+        }
+
+        public ChatRoom getRoom() {
+            return this.room;
+        }
+
+        public void setRoom(ChatRoom room) {
+            this.room = room;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 调用线程扇出分片 0 时抛出异常，也要等工作线程扇出完其余分片再返回，之后的广播照常进行
+ */
+class BroadcastShardsTest {
+    private static final int SHARDS = 2;
+
+    @Test
+    void callerFailureStillWaitsForTheWorkers() throws InterruptedException {
+        ThreadFactory factory = task -> new Thread(task, "shard-test");
+        BroadcastShards shards = new BroadcastShards(SHARDS, factory);
+        ChatRoom room = new ChatRoom("r", false, new BroadcastEncoder.Stats(), SHARDS);
+        AtomicInteger workerFrames = new AtomicInteger();
+        int workerMembers = 0;
+        for (int i = 0; i < BroadcastShards.PARALLEL_MIN_MEMBERS + 50; i++) {
+            Member member = new Member(workerFrames);
+            member.inCallerShard = BroadcastShards.shardOf(member, SHARDS) == 0;
+            if (!member.inCallerShard) {
+                workerMembers++;
+            }
+            room.add(member);
+        }
+
+        try {
+            room.encoder().encode("m1", false);
+            Member.failing = true;
+            assertThrows(IllegalStateException.class, () -> shards.fanOut(room));
+            // 工作线程的分片每个成员都要先停一下，返回时它们必须已全部收到
+            assertEquals(workerMembers, workerFrames.get());
+
+            Member.failing = false;
+            room.encoder().encode("m2", false);
+            shards.fanOut(room);
+            assertEquals(2 * workerMembers, workerFrames.get());
+        } finally {
+            shards.stop();
+        }
+    }
+
+    /**
+     * 房间成员：分片 0 的成员在 failing 时抛出异常，其余分片的成员每收到一帧先停一毫秒
+     */
+    private static final class Member implements ChatConnection {
+        static volatile boolean failing;
+
+        private final AtomicInteger workerFrames;
+        private boolean inCallerShard;
+        private volatile ChatRoom room;
+
+        Member(AtomicInteger workerFrames) {
+            this.workerFrames = workerFrames;
+        }
+
+        public String getUserName() {
+            return "member";
+        }
+
+        public int getProtocolVersion() {
+            return ChatProtocol.TEXT_VERSION;
+        }
+
+        public BroadcastEncoder.Stream getDeflateStream() {
+            return null;
+        }
+
+        public void sendFrame(byte[] frame) {
+            if (this.inCallerShard) {
+                if (failing) {
+                    throw new IllegalStateException("分片 0 扇出失败");
+                }
+                return;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.workerFrames.incrementAndGet();
+        }
+
+        public void closeConnection() {
+        }
+
+        public void closeAfterFlush() {
+        }
+
+        public int getQueueDepth() {
+            return 0;
+        }
+
+        public ChatRoom getRoom() {
+            return this.room;
+        }
+
+        public void setRoom(ChatRoom room) {
+            this.room = room;
+        }
+    }
+}
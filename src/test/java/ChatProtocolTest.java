@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 协议的帧编码与登录握手的解析
+ */
+class ChatProtocolTest {
+
+    @Test
+    void frameCarriesLengthTypeSeqAndUtf8Payload() {
+        byte[] frame = ChatProtocol.encodeFrame(ChatProtocol.TYPE_CHAT, 42, "张三：你好");
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        byte[] payload = "张三：你好".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(ChatProtocol.FRAME_HEADER_BYTES + payload.length, buffer.getInt());
+        assertEquals(ChatProtocol.TYPE_CHAT, buffer.get());
+        assertEquals(42, buffer.getInt());
+        byte[] rest = new byte[buffer.remaining()];
+        buffer.get(rest);
+        assertArrayEquals(payload, rest);
+    }
+
+    @Test
+    void frameUsesOnlyTheGivenPrefixOfThePayload() {
+        byte[] payload = {1, 2, 3, 4};
+        byte[] frame = ChatProtocol.encodeFrame(ChatProtocol.TYPE_NOTICE, 0, payload, 2);
+        assertEquals(Integer.BYTES + ChatProtocol.FRAME_HEADER_BYTES + 2, frame.length);
+        assertEquals(1, frame[frame.length - 2]);
+        assertEquals(2, frame[frame.length - 1]);
+    }
+
+    @Test
+    void multiLineTextRepeatsTheSpeakerPrefix() {
+        // 文本协议按平台默认字符集编码，比较编码后的字节
+        assertArrayEquals("【12:00:00】张三：第一行\n【12:00:00】张三：第二行\n".getBytes(ChatProtocol.CHARSET),
+                ChatProtocol.encodeText("【12:00:00】张三：第一行\n第二行"));
+        assertArrayEquals("单行\n".getBytes(ChatProtocol.CHARSET), ChatProtocol.encodeText("单行"));
+    }
+
+    @Test
+    void encodeFollowsTheNegotiatedVersion() {
+        assertArrayEquals(ChatProtocol.encodeText("通知"),
+                ChatProtocol.encode(ChatProtocol.TEXT_VERSION, ChatProtocol.TYPE_NOTICE, "通知"));
+        assertArrayEquals(ChatProtocol.encodeFrame(ChatProtocol.TYPE_NOTICE, 0, "通知"),
+                ChatProtocol.encode(ChatProtocol.BINARY_VERSION, ChatProtocol.TYPE_NOTICE, "通知"));
+    }
+
+    @Test
+    void onlyWellFormedFramesWithTheFlagAreDeflated() {
+        byte deflated = (byte) (ChatProtocol.TYPE_CHAT | ChatProtocol.FLAG_DEFLATE);
+        assertTrue(ChatProtocol.isDeflated(ChatProtocol.encodeFrame(deflated, 1, "x")));
+        assertFalse(ChatProtocol.isDeflated(ChatProtocol.encodeFrame(ChatProtocol.TYPE_CHAT, 1, "x")));
+        // 文本行的字节恰好带标志位，但长度字段对不上
+        assertFalse(ChatProtocol.isDeflated("@@@@@@@@@@\n".getBytes(StandardCharsets.US_ASCII)));
+        assertFalse(ChatProtocol.isDeflated(new byte[3]));
+    }
+
+    @Test
+    void legacyLoginIsPlainNameAndTextProtocol() {
+        assertEquals("张三", ChatProtocol.loginName("张三"));
+        assertEquals(ChatProtocol.TEXT_VERSION, ChatProtocol.negotiate("张三"));
+        assertFalse(ChatProtocol.offersDeflate("张三"));
+        assertEquals(ChatProtocol.OK, ChatProtocol.okReply(ChatProtocol.TEXT_VERSION, false));
+    }
+
+    @Test
+    void binaryLoginPicksHighestCommonVersionAndDeflate() {
+        String login = "张三\0" + "1,deflate";
+        assertEquals("张三", ChatProtocol.loginName(login));
+        assertEquals(ChatProtocol.BINARY_VERSION, ChatProtocol.negotiate(login));
+        assertTrue(ChatProtocol.offersDeflate(login));
+        assertEquals("OK 1 deflate", ChatProtocol.okReply(ChatProtocol.BINARY_VERSION, true));
+        assertEquals("OK 1", ChatProtocol.okReply(ChatProtocol.BINARY_VERSION, false));
+    }
+
+    @Test
+    void unknownOrFutureVersionsFallBackToText() {
+        assertEquals(ChatProtocol.TEXT_VERSION, ChatProtocol.negotiate("张三\0" + "9"));
+        assertEquals(ChatProtocol.TEXT_VERSION, ChatProtocol.negotiate("张三\0" + "abc, ,"));
+        assertEquals(ChatProtocol.BINARY_VERSION, ChatProtocol.negotiate("张三\0" + "x, 1 ,7"));
+        assertFalse(ChatProtocol.offersDeflate("张三\0" + "1,gzip"));
+    }
+
+    @Test
+    void blankAndAdminNamesAreInvalid() {
+        assertTrue(ChatProtocol.isValidName("张三"));
+        assertFalse(ChatProtocol.isValidName(null));
+        assertFalse(ChatProtocol.isValidName("   "));
+        assertFalse(ChatProtocol.isValidName(ChatProtocol.ADMIN_NAME));
+    }
+}
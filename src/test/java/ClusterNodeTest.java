@@ -0,0 +1,166 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 集群链路上字段不足的帧按链路错误处理：断开链路、移除对方的聊客，异常不逃出接收线程；
+ * 重名冲突中胜出的一方只通知监听器进入一次
+ */
+class ClusterNodeTest {
+    private static final byte OP_HELLO = 1;
+    private static final byte OP_POST = 2;
+    private static final byte OP_JOIN = 3;
+    private static final byte OP_DIRECT = 6;
+
+    private final List<Throwable> uncaught = new CopyOnWriteArrayList<>();
+    private Thread.UncaughtExceptionHandler previousHandler;
+    /** 各昵称在监听器中的净在线次数：进入加一，离开减一 */
+    private final Map<String, Integer> listed = new ConcurrentHashMap<>();
+    private ChatServerCore core;
+    private int chatPort;
+    private int clusterPort;
+
+    @BeforeEach
+    void startNode() throws IOException {
+        this.previousHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> this.uncaught.add(e));
+        this.chatPort = freePort();
+        this.clusterPort = freePort();
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--port=" + this.chatPort,
+                "--cluster-port=" + this.clusterPort, "--cluster-node=a", "--journal-dir=", "--log-dir=",
+                "--log-console=false", "--jmx=false"});
+        this.core = new ChatServerCore(config);
+        this.core.setListener(new ServerListener() {
+            @Override
+            public void onUserJoined(String name) {
+                ClusterNodeTest.this.listed.merge(name, 1, Integer::sum);
+            }
+
+            @Override
+            public void onUserLeft(String name) {
+                ClusterNodeTest.this.listed.merge(name, -1, Integer::sum);
+            }
+        });
+        this.core.start();
+    }
+
+    @AfterEach
+    void stopNode() {
+        this.core.stop();
+        Thread.setDefaultUncaughtExceptionHandler(this.previousHandler);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void send(DataOutputStream out, byte op, String... fields) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(op);
+        payload.write(String.join("\0", fields).getBytes(StandardCharsets.UTF_8));
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        out.flush();
+    }
+
+    private Socket connectAsPeer(String user) throws Exception {
+        return connectAsPeer("b", user);
+    }
+
+    /**
+     * 以指定节点的身份连入，登录一个聊客，等待它出现在目录中
+     */
+    private Socket connectAsPeer(String node, String user) throws Exception {
+        Socket socket = new Socket("localhost", this.clusterPort);
+        socket.setSoTimeout(5000);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        send(out, OP_HELLO, node);
+        byte[] hello = new byte[in.readInt()];
+        in.readFully(hello);
+        assertEquals(OP_HELLO, hello[0]);
+        send(out, OP_JOIN, user);
+        for (int i = 0; i < 500 && !node.equals(this.core.cluster().nodeOf(user)); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(node, this.core.cluster().nodeOf(user));
+        return socket;
+    }
+
+    private void assertLinkDropped(Socket socket, String user) throws Exception {
+        assertEquals(-1, socket.getInputStream().read());
+        for (int i = 0; i < 500 && this.core.cluster().nodeOf(user) != null; i++) {
+            Thread.sleep(10);
+        }
+        assertNull(this.core.cluster().nodeOf(user));
+        assertTrue(this.uncaught.isEmpty(), () -> "接收线程抛出了异常：" + this.uncaught);
+    }
+
+    @Test
+    void postWithoutMessageDropsTheLink() throws Exception {
+        try (Socket socket = connectAsPeer("bob")) {
+            send(new DataOutputStream(socket.getOutputStream()), OP_POST, "");
+            assertLinkDropped(socket, "bob");
+        }
+    }
+
+    @Test
+    void directWithMissingFieldsDropsTheLinkAndTheNodeAcceptsAgain() throws Exception {
+        try (Socket socket = connectAsPeer("bob")) {
+            send(new DataOutputStream(socket.getOutputStream()), OP_DIRECT, "bob", "alice");
+            assertLinkDropped(socket, "bob");
+        }
+        try (Socket socket = connectAsPeer("carol")) {
+            assertEquals("b", this.core.cluster().nodeOf("carol"));
+        }
+    }
+
+    @Test
+    void remoteWinnerOfANameConflictIsListedOnce() throws Exception {
+        try (Socket local = new Socket("localhost", this.chatPort)) {
+            local.setSoTimeout(5000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(local.getInputStream(), ChatProtocol.CHARSET));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(local.getOutputStream(), ChatProtocol.CHARSET));
+            out.println("dave");
+            out.flush();
+            assertTrue(in.readLine().startsWith("OK"));
+            assertEquals(1, this.listed.get("dave"));
+
+            // 节点名 0 小于 a，对方胜出：本地连接被断开，监听器中仍只有一个 dave
+            try (Socket peer = connectAsPeer("0", "dave")) {
+                String line;
+                do {
+                    line = in.readLine();
+                } while (line != null);
+                // 链路上的帧按顺序处理：后一条登录生效时，对 dave 的处理已经结束
+                send(new DataOutputStream(peer.getOutputStream()), OP_JOIN, "erin");
+                for (int i = 0; i < 500 && this.listed.get("erin") == null; i++) {
+                    Thread.sleep(10);
+                }
+                assertNull(this.core.findClient("dave"));
+                assertEquals(1, this.listed.get("dave"));
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * 消息日志的读取、换分段，以及重启后（分段大小可能已改变）继续写入
+ */
+class MessageJournalTest {
+    @TempDir
+    Path dir;
+
+    private MessageJournal open(int segmentSize, int maxSegments) throws IOException {
+        return open(segmentSize, maxSegments, MessageJournal.SyncPolicy.NEVER);
+    }
+
+    private MessageJournal open(int segmentSize, int maxSegments, MessageJournal.SyncPolicy sync) throws IOException {
+        MessageJournal journal = new MessageJournal(this.dir, segmentSize, maxSegments,
+                sync, 0, new ServerLog(ServerLog.Level.ERROR, 16, null, 0, 1, null));
+        journal.open();
+        return journal;
+    }
+
+    private static List<String> messages(String prefix, int from, int to) {
+        List<String> result = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            result.add(prefix + i);
+        }
+        return result;
+    }
+
+    private int segmentFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir, "journal-*.log")) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void recentReturnsNewestMessagesOldestFirst() throws IOException {
+        MessageJournal journal = open(4096, 4);
+        for (String message : messages("消息", 0, 10)) {
+            journal.append(message);
+        }
+        assertEquals(messages("消息", 7, 10), journal.recent(3));
+        assertEquals(messages("消息", 0, 10), journal.recent(100));
+        journal.close();
+    }
+
+    @Test
+    void recentStopsAtTheWatermark() throws IOException {
+        MessageJournal journal = open(64, 8);
+        for (String message : messages("message-", 0, 10)) {
+            journal.append(message);
+        }
+        long watermark = journal.sequence();
+        for (String message : messages("message-", 10, 15)) {
+            journal.append(message);
+        }
+        assertEquals(15, journal.sequence());
+        // 水位之后的消息在内存中与已写入分段中都要跳过
+        assertEquals(messages("message-", 6, 10), journal.recent(4, watermark));
+        journal.close();
+
+        journal = open(64, 8);
+        long restarted = journal.sequence();
+        journal.append("after-restart");
+        assertEquals(messages("message-", 12, 15), journal.recent(3, restarted));
+        journal.close();
+    }
+
+    @Test
+    void concurrentReadsSeeEachMessageOnce() throws Exception {
+        MessageJournal journal = open(64 * 1024, 8, MessageJournal.SyncPolicy.BATCH);
+        int total = 20_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < total; i++) {
+                journal.append("m" + i);
+                if (i % 5 == 4) {
+                    // 小批追加，读取时内存中的消息少于 20 条，须连同正在写入的一批一起从分段中读取
+                    LockSupport.parkNanos(50_000);
+                }
+            }
+        });
+        writer.start();
+        int checks = 0;
+        while (writer.isAlive() || checks == 0) {
+            long watermark = journal.sequence();
+            List<String> recent = journal.recent(20, watermark);
+            // 写线程正在写的一批既在内存中又已计入分段末尾时，会读到重复的消息，水位也随之错位
+            assertEquals(messages("m", (int) Math.max(0, watermark - 20), (int) watermark), recent,
+                    "水位 " + watermark);
+            checks++;
+        }
+        writer.join();
+        assertEquals(messages("m", total - 20, total), journal.recent(20));
+        journal.close();
+    }
+
+    @Test
+    void rollsSegmentsAndKeepsOnlyTheNewest() throws IOException {
+        MessageJournal journal = open(64, 3);
+        for (String message : messages("message-", 0, 100)) {
+            journal.append(message);
+        }
+        journal.close();
+
+        assertEquals(3, segmentFiles());
+        journal = open(64, 3);
+        assertEquals(3, segmentFiles());
+        assertEquals(messages("message-", 97, 100), journal.recent(3));
+        journal.close();
+    }
+
+    @Test
+    void reopenWithLargerSegmentsWritesToAFreshSegment() throws IOException {
+        MessageJournal journal = open(64, 8);
+        for (String message : messages("small-", 0, 3)) {
+            journal.append(message);
+        }
+        journal.close();
+
+        // 以更大的分段重启：旧分段只有原来的大小，新的写入不能落在它上面
+        journal = open(4096, 8);
+        for (String message : messages("large-", 0, 50)) {
+            journal.append(message);
+        }
+        journal.close();
+
+        journal = open(4096, 8);
+        List<String> expected = messages("small-", 0, 3);
+        expected.addAll(messages("large-", 0, 50));
+        assertEquals(expected, journal.recent(100));
+        journal.close();
+    }
+
+    @Test
+    void reopenTrimsToTheConfiguredSegmentCount() throws IOException {
+        MessageJournal journal = open(64, 8);
+        for (String message : messages("message-", 0, 40)) {
+            journal.append(message);
+        }
+        journal.close();
+
+        // 超出的旧分段在打开前删除，保留的是最新的一个旧分段和新建的分段
+        journal = open(64, 2);
+        assertEquals(2, segmentFiles());
+        List<String> kept = journal.recent(100);
+        assertEquals("message-39", kept.get(kept.size() - 1));
+        assertTrue(kept.size() < 40);
+        journal.close();
+    }
+}
@@ -0,0 +1,182 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 环形队列的容量、绕圈复用槽位、多线程放入的顺序，以及队列已满时的三种策略和不等待的放入
+ */
+class MessageRingTest {
+    private static String take(MessageRing ring) throws InterruptedException {
+        MessageRing.Entry entry = new MessageRing.Entry();
+        ring.take(entry);
+        return entry.text;
+    }
+
+    /**
+     * 在另一个线程中放入一条消息，返回该线程以便检查它是否仍在等待
+     */
+    private static Thread offerAsync(MessageRing ring, String text, AtomicReference<Boolean> result) {
+        Thread producer = new Thread(() -> result.set(ring.offer(null, text, false)));
+        producer.start();
+        return producer;
+    }
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new MessageRing(1, QueueFullPolicy.DROP).capacity());
+        assertEquals(8, new MessageRing(5, QueueFullPolicy.DROP).capacity());
+        assertEquals(8, new MessageRing(8, QueueFullPolicy.DROP).capacity());
+    }
+
+    @Test
+    void slotsAreReusedAcrossManyLaps() throws InterruptedException {
+        MessageRing ring = new MessageRing(4, QueueFullPolicy.DROP);
+        MessageRing.Entry entry = new MessageRing.Entry();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ring.offer(null, "a" + i, false));
+            assertTrue(ring.offer(null, "b" + i, i % 2 == 0));
+            assertTrue(ring.offer(null, "c" + i, false));
+            assertEquals(3, ring.size());
+            ring.take(entry);
+            assertEquals("a" + i, entry.text);
+            ring.take(entry);
+            assertEquals("b" + i, entry.text);
+            assertEquals(i % 2 == 0, entry.relayed);
+            ring.take(entry);
+            assertEquals("c" + i, entry.text);
+            assertEquals(0, ring.size());
+        }
+        assertEquals(0, ring.dropped());
+    }
+
+    @Test
+    void dropPolicyDiscardsTheNewMessage() throws InterruptedException {
+        MessageRing ring = new MessageRing(2, QueueFullPolicy.DROP);
+        assertTrue(ring.offer(null, "a", false));
+        assertTrue(ring.offer(null, "b", false));
+        assertFalse(ring.offer(null, "c", false));
+        assertEquals(1, ring.dropped());
+        assertEquals("a", take(ring));
+        assertEquals("b", take(ring));
+        assertTrue(ring.offer(null, "d", false));
+    }
+
+    @Test
+    void rejectPolicyRefusesTheNewMessageWithoutWaiting() throws InterruptedException {
+        MessageRing ring = new MessageRing(2, QueueFullPolicy.REJECT);
+        assertTrue(ring.offer(null, "a", false));
+        assertTrue(ring.offer(null, "b", false));
+        assertFalse(ring.offer(null, "c", false));
+        assertFalse(ring.offer(null, "d", false));
+        assertEquals(2, ring.dropped());
+        assertEquals("a", take(ring));
+        assertEquals(QueueFullPolicy.REJECT, ring.policy());
+    }
+
+    @Test
+    void blockPolicyWaitsForTheDispatcherToFreeASlot() throws InterruptedException {
+        MessageRing ring = new MessageRing(2, QueueFullPolicy.BLOCK);
+        ring.offer(null, "a", false);
+        ring.offer(null, "b", false);
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        Thread producer = offerAsync(ring, "c", result);
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertNull(result.get());
+
+        assertEquals("a", take(ring));
+        producer.join(5000);
+        assertEquals(Boolean.TRUE, result.get());
+        assertEquals("b", take(ring));
+        assertEquals("c", take(ring));
+        assertEquals(0, ring.dropped());
+    }
+
+    @Test
+    void blockPolicyNeverMakesTheDispatcherOrNoticesWait() throws InterruptedException {
+        MessageRing ring = new MessageRing(2, QueueFullPolicy.BLOCK);
+        ring.offer(null, "a", false);
+        ring.offer(null, "b", false);
+        take(ring); // 本线程成为分发线程
+        ring.offer(null, "c", false);
+        assertFalse(ring.offer(null, "d", false));
+
+        AtomicBoolean notice = new AtomicBoolean(true);
+        Thread worker = new Thread(() -> notice.set(ring.offerNotice(null, "e")));
+        worker.start();
+        worker.join(5000);
+        assertFalse(worker.isAlive());
+        assertFalse(notice.get());
+        assertEquals(2, ring.dropped());
+    }
+
+    @Test
+    void tryOfferNeverWaitsAndCountsOnlyDiscardedMessages() throws InterruptedException {
+        MessageRing block = new MessageRing(2, QueueFullPolicy.BLOCK);
+        assertTrue(block.tryOffer(null, "a"));
+        assertTrue(block.tryOffer(null, "b"));
+        AtomicBoolean offered = new AtomicBoolean(true);
+        Thread loop = new Thread(() -> offered.set(block.tryOffer(null, "c")));
+        loop.start();
+        loop.join(5000);
+        assertFalse(loop.isAlive());
+        assertFalse(offered.get());
+        assertEquals(0, block.dropped()); // 调用方会重试，不算丢弃
+        assertEquals("a", take(block));
+        assertTrue(block.tryOffer(null, "c"));
+
+        MessageRing drop = new MessageRing(2, QueueFullPolicy.DROP);
+        drop.tryOffer(null, "a");
+        drop.tryOffer(null, "b");
+        assertFalse(drop.tryOffer(null, "c"));
+        assertEquals(1, drop.dropped());
+    }
+
+    @Test
+    void closeReleasesWaitingProducers() throws InterruptedException {
+        MessageRing ring = new MessageRing(2, QueueFullPolicy.BLOCK);
+        ring.offer(null, "a", false);
+        ring.offer(null, "b", false);
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        Thread producer = offerAsync(ring, "c", result);
+        producer.join(100);
+        ring.close();
+        producer.join(5000);
+        assertEquals(Boolean.FALSE, result.get());
+    }
+
+    @Test
+    void eachProducersMessagesArriveInOrder() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        MessageRing ring = new MessageRing(64, QueueFullPolicy.BLOCK);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            String prefix = p + ":";
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ring.offer(null, prefix + i, false);
+                }
+            });
+            threads[p].start();
+        }
+        int[] next = new int[producers];
+        MessageRing.Entry entry = new MessageRing.Entry();
+        for (int n = 0; n < producers * perProducer; n++) {
+            ring.take(entry);
+            int colon = entry.text.indexOf(':');
+            int p = Integer.parseInt(entry.text.substring(0, colon));
+            assertEquals(next[p]++, Integer.parseInt(entry.text.substring(colon + 1)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.dropped());
+    }
+}
@@ -0,0 +1,175 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * NIO 模式下待广播队列按 block 策略已满时，事件循环不等待：只暂停读取发言者的连接，
+ * 同一事件循环上的其他连接照常处理，分发恢复后发言者的消息一条不少地按顺序广播
+ */
+class NioEventLoopTest {
+    private static final int MESSAGES = 20;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ChatServerCore core;
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        this.release.countDown();
+        if (this.core == null) {
+            return;
+        }
+        Thread stopper = new Thread(this.core::stop);
+        stopper.setDaemon(true);
+        stopper.start();
+        stopper.join(10_000);
+    }
+
+    private static PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), ChatProtocol.CHARSET), true);
+    }
+
+    private static BufferedReader login(Socket socket, String name) throws IOException {
+        socket.setSoTimeout(5000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ChatProtocol.CHARSET));
+        writer(socket).println(name);
+        assertTrue(in.readLine().startsWith("OK"));
+        return in;
+    }
+
+    private static void awaitLine(BufferedReader in, String text) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            assertTrue(line != null, "连接已断开，没有收到 " + text);
+        } while (!line.contains(text));
+    }
+
+    /**
+     * 等分发线程广播完进入消息，两格的队列装不下三个人的进入消息
+     */
+    private void awaitEmptyQueue() throws InterruptedException {
+        for (int i = 0; i < 500 && this.core.metrics().getMessageQueueDepth() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, this.core.metrics().getMessageQueueDepth());
+    }
+
+    @Test
+    void fullQueuePausesOnlyTheSender() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--port=" + port, "--mode=nio", "--nio-loops=1",
+                "--message-queue=2", "--message-queue-policy=block", "--rate-messages=0", "--rate-bytes=0",
+                "--flood-kick=0", "--journal-dir=", "--log-dir=", "--log-console=false", "--jmx=false"});
+        this.core = new ChatServerCore(config);
+        this.core.start();
+
+        try (Socket talker = new Socket("localhost", port); Socket watcher = new Socket("localhost", port)) {
+            BufferedReader talkerIn = login(talker, "talker");
+            awaitEmptyQueue();
+            BufferedReader watcherIn = login(watcher, "watcher");
+            awaitEmptyQueue();
+
+            // 大厅里的这个聊客收到广播时卡住分发线程，队列随即被发言者填满
+            StalledConnection stalled = new StalledConnection(this.release);
+            assertTrue(this.core.registerClient(stalled));
+            awaitEmptyQueue();
+            stalled.armed = true;
+            PrintWriter talkerOut = writer(talker);
+            for (int i = 0; i < MESSAGES; i++) {
+                talkerOut.println("msg-" + i);
+            }
+            assertTrue(stalled.reached.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 500 && this.core.metrics().getMessageQueueDepth() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, this.core.metrics().getMessageQueueDepth());
+
+            // 发言者的消息在等待队列空位，同一事件循环上的私聊照常应答
+            writer(watcher).println("/w talker ping-1");
+            awaitLine(watcherIn, "ping-1");
+
+            this.release.countDown();
+            int next = 0;
+            while (next < MESSAGES) {
+                String line = talkerIn.readLine();
+                assertTrue(line != null, "连接已断开，只收到 " + next + " 条");
+                int at = line.indexOf("msg-");
+                if (at >= 0) {
+                    assertEquals("msg-" + next, line.substring(at));
+                    next++;
+                }
+            }
+            assertEquals(0, this.core.metrics().getMessageQueueDropped());
+        }
+    }
+
+    /**
+     * 收到第一条广播时等待测试放行的聊客，用来让分发线程停在扇出中
+     */
+    private static final class StalledConnection implements ChatConnection {
+        private final CountDownLatch release;
+        private final CountDownLatch reached = new CountDownLatch(1);
+        private volatile boolean armed; // 登记期间的帧直接忽略
+        private volatile ChatRoom room;
+
+        StalledConnection(CountDownLatch release) {
+            this.release = release;
+        }
+
+        public String getUserName() {
+            return "stalled";
+        }
+
+        public int getProtocolVersion() {
+            return ChatProtocol.BINARY_VERSION;
+        }
+
+        public BroadcastEncoder.Stream getDeflateStream() {
+            return null;
+        }
+
+        public void sendFrame(byte[] frame) {
+            if (!this.armed) {
+                return;
+            }
+            this.reached.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void closeConnection() {
+        }
+
+        public void closeAfterFlush() {
+        }
+
+        public int getQueueDepth() {
+            return 0;
+        }
+
+        public ChatRoom getRoom() {
+            return this.room;
+        }
+
+        public void setRoom(ChatRoom room) {
+            this.room = room;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 待发送队列已满时的两种策略，以及丢弃压缩帧时退出压缩流
+ */
+class OutboundQueueTest {
+    private static final byte DEFLATED = (byte) (ChatProtocol.TYPE_CHAT | ChatProtocol.FLAG_DEFLATE);
+
+    private static byte[] plain(String text) {
+        return ChatProtocol.encodeFrame(ChatProtocol.TYPE_CHAT, 0, text);
+    }
+
+    private static byte[] deflated(String text) {
+        return ChatProtocol.encodeFrame(DEFLATED, 0, text);
+    }
+
+    @Test
+    void dropOldestMakesRoomForTheNewFrame() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+        byte[] a = plain("a");
+        byte[] b = plain("b");
+        byte[] c = plain("c");
+        assertTrue(queue.offer(a));
+        assertTrue(queue.offer(b));
+        assertTrue(queue.offer(c));
+
+        assertEquals(2, queue.size());
+        assertSame(b, queue.poll());
+        assertSame(c, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void disconnectRefusesWhenFull() {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(plain("a")));
+        assertFalse(queue.offer(plain("b")));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void droppingPlainFrameKeepsTheDeflateStream() {
+        AtomicInteger breaks = new AtomicInteger();
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+        queue.setOnStreamBreak(breaks::incrementAndGet);
+        byte[] z1 = deflated("z1");
+        byte[] z2 = deflated("z2");
+        queue.offer(plain("a"));
+        queue.offer(z1);
+        queue.offer(z2);
+
+        assertEquals(0, breaks.get());
+        assertSame(z1, queue.poll());
+        assertSame(z2, queue.poll());
+    }
+
+    @Test
+    void droppingDeflatedFrameDiscardsTheRestOfTheStream() {
+        AtomicInteger breaks = new AtomicInteger();
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DROP_OLDEST);
+        queue.setOnStreamBreak(breaks::incrementAndGet);
+        byte[] notice = plain("通知");
+        queue.offer(deflated("z1"));
+        queue.offer(notice);
+        queue.offer(deflated("z2"));
+
+        // 最旧的压缩帧被挤掉，其后的压缩帧都无法解压，一并丢弃；未压缩的新帧照常入队
+        byte[] next = plain("b");
+        assertTrue(queue.offer(next));
+        assertEquals(1, breaks.get());
+        assertArrayEquals(notice, queue.poll());
+        assertSame(next, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void newDeflatedFrameAfterStreamBreakIsNotQueued() {
+        AtomicInteger breaks = new AtomicInteger();
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DROP_OLDEST);
+        queue.setOnStreamBreak(breaks::incrementAndGet);
+        queue.offer(deflated("z1"));
+
+        assertTrue(queue.offer(deflated("z2")));
+        assertEquals(1, breaks.get());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void withoutDeflateDroppedFramesNeverBreakTheStream() {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DROP_OLDEST);
+        byte[] z2 = deflated("z2");
+        queue.offer(deflated("z1"));
+        assertTrue(queue.offer(z2));
+        assertSame(z2, queue.poll());
+    }
+}
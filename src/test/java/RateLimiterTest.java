@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 令牌桶的配额、补充、欠额等待，以及连续违规的计数与清零
+ */
+class RateLimiterTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long MILLI = 1_000_000L;
+
+    private static RateLimiter limiter(int messages, int bytes, int kickAfter) {
+        return new RateLimiter(new RateLimiter.Limits(messages, bytes, kickAfter));
+    }
+
+    @Test
+    void burstUpToOneSecondOfQuotaIsNotThrottled() {
+        RateLimiter limiter = limiter(10, 0, 0);
+        long start = System.nanoTime(); // 创建之后的时刻，之前的时刻会被当作时间倒流
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.acquire(10, start));
+        }
+        // 第 11 条欠一个令牌，按每秒 10 个须等 100 毫秒
+        assertEquals(100 * MILLI, limiter.acquire(10, start), MILLI);
+    }
+
+    @Test
+    void tokensRefillOverTime() {
+        RateLimiter limiter = limiter(10, 0, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(10, start);
+        }
+        assertEquals(0, limiter.acquire(10, start + 100 * MILLI));
+        assertTrue(limiter.acquire(10, start + 100 * MILLI) > 0);
+        // 桶容量为一秒的配额，空闲再久也只攒满 10 个
+        long later = start + 10 * SECOND;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.acquire(10, later));
+        }
+        assertTrue(limiter.acquire(10, later) > 0);
+    }
+
+    @Test
+    void byteBucketLimitsLargeMessages() {
+        RateLimiter limiter = limiter(0, 1000, 0);
+        long start = System.nanoTime();
+        assertEquals(0, limiter.acquire(1000, start));
+        assertEquals(500 * MILLI, limiter.acquire(500, start), MILLI);
+    }
+
+    @Test
+    void theSlowerBucketDecidesTheWait() {
+        RateLimiter limiter = limiter(10, 1000, 0);
+        long start = System.nanoTime();
+        assertEquals(0, limiter.acquire(1000, start));
+        // 消息桶还剩 9 个令牌，字节桶欠 1000 字节，须等一秒
+        assertEquals(SECOND, limiter.acquire(1000, start), MILLI);
+    }
+
+    @Test
+    void zeroMeansUnlimitedAndChangesApplyOnTheNextMessage() {
+        RateLimiter.Limits limits = new RateLimiter.Limits(1, 0, 0);
+        RateLimiter limiter = new RateLimiter(limits);
+        long start = System.nanoTime();
+        assertEquals(0, limiter.acquire(10, start));
+        assertTrue(limiter.acquire(10, start) > 0);
+
+        limits.setMessagesPerSecond(0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.acquire(100_000, start));
+        }
+    }
+
+    @Test
+    void consecutiveViolationsMarkTheConnectionAsFlooding() {
+        RateLimiter limiter = limiter(5, 0, 3);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire(10, start);
+        }
+        limiter.acquire(10, start);
+        limiter.acquire(10, start);
+        assertFalse(limiter.isFlooding());
+        limiter.acquire(10, start);
+        assertTrue(limiter.isFlooding());
+    }
+
+    @Test
+    void strikesResetOnlyAfterTheBucketsFillAgain() {
+        RateLimiter limiter = limiter(5, 0, 3);
+        long start = System.nanoTime();
+        for (int i = 0; i < 7; i++) {
+            limiter.acquire(10, start); // 两次违规
+        }
+        // 欠额还清后未超限，但桶未攒满，违规次数不清零
+        assertEquals(0, limiter.acquire(10, start + 600 * MILLI));
+        assertTrue(limiter.acquire(10, start + 600 * MILLI) > 0);
+        assertTrue(limiter.isFlooding());
+
+        // 低于配额满一秒后清零
+        assertEquals(0, limiter.acquire(10, start + 3 * SECOND));
+        assertFalse(limiter.isFlooding());
+    }
+
+    @Test
+    void kickAfterZeroNeverFloods() {
+        RateLimiter limiter = limiter(1, 0, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(10, start);
+        }
+        assertFalse(limiter.isFlooding());
+    }
+}
@@ -0,0 +1,139 @@
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 待广播队列已满且按 block 策略等待时，分片线程在扇出途中断开大量慢速聊客：
+ * 离开消息不能让分片线程等待队列空位，否则分发线程等分片、分片等分发线程，服务器停止广播
+ */
+class SlowClientDisconnectTest {
+    private static final int CLIENTS = 2 * BroadcastShards.PARALLEL_MIN_MEMBERS;
+
+    private ChatServerCore core;
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (this.core == null) {
+            return;
+        }
+        // 发生死锁时停止服务器也要等广播锁，放在守护线程中，不让它挂住整个测试进程
+        Thread stopper = new Thread(this.core::stop);
+        stopper.setDaemon(true);
+        stopper.start();
+        stopper.join(10_000);
+    }
+
+    @Test
+    void disconnectsDuringParallelFanOutDoNotStallTheDispatcher() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--port=" + port, "--fanout-shards=4",
+                "--message-queue=2", "--message-queue-policy=block", "--overflow=disconnect", "--queue-capacity=4",
+                "--rate-messages=0", "--rate-bytes=0", "--journal-dir=", "--log-dir=", "--log-console=false",
+                "--jmx=false"});
+        this.core = new ChatServerCore(config);
+        this.core.start();
+
+        List<SlowConnection> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            SlowConnection client = new SlowConnection("user" + i, this.core);
+            assertTrue(this.core.registerClient(client));
+            clients.add(client);
+        }
+        awaitEmptyQueue();
+        for (SlowConnection client : clients) {
+            client.armed = true;
+        }
+
+        // 聊客的消息按 block 策略等待空位；队列只有两格，第五条广播起各连接的待发送队列溢出并被断开
+        Thread talker = new Thread(() -> {
+            for (int i = 0; i < 50; i++) {
+                this.core.enqueueMessage(this.core.rooms().lobby(), "talker：m" + i);
+            }
+        });
+        talker.start();
+        talker.join(10_000);
+        assertFalse(talker.isAlive(), "分发线程停止了广播，发言线程一直在等待队列空位");
+
+        awaitEmptyQueue();
+        for (SlowConnection client : clients) {
+            assertTrue(client.disconnected.get());
+            assertNull(this.core.findClient(client.getUserName()));
+        }
+    }
+
+    private void awaitEmptyQueue() throws InterruptedException {
+        for (int i = 0; i < 1000 && this.core.metrics().getMessageQueueDepth() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(this.core.metrics().getMessageQueueDepth() == 0, "待广播队列没有排空");
+    }
+
+    /**
+     * 从不读取的聊客：帧进入有界的待发送队列，溢出时像真实连接一样关闭并通知服务器
+     */
+    private static final class SlowConnection implements ChatConnection {
+        private final String userName;
+        private final ChatServerCore core;
+        private final OutboundQueue outbound;
+        private final AtomicBoolean disconnected = new AtomicBoolean();
+        private volatile boolean armed; // 登记期间的帧不入队，以免进入消息先把队列填满
+        private volatile ChatRoom room;
+
+        SlowConnection(String userName, ChatServerCore core) {
+            this.userName = userName;
+            this.core = core;
+            this.outbound = core.newOutboundQueue();
+        }
+
+        public String getUserName() {
+            return this.userName;
+        }
+
+        public int getProtocolVersion() {
+            return ChatProtocol.BINARY_VERSION;
+        }
+
+        public BroadcastEncoder.Stream getDeflateStream() {
+            return null;
+        }
+
+        public void sendFrame(byte[] frame) {
+            if (this.armed && !this.outbound.offer(frame)) {
+                closeConnection();
+            }
+        }
+
+        public void closeConnection() {
+            if (this.disconnected.compareAndSet(false, true)) {
+                this.core.onDisconnect(this);
+            }
+        }
+
+        public void closeAfterFlush() {
+            closeConnection();
+        }
+
+        public int getQueueDepth() {
+            return this.outbound.size();
+        }
+
+        public ChatRoom getRoom() {
+            return this.room;
+        }
+
+        public void setRoom(ChatRoom room) {
+            this.room = room;
+        }
+    }
+}
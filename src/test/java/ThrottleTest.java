@@ -0,0 +1,142 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 两种连接处理模式下的发言限速：突发消息按配额放行，持续刷屏的聊客被踢出，运行时取消限速立即生效
+ */
+class ThrottleTest {
+    private ChatServerCore core;
+    private int port;
+
+    private void start(String mode, int messagesPerSecond, int floodKick) throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--port=" + this.port, "--mode=" + mode,
+                "--rate-messages=" + messagesPerSecond, "--rate-bytes=0", "--flood-kick=" + floodKick,
+                "--journal-dir=", "--log-dir=", "--log-console=false", "--jmx=false"});
+        this.core = new ChatServerCore(config);
+        this.core.start();
+    }
+
+    @AfterEach
+    void stop() {
+        this.core.stop();
+    }
+
+    /**
+     * 以文本协议登录，一次写出若干条消息
+     */
+    private BufferedReader burst(Socket socket, String name, int count) throws IOException {
+        socket.setSoTimeout(10_000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ChatProtocol.CHARSET));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), ChatProtocol.CHARSET));
+        out.println(name);
+        out.flush();
+        assertTrue(in.readLine().startsWith("OK"));
+        for (int i = 0; i < count; i++) {
+            out.println("msg-" + i);
+        }
+        out.flush();
+        return in;
+    }
+
+    /**
+     * 按顺序等到自己发出的各条消息的广播
+     * @return 收到最后一条所用的毫秒数
+     */
+    private static long awaitEcho(BufferedReader in, int count, long sentAt) throws IOException {
+        int next = 0;
+        while (next < count) {
+            String line = in.readLine();
+            assertTrue(line != null, "连接已断开，只收到 " + next + " 条");
+            int at = line.indexOf("msg-");
+            if (at >= 0) {
+                assertEquals("msg-" + next, line.substring(at));
+                next++;
+            }
+        }
+        return (System.nanoTime() - sentAt) / 1_000_000L;
+    }
+
+    private void burstIsPacedAtTheConfiguredRate(String mode) throws Exception {
+        start(mode, 5, 0);
+        try (Socket socket = new Socket("localhost", this.port)) {
+            long sentAt = System.nanoTime();
+            BufferedReader in = burst(socket, "pacer", 15);
+            // 前 5 条用掉一秒的配额，其余 10 条按每秒 5 条放行
+            long elapsed = awaitEcho(in, 15, sentAt);
+            assertTrue(elapsed >= 1500, "15 条只用了 " + elapsed + " 毫秒");
+            assertTrue(this.core.metrics().getThrottled() > 0);
+        }
+    }
+
+    private void floodingClientIsKicked(String mode) throws Exception {
+        start(mode, 5, 5);
+        try (Socket socket = new Socket("localhost", this.port)) {
+            BufferedReader in = burst(socket, "flooder", 30);
+            String line;
+            do {
+                line = in.readLine();
+            } while (line != null);
+            assertEquals(1, this.core.metrics().getFloodKicks());
+            // 踢出时先安排发完后关闭，再移出注册表，连接关闭可能略早于移除
+            for (int i = 0; i < 500 && this.core.findClient("flooder") != null; i++) {
+                Thread.sleep(10);
+            }
+            assertNull(this.core.findClient("flooder"));
+        }
+    }
+
+    private void liftingTheLimitAtRuntimeTakesEffectImmediately(String mode) throws Exception {
+        start(mode, 1, 0);
+        this.core.rateLimits().setMessagesPerSecond(0);
+        try (Socket socket = new Socket("localhost", this.port)) {
+            long sentAt = System.nanoTime();
+            BufferedReader in = burst(socket, "talker", 40);
+            long elapsed = awaitEcho(in, 40, sentAt);
+            assertTrue(elapsed < 1000, "40 条用了 " + elapsed + " 毫秒");
+        }
+    }
+
+    @Test
+    void classicBurstIsPaced() throws Exception {
+        burstIsPacedAtTheConfiguredRate("classic");
+    }
+
+    @Test
+    void nioBurstIsPaced() throws Exception {
+        burstIsPacedAtTheConfiguredRate("nio");
+    }
+
+    @Test
+    void classicFloodingClientIsKicked() throws Exception {
+        floodingClientIsKicked("classic");
+    }
+
+    @Test
+    void nioFloodingClientIsKicked() throws Exception {
+        floodingClientIsKicked("nio");
+    }
+
+    @Test
+    void classicLimitLiftedAtRuntime() throws Exception {
+        liftingTheLimitAtRuntimeTakesEffectImmediately("classic");
+    }
+
+    @Test
+    void nioLimitLiftedAtRuntime() throws Exception {
+        liftingTheLimitAtRuntimeTakesEffectImmediately("nio");
+    }
+}